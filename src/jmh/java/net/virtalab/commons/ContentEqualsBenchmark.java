@@ -0,0 +1,54 @@
+package net.virtalab.commons;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures comparison of Bundles with compact strings, as done by content-keyed caches.
+ * Compares Java 8 and versioned comparisons of byte ranges.
+ *
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class ContentEqualsBenchmark {
+
+    private Bundle mFirst;
+    private Bundle mSecond;
+
+    @Setup
+    public void setUp() {
+        mFirst = new Bundle();
+        mFirst.setCompactStrings(true);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 32; i++) {
+            value.append("segment ").append(i).append(' ');
+            mFirst.putString("string" + i, value.toString());
+        }
+        mSecond = new Bundle();
+        mSecond.setCompactStrings(true);
+        mSecond.putAll(mFirst);
+    }
+
+    @Benchmark
+    public boolean contentEquals() {
+        return mFirst.contentEquals(mSecond);
+    }
+
+    @Fork(value = 1, jvmArgsAppend = "-Djdk.util.jar.enableMultiRelease=false")
+    public static class Java8 extends ContentEqualsBenchmark {
+    }
+
+    @Fork(1)
+    public static class Versioned extends ContentEqualsBenchmark {
+    }
+}
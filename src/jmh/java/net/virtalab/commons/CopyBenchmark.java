@@ -0,0 +1,55 @@
+package net.virtalab.commons;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures copying of Bundles by the copy constructor and by putAll into empty Bundle.
+ * Time per entry should not grow with size, as both are linear.
+ *
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private Bundle mSource;
+
+    @Setup
+    public void setUp() {
+        mSource = new Bundle();
+        for (int i = 0; i < size; i++) {
+            mSource.putInt("key" + i, i);
+        }
+    }
+
+    @Benchmark
+    public Bundle copy() {
+        return new Bundle(mSource);
+    }
+
+    @Benchmark
+    public Bundle putAll() {
+        Bundle target = new Bundle();
+        target.putAll(mSource);
+        return target;
+    }
+}
@@ -0,0 +1,68 @@
+package net.virtalab.commons;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Measures fingerprinting of Bundle with large primitive arrays, computed by walking
+ * the entries and tracked on mutation. Compares Java 8 and versioned reads of byte arrays.
+ *
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class FingerprintBenchmark {
+
+    private Bundle mBundle;
+    private Bundle mTracked;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        byte[] bytes = new byte[64 * 1024];
+        random.nextBytes(bytes);
+        long[] longs = new long[8 * 1024];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = random.nextLong();
+        }
+        mBundle = new Bundle();
+        mBundle.putByteArray("bytes", bytes);
+        mBundle.putLongArray("longs", longs);
+        for (int i = 0; i < 32; i++) {
+            mBundle.putInt("int" + i, i);
+            mBundle.putString("string" + i, "value " + i);
+        }
+        mTracked = new Bundle(mBundle);
+        mTracked.setFingerprintTracking(true);
+    }
+
+    @Benchmark
+    public long walk() {
+        return mBundle.fingerprint64();
+    }
+
+    @Benchmark
+    public long putAndTrack() {
+        mTracked.putInt("int0", 1);
+        return mTracked.fingerprint64();
+    }
+
+    @Fork(value = 1, jvmArgsAppend = "-Djdk.util.jar.enableMultiRelease=false")
+    public static class Java8 extends FingerprintBenchmark {
+    }
+
+    @Fork(1)
+    public static class Versioned extends FingerprintBenchmark {
+    }
+}
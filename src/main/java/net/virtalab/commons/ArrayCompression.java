@@ -0,0 +1,301 @@
+package net.virtalab.commons;
+
+import java.util.Arrays;
+
+/**
+ * Encoders and decoders used for compressed array storage in {@link Bundle}.
+ * <ul>
+ * <li>int and long arrays: difference to previous element, zig-zag encoded and written as varint</li>
+ * <li>double arrays: XOR with previous element, written as leading zeros and meaningful bits (Gorilla)</li>
+ * <li>boolean arrays: one bit per element</li>
+ * </ul>
+ *
+ * @since 1.0
+ */
+final class ArrayCompression {
+
+    private ArrayCompression() {
+    }
+
+    static byte[] encodeLongs(long[] values) {
+        byte[] out = new byte[values.length * 10];
+        int pos = 0;
+        long prev = 0;
+        for (long v : values) {
+            long delta = v - prev;
+            prev = v;
+            long zigZag = (delta << 1) ^ (delta >> 63);
+            while ((zigZag & ~0x7FL) != 0) {
+                out[pos++] = (byte) ((zigZag & 0x7F) | 0x80);
+                zigZag >>>= 7;
+            }
+            out[pos++] = (byte) zigZag;
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    static byte[] encodeInts(int[] values) {
+        byte[] out = new byte[values.length * 5];
+        int pos = 0;
+        int prev = 0;
+        for (int v : values) {
+            int delta = v - prev;
+            prev = v;
+            int zigZag = (delta << 1) ^ (delta >> 31);
+            while ((zigZag & ~0x7F) != 0) {
+                out[pos++] = (byte) ((zigZag & 0x7F) | 0x80);
+                zigZag >>>= 7;
+            }
+            out[pos++] = (byte) zigZag;
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    static byte[] encodeDoubles(double[] values) {
+        BitWriter out = new BitWriter(values.length * 10 + 8);
+        long prev = 0;
+        int prevLeading = -1;
+        int prevTrailing = 0;
+        for (int i = 0; i < values.length; i++) {
+            long bits = Double.doubleToRawLongBits(values[i]);
+            if (i == 0) {
+                out.write(bits, 64);
+                prev = bits;
+                continue;
+            }
+            long xor = bits ^ prev;
+            prev = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                // meaningful bits fit into the block of the previous value
+                out.write(0b10, 2);
+                out.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                out.write(0b11, 2);
+                out.write(leading, 5);
+                // 64 meaningful bits do not fit into 6 bits, they are written as 0
+                out.write(meaningful & 0x3F, 6);
+                out.write(xor >>> trailing, meaningful);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] encodeBooleans(boolean[] values) {
+        byte[] out = new byte[(values.length + 7) >>> 3];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i]) {
+                out[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Checks that data holds exactly count varints of at most maxBytes bytes each,
+     * as written by {@link #encodeLongs(long[])} or {@link #encodeInts(int[])}.
+     */
+    static boolean isVarints(byte[] data, int count, int maxBytes) {
+        int found = 0;
+        int bytes = 0;
+        for (byte b : data) {
+            if (++bytes > maxBytes) {
+                return false;
+            }
+            if (b >= 0) {
+                found++;
+                bytes = 0;
+            }
+        }
+        return bytes == 0 && found == count;
+    }
+
+    /**
+     * Checks that data holds exactly count doubles as written by {@link #encodeDoubles(double[])},
+     * without decoding them.
+     */
+    static boolean isDoubles(byte[] data, int count) {
+        BitReader in = new BitReader(data);
+        if (count > 0) {
+            if (in.remaining() < 64) {
+                return false;
+            }
+            in.read(64);
+        }
+        int leading = -1;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            if (in.remaining() < 1) {
+                return false;
+            }
+            if (in.read(1) == 0) {
+                continue;
+            }
+            if (in.remaining() < 1) {
+                return false;
+            }
+            if (in.read(1) != 0) {
+                if (in.remaining() < 11) {
+                    return false;
+                }
+                leading = (int) in.read(5);
+                int meaningful = (int) in.read(6);
+                if (meaningful == 0) {
+                    meaningful = 64;
+                }
+                trailing = 64 - leading - meaningful;
+                if (trailing < 0) {
+                    return false;
+                }
+            } else if (leading < 0) {
+                return false;
+            }
+            int meaningful = 64 - leading - trailing;
+            if (in.remaining() < meaningful) {
+                return false;
+            }
+            in.read(meaningful);
+        }
+        // only padding of last byte may be left
+        return in.remaining() < 8;
+    }
+
+    static boolean isBooleans(byte[] data, int count) {
+        return data.length == (count + 7L) >>> 3;
+    }
+
+    static boolean decodeBoolean(byte[] data, int index) {
+        return (data[index >>> 3] & (1 << (index & 7))) != 0;
+    }
+
+    /**
+     * Sequential decoder of varint encoded deltas.
+     */
+    static final class VarintDecoder {
+        private final byte[] mData;
+        private int mPos;
+        private long mPrev;
+
+        VarintDecoder(byte[] data) {
+            this.mData = data;
+        }
+
+        long nextLong() {
+            long zigZag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mData[mPos++];
+                zigZag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            mPrev += (zigZag >>> 1) ^ -(zigZag & 1);
+            return mPrev;
+        }
+
+        int nextInt() {
+            int zigZag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mData[mPos++];
+                zigZag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            mPrev = (int) mPrev + ((zigZag >>> 1) ^ -(zigZag & 1));
+            return (int) mPrev;
+        }
+    }
+
+    /**
+     * Sequential decoder of XOR encoded doubles.
+     */
+    static final class XorDecoder {
+        private final BitReader mIn;
+        private long mPrev;
+        private int mLeading = -1;
+        private int mTrailing;
+        private boolean mFirst = true;
+
+        XorDecoder(byte[] data) {
+            this.mIn = new BitReader(data);
+        }
+
+        double nextDouble() {
+            if (mFirst) {
+                mFirst = false;
+                mPrev = mIn.read(64);
+            } else if (mIn.read(1) != 0) {
+                if (mIn.read(1) != 0) {
+                    mLeading = (int) mIn.read(5);
+                    int meaningful = (int) mIn.read(6);
+                    if (meaningful == 0) {
+                        meaningful = 64;
+                    }
+                    mTrailing = 64 - mLeading - meaningful;
+                }
+                mPrev ^= mIn.read(64 - mLeading - mTrailing) << mTrailing;
+            }
+            return Double.longBitsToDouble(mPrev);
+        }
+    }
+
+    private static final class BitWriter {
+        private byte[] mData;
+        private long mBitPos;
+
+        BitWriter(int capacityBytes) {
+            this.mData = new byte[capacityBytes];
+        }
+
+        // writes lowest count bits of value, most significant first
+        void write(long value, int count) {
+            while (count > 0) {
+                int free = 8 - (int) (mBitPos & 7);
+                int n = Math.min(free, count);
+                int bits = (int) ((value >>> (count - n)) & ((1 << n) - 1));
+                mData[(int) (mBitPos >>> 3)] |= bits << (free - n);
+                mBitPos += n;
+                count -= n;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mData, (int) ((mBitPos + 7) >>> 3));
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] mData;
+        private long mBitPos;
+
+        BitReader(byte[] data) {
+            this.mData = data;
+        }
+
+        long remaining() {
+            return (long) mData.length * 8 - mBitPos;
+        }
+
+        long read(int count) {
+            long value = 0;
+            while (count > 0) {
+                int free = 8 - (int) (mBitPos & 7);
+                int n = Math.min(free, count);
+                int bits = (mData[(int) (mBitPos >>> 3)] >>> (free - n)) & ((1 << n) - 1);
+                value = (value << n) | bits;
+                mBitPos += n;
+                count -= n;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package net.virtalab.commons;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Strategies available as constants of {@link MergeStrategy}.
+ * Numbers are unboxed, combined as primitives and boxed once for the result.
+ *
+ * @since 1.0
+ */
+enum BuiltInMergeStrategy implements MergeStrategy {
+    OVERWRITE {
+        @Override
+        public Object merge(String key, Object existing, Object incoming) {
+            return incoming;
+        }
+    },
+    KEEP_EXISTING {
+        @Override
+        public Object merge(String key, Object existing, Object incoming) {
+            return existing;
+        }
+    },
+    SUM {
+        @Override
+        public Object merge(String key, Object existing, Object incoming) {
+            if (existing == null || incoming == null || existing.getClass() != incoming.getClass()) {
+                return incoming;
+            }
+            if (existing instanceof Integer) {
+                return (Integer) existing + (Integer) incoming;
+            } else if (existing instanceof Long) {
+                return (Long) existing + (Long) incoming;
+            } else if (existing instanceof Double) {
+                return (Double) existing + (Double) incoming;
+            } else if (existing instanceof Float) {
+                return (Float) existing + (Float) incoming;
+            } else if (existing instanceof Short) {
+                return (short) ((Short) existing + (Short) incoming);
+            } else if (existing instanceof Byte) {
+                return (byte) ((Byte) existing + (Byte) incoming);
+            }
+            return incoming;
+        }
+    },
+    MAX {
+        @Override
+        public Object merge(String key, Object existing, Object incoming) {
+            int c = compare(existing, incoming);
+            return c == UNCOMPARABLE || c < 0 ? incoming : existing;
+        }
+    },
+    MIN {
+        @Override
+        public Object merge(String key, Object existing, Object incoming) {
+            int c = compare(existing, incoming);
+            return c == UNCOMPARABLE || c > 0 ? incoming : existing;
+        }
+    },
+    CONCAT {
+        @Override
+        public Object merge(String key, Object existing, Object incoming) {
+            if (existing instanceof List && incoming instanceof List) {
+                List<?> first = (List<?>) existing;
+                List<?> second = (List<?>) incoming;
+                List<Object> list = new ArrayList<>(first.size() + second.size());
+                list.addAll(first);
+                list.addAll(second);
+                return list;
+            }
+            if (existing == null || incoming == null || existing.getClass() != incoming.getClass()
+                    || !existing.getClass().isArray()) {
+                return incoming;
+            }
+            int length = Array.getLength(existing);
+            int incomingLength = Array.getLength(incoming);
+            Object array = Array.newInstance(existing.getClass().getComponentType(), length + incomingLength);
+            System.arraycopy(existing, 0, array, 0, length);
+            System.arraycopy(incoming, 0, array, length, incomingLength);
+            return array;
+        }
+    };
+
+    private static final int UNCOMPARABLE = Integer.MIN_VALUE;
+
+    // compares numbers or chars of the same type
+    private static int compare(Object a, Object b) {
+        if (a == null || b == null || a.getClass() != b.getClass()) {
+            return UNCOMPARABLE;
+        }
+        if (a instanceof Integer) {
+            return Integer.compare((Integer) a, (Integer) b);
+        } else if (a instanceof Long) {
+            return Long.compare((Long) a, (Long) b);
+        } else if (a instanceof Double) {
+            return Double.compare((Double) a, (Double) b);
+        } else if (a instanceof Float) {
+            return Float.compare((Float) a, (Float) b);
+        } else if (a instanceof Short) {
+            return Short.compare((Short) a, (Short) b);
+        } else if (a instanceof Byte) {
+            return Byte.compare((Byte) a, (Byte) b);
+        } else if (a instanceof Character) {
+            return Character.compare((Character) a, (Character) b);
+        }
+        return UNCOMPARABLE;
+    }
+}
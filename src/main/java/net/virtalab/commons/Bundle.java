@@ -3,10 +3,25 @@ package net.virtalab.commons;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Supplier;
 
 /**
  * Storage for various types
@@ -19,10 +34,38 @@ public class Bundle {
 
     private static Logger Log = LoggerFactory.getLogger(Bundle.class);
 
-    private Map<String, Object> mMap = new HashMap<>();
+    private static volatile MismatchReporter sDefaultReporter = new RateLimitedMismatchReporter();
+
+    private Map<String, Object> mMap;
 
     private static final int DEFAULT_INITIAL_CAPACITY = 16;
-    private int capacity;
+    // header and fields of Bundle object
+    private static final int SHALLOW_SIZE = 64;
+    // smallest number of Bundles worth merging in separate task
+    private static final int MERGE_PART_MIN_SIZE = 4;
+    private static final AtomicReferenceFieldUpdater<Bundle, ExpiryWheel.Timer> EXPIRED =
+            AtomicReferenceFieldUpdater.newUpdater(Bundle.class, ExpiryWheel.Timer.class, "mExpired");
+
+    private MismatchReporter mReporter;
+    // samples accesses, null when not profiled
+    private BundleProfiler mProfiler;
+    private KeyDictionary mKeyDictionary;
+    private boolean mImmutableArrays;
+    // arena of compact strings, null when strings are stored as they are
+    private Utf8String.Arena mStringArena;
+    private boolean mReadOnly;
+    private ExpiryWheel mExpiryWheel;
+    // stack of entries handed over by the wheel, linked through their timers, removed on next access
+    private volatile ExpiryWheel.Timer mExpired;
+    // estimated bytes retained by keys and values, -1 when not tracked
+    private long mEntryBytes = -1;
+    // sums of low and high halves of entry hashes, null when not tracked
+    private long[] mFingerprint;
+    // number of lazy values, which are left out of tracked fingerprint
+    private int mLazyEntries;
+    // factory which learns size of this Bundle, and size last reported to it
+    private BundleFactory mFactory;
+    private int mSizeHint;
     /**
      * Creates new and empty bundle
      *
@@ -32,6 +75,17 @@ public class Bundle {
         return new Bundle();
     }
 
+    /**
+     * Creates new and empty bundle which keeps its keys sorted. Ordered bundle is iterated
+     * in key order and supports prefix and range views, see {@link #subBundle(String)}.
+     * Keys are compared as by {@link String#compareTo(String)} and cannot be null.
+     *
+     * @return empty ordered bundle
+     */
+    public static Bundle createOrderedBundle() {
+        return new Bundle(new TreeMap<String, Object>());
+    }
+
     /**
      * Make a Bundle for a single key/value pair.
      *
@@ -67,10 +121,88 @@ public class Bundle {
      * @param b a Bundle to be copied.
      */
     public Bundle(Bundle b) {
-        this.mMap = new HashMap<>(b.capacity);
-        this.mMap.putAll(b.mMap);
+        this(b, true);
+    }
+
+    /**
+     * Copies given Bundle. Copy which is going to be frozen, or dropped soon, does not register
+     * entries it shares with the source with the expiry wheel, as read-only Bundle keeps its
+     * entries anyway. Entries stored into the copy later are registered as usual.
+     */
+    Bundle(Bundle b, boolean registerExpiring) {
+        b.removeExpired();
+        if (b.isOrdered()) {
+            this.mMap = new TreeMap<>(b.mMap);
+        } else {
+            this.mMap = new HashMap<>(b.mMap.size() * 4 / 3 + 1);
+            this.mMap.putAll(b.mMap);
+        }
+        this.mReporter = b.mReporter;
+        this.mProfiler = b.mProfiler;
+        this.mKeyDictionary = b.mKeyDictionary;
+        this.mImmutableArrays = b.mImmutableArrays;
+        if (b.mStringArena != null) {
+            this.mStringArena = new Utf8String.Arena(b.mStringArena.isCaching());
+        }
+        if (b.mExpiryWheel != null) {
+            this.mExpiryWheel = b.mExpiryWheel;
+            if (registerExpiring) {
+                scheduleExpiringValues();
+            }
+        }
+    }
+
+    // Bundle over given map
+    private Bundle(Map<String, Object> map) {
+        this.mMap = map;
+    }
+
+    /**
+     * Creates empty Bundle with settings of this Bundle, sized for given number of entries.
+     */
+    Bundle emptyCopy(int expectedSize) {
+        Bundle b = isOrdered() ? createOrderedBundle() : new Bundle(expectedSize * 4 / 3 + 1);
+        b.mReporter = mReporter;
+        b.mProfiler = mProfiler;
+        b.mKeyDictionary = mKeyDictionary;
+        b.mImmutableArrays = mImmutableArrays;
+        if (mStringArena != null) {
+            b.mStringArena = new Utf8String.Arena(mStringArena.isCaching());
+        }
+        b.mExpiryWheel = mExpiryWheel;
+        return b;
+    }
+
+    /**
+     * Creates read-only copy whose content does not change later: lazy values are computed,
+     * expiring values are kept without their deadline and expired entries are left out.
+     */
+    Bundle resolvedCopy() {
+        removeExpired();
+        Bundle b = new Bundle(mMap.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Object> e : mMap.entrySet()) {
+            Object value = e.getValue();
+            if (value instanceof ExpiringValue) {
+                ExpiringValue expiring = (ExpiringValue) value;
+                // value read before the check was not released yet
+                value = expiring.resolve();
+                if (expiring.isExpired()) {
+                    continue;
+                }
+            } else if (value instanceof LazyValue) {
+                value = ((LazyValue) value).resolve();
+            }
+            b.mMap.put(e.getKey(), value);
+        }
+        b.mReadOnly = true;
+        return b;
     }
 
+    // entries in their stored form, not to be modified
+    Map<String, Object> storage() {
+        removeExpired();
+        return mMap;
+    }
 
     /**
      * Clones the current Bundle. The internal map is cloned, but the keys and
@@ -81,12 +213,245 @@ public class Bundle {
         return new Bundle(this);
     }
 
+    /**
+     * Sets reporter used by all Bundles which have no own reporter set.
+     * By default warnings are logged with {@link RateLimitedMismatchReporter}.
+     *
+     * @param reporter a reporter, not null
+     */
+    public static void setDefaultMismatchReporter(MismatchReporter reporter) {
+        if (reporter == null) {
+            throw new IllegalArgumentException("Reporter cannot be null");
+        }
+        sDefaultReporter = reporter;
+    }
+
+    /**
+     * Sets reporter notified when value is read with getter of different type.
+     *
+     * @param reporter a reporter, or null to use default one
+     */
+    public void setMismatchReporter(MismatchReporter reporter) {
+        checkWritable();
+        this.mReporter = reporter;
+    }
+
+    /**
+     * Sets profiler which samples reads and writes of this Bundle. Copies of this Bundle
+     * keep the profiler. Bundles are not profiled by default.
+     *
+     * @param profiler a profiler, or null to stop profiling
+     */
+    public void setProfiler(BundleProfiler profiler) {
+        checkWritable();
+        this.mProfiler = profiler;
+    }
+
+    /**
+     * Returns profiler of this Bundle.
+     *
+     * @return profiler, or null if Bundle is not profiled
+     */
+    public BundleProfiler getProfiler() {
+        return mProfiler;
+    }
+
+    /**
+     * Sets dictionary used to canonicalize keys on insert. Keys which are equal
+     * are then stored as the same String instance across all Bundles sharing dictionary.
+     * Keys already present in this Bundle are canonicalized as well.
+     *
+     * @param dictionary a dictionary, or null to store keys as they are
+     * @see KeyDictionary#shared()
+     */
+    public void setKeyDictionary(KeyDictionary dictionary) {
+        checkWritable();
+        removeExpired();
+        this.mKeyDictionary = dictionary;
+        if (dictionary != null && !mMap.isEmpty()) {
+            Map<String, Object> old = mMap;
+            if (isOrdered()) {
+                mMap = new TreeMap<>();
+            } else {
+                mMap = new HashMap<>(old.size() * 4 / 3 + 1);
+            }
+            putAll(old);
+        }
+        if (mEntryBytes >= 0) {
+            // key sizes depend on dictionary
+            mEntryBytes = -1;
+            setRetainedSizeTracking(true);
+        }
+    }
+
+    /**
+     * Returns dictionary used to canonicalize keys.
+     *
+     * @return a dictionary, or null if keys are stored as they are
+     */
+    public KeyDictionary getKeyDictionary() {
+        return mKeyDictionary;
+    }
+
+    /**
+     * Makes Bundle keep its own copies of arrays. When enabled, arrays are copied when they
+     * are put and get*Array methods return copies, so neither the caller who put an array
+     * nor callers who read it can change the stored array. Array views returned by
+     * get*ArrayView methods and {@link #getByteSequence(String)} are then safe to share
+     * without copying. Arrays already present are copied as well.
+     *
+     * @param immutable true to copy arrays on put and get
+     */
+    public void setImmutableArrays(boolean immutable) {
+        checkWritable();
+        removeExpired();
+        if (immutable && !mImmutableArrays) {
+            for (Map.Entry<String, Object> e : mMap.entrySet()) {
+                e.setValue(BundleValues.copyArray(e.getValue()));
+            }
+        }
+        this.mImmutableArrays = immutable;
+    }
+
+    /**
+     * Makes Bundle store Strings, String arrays and lists of Strings as UTF-8 bytes, which
+     * take less memory than String objects, especially for ASCII text. Strings are appended
+     * to chunks of bytes owned by the Bundle, arrays and lists keep bytes of all elements
+     * in single array. String is created on every read, see
+     * {@link #setCompactStrings(boolean, boolean)} to keep it, while
+     * {@link #getStringBytes(String)} and {@link #stringEquals(String, CharSequence)} do not
+     * create it at all. Values already present are converted as well.
+     * <p>
+     * Arrays and lists are stored as copies, changes made to them after they were put are not
+     * reflected. Lists are read as unmodifiable lists. Unpaired surrogates are stored as '?'.
+     *
+     * @param compact true to store strings as UTF-8 bytes
+     */
+    public void setCompactStrings(boolean compact) {
+        removeExpired();
+        setCompactStrings(compact, false);
+    }
+
+    /**
+     * Makes Bundle store strings as UTF-8 bytes, see {@link #setCompactStrings(boolean)}.
+     *
+     * @param compact      true to store strings as UTF-8 bytes
+     * @param cacheStrings true to keep String once it was read, for values read repeatedly
+     */
+    public void setCompactStrings(boolean compact, boolean cacheStrings) {
+        checkWritable();
+        removeExpired();
+        if (!compact) {
+            mStringArena = null;
+            return;
+        }
+        if (mStringArena != null && mStringArena.isCaching() == cacheStrings) {
+            return;
+        }
+        mStringArena = new Utf8String.Arena(cacheStrings);
+        for (Map.Entry<String, Object> e : mMap.entrySet()) {
+            Object value = e.getValue();
+            if (value instanceof Utf8String) {
+                value = ((Utf8String) value).resolve();
+            }
+            e.setValue(compactString(value));
+        }
+        if (mEntryBytes >= 0) {
+            mEntryBytes = -1;
+            setRetainedSizeTracking(true);
+        }
+    }
+
+    /**
+     * Returns true if Bundle stores strings as UTF-8 bytes.
+     *
+     * @return true if strings are compact
+     * @see #setCompactStrings(boolean)
+     */
+    public boolean isCompactStrings() {
+        return mStringArena != null;
+    }
+
+    private Object compactString(Object value) {
+        if (value instanceof String) {
+            return mStringArena.add((String) value);
+        } else if (value instanceof String[]) {
+            return Utf8StringArray.of((String[]) value);
+        } else if (value instanceof List) {
+            Utf8StringArray strings = Utf8StringArray.of((List<?>) value);
+            return strings == null ? value : strings;
+        }
+        return value;
+    }
+
+    /**
+     * Returns true if Bundle keeps its own copies of arrays.
+     *
+     * @return true if arrays are copied on put and get
+     * @see #setImmutableArrays(boolean)
+     */
+    public boolean isImmutableArrays() {
+        return mImmutableArrays;
+    }
+
+    /**
+     * Sets wheel which removes entries put with time to live once they expire, even if they
+     * are never accessed again. Without wheel, expired entries are removed when accessed.
+     * Wheel never changes this Bundle itself: entries it finds expired are removed by next
+     * call of any method of this Bundle, in the thread which calls it.
+     *
+     * @param wheel a wheel, or null to remove expired entries only on access
+     * @see ExpiryWheel#shared()
+     */
+    public void setExpiryWheel(ExpiryWheel wheel) {
+        checkWritable();
+        removeExpired();
+        if (mExpiryWheel != null) {
+            cancelExpiringValues();
+        }
+        this.mExpiryWheel = wheel;
+        if (wheel != null) {
+            scheduleExpiringValues();
+        }
+        if (mEntryBytes >= 0) {
+            // registration changes retained size of values
+            mEntryBytes = -1;
+            setRetainedSizeTracking(true);
+        }
+    }
+
+    /**
+     * Returns wheel which removes expired entries.
+     *
+     * @return a wheel, or null if expired entries are removed only on access
+     */
+    public ExpiryWheel getExpiryWheel() {
+        return mExpiryWheel;
+    }
+
+    private void scheduleExpiringValues() {
+        for (Map.Entry<String, Object> e : mMap.entrySet()) {
+            if (e.getValue() instanceof ExpiringValue) {
+                e.setValue(((ExpiringValue) e.getValue()).claim(mExpiryWheel, this, e.getKey()));
+            }
+        }
+    }
+
+    private void cancelExpiringValues() {
+        for (Object value : mMap.values()) {
+            if (value instanceof ExpiringValue) {
+                ((ExpiringValue) value).cancel(this);
+            }
+        }
+    }
+
     /**
      * Returns the number of mappings contained in this Bundle.
      *
      * @return the number of mappings as an int.
      */
     public int size() {
+        removeExpired();
         return mMap.size();
     }
 
@@ -94,14 +459,140 @@ public class Bundle {
      * Returns true if the mapping of this Bundle is empty, false otherwise.
      */
     public boolean isEmpty() {
+        removeExpired();
         return mMap.isEmpty();
     }
 
+    /**
+     * Returns true if this Bundle keeps its keys sorted.
+     *
+     * @return true if Bundle was created by {@link #createOrderedBundle()}, is a copy
+     * of such Bundle or is its view
+     */
+    public boolean isOrdered() {
+        return mMap instanceof NavigableMap;
+    }
+
+    /**
+     * Returns true if this Bundle cannot be modified.
+     *
+     * @return true for read-only Bundles
+     */
+    public boolean isReadOnly() {
+        return mReadOnly;
+    }
+
+    /**
+     * Returns keys of this Bundle. Keys of ordered Bundle are returned in ascending order.
+     * Returned set is a read-only view, which reflects later changes of the Bundle.
+     *
+     * @return set of keys
+     */
+    public Set<String> keySet() {
+        removeExpired();
+        return Collections.unmodifiableSet(mMap.keySet());
+    }
+
+    /**
+     * Returns cursor over entries of this Bundle. Entries of ordered Bundle are walked in key order.
+     *
+     * @return cursor positioned before first entry
+     */
+    public BundleCursor cursor() {
+        removeExpired();
+        return new BundleCursor(mMap);
+    }
+
+    /**
+     * Returns read-only view of entries of this ordered Bundle whose keys start with given prefix.
+     * Entries are not copied and view reflects later changes of this Bundle.
+     * Finding the entries takes time proportional to their number and logarithm of Bundle size.
+     *
+     * @param prefix a String, not null
+     * @return read-only Bundle with entries under the prefix
+     * @throws UnsupportedOperationException if this Bundle is not ordered
+     */
+    public Bundle subBundle(String prefix) {
+        NavigableMap<String, Object> map = navigableMap();
+        String end = prefixEnd(prefix);
+        return view(end == null ? map.tailMap(prefix, true) : map.subMap(prefix, true, end, false));
+    }
+
+    /**
+     * Returns read-only view of entries of this ordered Bundle whose keys are in given range.
+     * Entries are not copied and view reflects later changes of this Bundle.
+     *
+     * @param fromKey lowest key, inclusive
+     * @param toKey   highest key, exclusive
+     * @return read-only Bundle with entries in the range
+     * @throws UnsupportedOperationException if this Bundle is not ordered
+     * @throws IllegalArgumentException      if fromKey is greater than toKey
+     */
+    public Bundle subBundle(String fromKey, String toKey) {
+        return view(navigableMap().subMap(fromKey, true, toKey, false));
+    }
+
+    private NavigableMap<String, Object> navigableMap() {
+        if (!isOrdered()) {
+            throw new UnsupportedOperationException("Bundle is not ordered");
+        }
+        return (NavigableMap<String, Object>) mMap;
+    }
+
+    private Bundle view(Map<String, Object> map) {
+        Bundle view = new Bundle(map);
+        view.mReporter = mReporter;
+        view.mKeyDictionary = mKeyDictionary;
+        view.mImmutableArrays = mImmutableArrays;
+        view.mReadOnly = true;
+        return view;
+    }
+
+    // smallest String greater than all Strings starting with prefix, null if there is none
+    private static String prefixEnd(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Shrinks internal storage to fit current entries, e.g. of long-lived Bundle which used to
+     * be larger. Bundle keeping its keys sorted has no spare storage and is left as is.
+     */
+    public void trimToSize() {
+        checkWritable();
+        removeExpired();
+        if (!isOrdered()) {
+            mMap = new HashMap<>(mMap);
+        }
+    }
+
     /**
      * Removes all elements from the mapping of this Bundle.
      */
     public void clear() {
+        checkWritable();
+        if (mExpiryWheel != null) {
+            for (Object value : mMap.values()) {
+                if (value instanceof ExpiringValue) {
+                    ((ExpiringValue) value).cancel(this);
+                }
+            }
+        }
         mMap.clear();
+        removeExpired();
+        if (mEntryBytes >= 0) {
+            mEntryBytes = 0;
+        }
+        if (mFingerprint != null) {
+            mFingerprint[0] = 0;
+            mFingerprint[1] = 0;
+            mLazyEntries = 0;
+        }
     }
 
     /**
@@ -112,7 +603,13 @@ public class Bundle {
      * @return true if the key is part of the mapping, false otherwise
      */
     public boolean containsKey(String key) {
-        return mMap.containsKey(key);
+        removeExpired();
+        Object o = mMap.get(key);
+        if (o instanceof ExpiringValue && ((ExpiringValue) o).isExpired()) {
+            expire(key, o);
+            return false;
+        }
+        return o != null || mMap.containsKey(key);
     }
 
     /**
@@ -121,7 +618,21 @@ public class Bundle {
      * @param key a String key
      */
     public void remove(String key) {
-        mMap.remove(key);
+        checkWritable();
+        removeExpired();
+        if ((mEntryBytes >= 0 || mFingerprint != null) && mMap.containsKey(key)) {
+            Object value = mMap.get(key);
+            if (mEntryBytes >= 0) {
+                mEntryBytes -= entryBytes(key, value);
+            }
+            if (mFingerprint != null) {
+                trackFingerprint(key, value, -1);
+            }
+        }
+        Object old = mMap.remove(key);
+        if (old instanceof ExpiringValue) {
+            ((ExpiringValue) old).cancel(this);
+        }
     }
 
     /**
@@ -130,7 +641,20 @@ public class Bundle {
      * @param bundle a Bundle
      */
     public void putAll(Bundle bundle) {
-        mMap.putAll(bundle.mMap);
+        checkWritable();
+        removeExpired();
+        bundle.removeExpired();
+        // expiring values are registered with the wheel of this Bundle, not shared with the other one
+        if (mEntryBytes >= 0 || mFingerprint != null || mProfiler != null
+                || mExpiryWheel != null || bundle.mExpiryWheel != null
+                || (mImmutableArrays && !bundle.mImmutableArrays)
+                || (mStringArena != null && bundle.mStringArena == null)
+                || (mKeyDictionary != null && mKeyDictionary != bundle.mKeyDictionary)) {
+            putAll(bundle.mMap);
+        } else {
+            mMap.putAll(bundle.mMap);
+            checkGrowth();
+        }
     }
 
     /**
@@ -138,8 +662,115 @@ public class Bundle {
      *
      * @param map a Map
      */
+    @SuppressWarnings("unchecked")
     void putAll(Map map) {
-        mMap.putAll(map);
+        checkWritable();
+        if (mKeyDictionary == null && mEntryBytes < 0 && mFingerprint == null && !mImmutableArrays
+                && mStringArena == null && mProfiler == null && mExpiryWheel == null) {
+            mMap.putAll(map);
+            checkGrowth();
+            return;
+        }
+        for (Map.Entry<String, Object> e : ((Map<String, Object>) map).entrySet()) {
+            store(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Merges all mappings from the given Bundle into this Bundle. Keys missing in this Bundle
+     * are inserted, values of keys present in both Bundles are combined by the strategy
+     * and replaced in place. Each key is looked up once.
+     *
+     * @param bundle   a Bundle
+     * @param strategy strategy combining values of keys present in both Bundles
+     * @see MergeStrategy#SUM
+     */
+    public void merge(Bundle bundle, MergeStrategy strategy) {
+        checkWritable();
+        removeExpired();
+        bundle.removeExpired();
+        for (Map.Entry<String, Object> e : bundle.mMap.entrySet()) {
+            String key = e.getKey();
+            Object current = mMap.get(key);
+            if (current == null && !mMap.containsKey(key)) {
+                store(key, e.getValue());
+                continue;
+            }
+            Object existing = resolve(current);
+            Object merged = strategy.merge(key, existing, resolve(e.getValue()));
+            if (merged != existing) {
+                store(key, merged);
+            }
+        }
+    }
+
+    /**
+     * Merges given Bundles, in their order, into a new Bundle. Bundles are split into parts
+     * merged in parallel on the executor, partial results are then merged in order.
+     * Strategy must be associative, as all built-in strategies are.
+     * Given Bundles must not be modified until this method returns.
+     *
+     * @param bundles  Bundles to merge
+     * @param strategy strategy combining values of keys present in more Bundles
+     * @param executor executor merging the parts, or null to merge in calling thread
+     * @return new Bundle with merged mappings, ordered if the first Bundle is ordered
+     * @throws InterruptedException if interrupted while waiting for the parts
+     */
+    public static Bundle mergeAll(final List<Bundle> bundles, final MergeStrategy strategy,
+                                  ExecutorService executor) throws InterruptedException {
+        int parts = executor == null ? 1
+                : Math.min(Runtime.getRuntime().availableProcessors(), bundles.size() / MERGE_PART_MIN_SIZE);
+        if (parts <= 1) {
+            return mergeRange(bundles, 0, bundles.size(), strategy);
+        }
+        List<Future<Bundle>> futures = new ArrayList<>(parts);
+        int from = 0;
+        for (int i = 0; i < parts; i++) {
+            final int start = from;
+            final int end = from + (bundles.size() - from) / (parts - i);
+            futures.add(executor.submit(new Callable<Bundle>() {
+                @Override
+                public Bundle call() {
+                    return mergeRange(bundles, start, end, strategy);
+                }
+            }));
+            from = end;
+        }
+        try {
+            Bundle result = futures.get(0).get();
+            for (int i = 1; i < parts; i++) {
+                result.merge(futures.get(i).get(), strategy);
+            }
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            for (Future<Bundle> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static Bundle mergeRange(List<Bundle> bundles, int from, int to, MergeStrategy strategy) {
+        Bundle result;
+        if (from == to) {
+            result = new Bundle();
+        } else if (bundles.get(from).isOrdered()) {
+            result = createOrderedBundle();
+        } else {
+            result = new Bundle(bundles.get(from).size() * 4 / 3 + 1);
+        }
+        for (int i = from; i < to; i++) {
+            result.merge(bundles.get(i), strategy);
+        }
+        return result;
     }
 
     /**
@@ -150,7 +781,7 @@ public class Bundle {
      * @param value a Boolean, or null
      */
     public void putBoolean(String key, boolean value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -161,7 +792,7 @@ public class Bundle {
      * @param value a byte
      */
     public void putByte(String key, byte value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -172,7 +803,7 @@ public class Bundle {
      * @param value a char, or null
      */
     public void putChar(String key, char value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -183,7 +814,7 @@ public class Bundle {
      * @param value a double
      */
     public void putDouble(String key, double value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -194,7 +825,7 @@ public class Bundle {
      * @param value a float
      */
     public void putFloat(String key, float value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -205,7 +836,7 @@ public class Bundle {
      * @param value an int, or null
      */
     public void putInt(String key, int value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -216,7 +847,7 @@ public class Bundle {
      * @param value a long
      */
     public void putLong(String key, long value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -227,7 +858,7 @@ public class Bundle {
      * @param value a short
      */
     public void putShort(String key, short value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -238,7 +869,7 @@ public class Bundle {
      * @param value a String, or null
      */
     public void putString(String key, String value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -249,7 +880,7 @@ public class Bundle {
      * @param value a Object, or null
      */
     public void put(String key, Object value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -260,7 +891,7 @@ public class Bundle {
      * @param value a boolean array object, or null
      */
     public void putBooleanArray(String key, byte[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -271,7 +902,7 @@ public class Bundle {
      * @param value a byte array object, or null
      */
     public void putByteArray(String key, byte[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -282,7 +913,7 @@ public class Bundle {
      * @param value a char array object, or null
      */
     public void putCharArray(String key, char[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -293,7 +924,7 @@ public class Bundle {
      * @param value a double array object, or null
      */
     public void putDoubleArray(String key, double[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -304,7 +935,7 @@ public class Bundle {
      * @param value a float array object, or null
      */
     public void putFloatArray(String key, float[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -315,7 +946,7 @@ public class Bundle {
      * @param value a int array object, or null
      */
     public void putIntArray(String key, int[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -326,7 +957,7 @@ public class Bundle {
      * @param value a long array object, or null
      */
     public void putLongArray(String key, long[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -337,7 +968,7 @@ public class Bundle {
      * @param value a short array object, or null
      */
     public void putShortArray(String key, short[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -348,7 +979,7 @@ public class Bundle {
      * @param value a String array object, or null
      */
     public void putStringArray(String key, String[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -359,183 +990,391 @@ public class Bundle {
      * @param value a array object with elements of any type, or null
      */
     public void putArray(String key, Object[] value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
-     * Inserts a boolean list value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a long array value into the mapping of this Bundle in compressed form,
+     * replacing any existing value for the given key. Elements are stored as varint encoded
+     * differences, which works best for sorted or slowly changing values.
+     * The array is decompressed on each {@link #getLongArray(String)} call.
      *
      * @param key   a String, or null
-     * @param value a boolean list object, or null
+     * @param value a long array object, or null
      */
-    public void putBooleanList(String key, List<Boolean> value) {
-        mMap.put(key, value);
+    public void putCompressedLongArray(String key, long[] value) {
+        store(key, value == null ? null : new CompressedArray.Longs(value));
     }
 
     /**
-     * Inserts a byte list value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts an int array value into the mapping of this Bundle in compressed form,
+     * replacing any existing value for the given key. Elements are stored as varint encoded
+     * differences, which works best for sorted or slowly changing values.
+     * The array is decompressed on each {@link #getIntArray(String)} call.
      *
      * @param key   a String, or null
-     * @param value a byte list object, or null
+     * @param value an int array object, or null
      */
-    public void putByteList(String key, List<Byte> value) {
-        mMap.put(key, value);
+    public void putCompressedIntArray(String key, int[] value) {
+        store(key, value == null ? null : new CompressedArray.Ints(value));
     }
 
     /**
-     * Inserts a char list value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a double array value into the mapping of this Bundle in compressed form,
+     * replacing any existing value for the given key. Elements are stored XORed with
+     * previous element, which works best for repeating or slowly changing values.
+     * The array is decompressed on each {@link #getDoubleArray(String)} call.
      *
      * @param key   a String, or null
-     * @param value a char list object, or null
+     * @param value a double array object, or null
      */
-    public void putCharList(String key, List<Character> value) {
-        mMap.put(key, value);
+    public void putCompressedDoubleArray(String key, double[] value) {
+        store(key, value == null ? null : new CompressedArray.Doubles(value));
     }
 
     /**
-     * Inserts a double list value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a boolean array value into the mapping of this Bundle using one bit per element,
+     * replacing any existing value for the given key.
+     * The array is unpacked on each {@link #getBooleanArray(String)} call.
      *
      * @param key   a String, or null
-     * @param value a double list object, or null
+     * @param value a boolean array object, or null
      */
-    public void putDoubleList(String key, List<Double> value) {
-        mMap.put(key, value);
+    public void putCompressedBooleanArray(String key, boolean[] value) {
+        store(key, value == null ? null : new CompressedArray.Booleans(value));
     }
 
     /**
-     * Inserts a float list value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a value computed on first read into the mapping of this Bundle, replacing
+     * any existing value for the given key. Value is computed by the supplier when it is
+     * read for the first time by any getter, and kept for later reads. Concurrent first
+     * reads call supplier once.
      *
-     * @param key   a String, or null
-     * @param value a float list object, or null
+     * @param key      a String, or null
+     * @param supplier supplier of the value, not null
      */
-    public void putFloatList(String key, List<Float> value) {
-        mMap.put(key, value);
+    public void putLazy(String key, Supplier<?> supplier) {
+        store(key, new LazyValue(supplier, null));
     }
 
     /**
-     * Inserts a int list value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a String value computed on first read into the mapping of this Bundle,
+     * replacing any existing value for the given key.
      *
-     * @param key   a String, or null
-     * @param value a int list object, or null
+     * @param key      a String, or null
+     * @param supplier supplier of the value, not null
+     * @see #putLazy(String, Supplier)
      */
-    public void putIntList(String key, List<Integer> value) {
-        mMap.put(key, value);
+    public void putLazyString(String key, Supplier<String> supplier) {
+        store(key, new LazyValue(supplier, ValueType.STRING));
     }
 
     /**
-     * Inserts a long list value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a byte[] value computed on first read into the mapping of this Bundle,
+     * replacing any existing value for the given key.
      *
-     * @param key   a String, or null
-     * @param value a long list object, or null
+     * @param key      a String, or null
+     * @param supplier supplier of the value, not null
+     * @see #putLazy(String, Supplier)
      */
-    public void putLongList(String key, List<Long> value) {
-        mMap.put(key, value);
+    public void putLazyByteArray(String key, Supplier<byte[]> supplier) {
+        store(key, new LazyValue(supplier, ValueType.BYTE_ARRAY));
     }
 
     /**
-     * Inserts a short list value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts an int[] value computed on first read into the mapping of this Bundle,
+     * replacing any existing value for the given key.
      *
-     * @param key   a String, or null
-     * @param value a short list object, or null
+     * @param key      a String, or null
+     * @param supplier supplier of the value, not null
+     * @see #putLazy(String, Supplier)
      */
-    public void putShortList(String key, List<Short> value) {
-        mMap.put(key, value);
+    public void putLazyIntArray(String key, Supplier<int[]> supplier) {
+        store(key, new LazyValue(supplier, ValueType.INT_ARRAY));
     }
 
     /**
-     * Inserts a String list value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a long[] value computed on first read into the mapping of this Bundle,
+     * replacing any existing value for the given key.
      *
-     * @param key   a String, or null
-     * @param value a String list object, or null
+     * @param key      a String, or null
+     * @param supplier supplier of the value, not null
+     * @see #putLazy(String, Supplier)
      */
-    public void putStringList(String key, List<String> value) {
-        mMap.put(key, value);
+    public void putLazyLongArray(String key, Supplier<long[]> supplier) {
+        store(key, new LazyValue(supplier, ValueType.LONG_ARRAY));
     }
 
     /**
-     * Inserts a list of any objects as value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a double[] value computed on first read into the mapping of this Bundle,
+     * replacing any existing value for the given key.
      *
-     * @param key   a String, or null
-     * @param value a list object with elements of any type, or null
+     * @param key      a String, or null
+     * @param supplier supplier of the value, not null
+     * @see #putLazy(String, Supplier)
      */
-    public void putList(String key, List value) {
-        mMap.put(key, value);
+    public void putLazyDoubleArray(String key, Supplier<double[]> supplier) {
+        store(key, new LazyValue(supplier, ValueType.DOUBLE_ARRAY));
     }
 
     /**
-     * Inserts a boolean collection value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a String[] value computed on first read into the mapping of this Bundle,
+     * replacing any existing value for the given key.
      *
-     * @param key   a String, or null
-     * @param value a boolean collection object, or null
+     * @param key      a String, or null
+     * @param supplier supplier of the value, not null
+     * @see #putLazy(String, Supplier)
      */
-    public void putBooleanCollection(String key, Collection<Boolean> value) {
-        mMap.put(key, value);
+    public void putLazyStringArray(String key, Supplier<String[]> supplier) {
+        store(key, new LazyValue(supplier, ValueType.STRING_ARRAY));
     }
 
     /**
-     * Inserts a byte collection value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a value which expires after given time into the mapping of this Bundle,
+     * replacing any existing value for the given key. Expired entry is removed when it is
+     * accessed, or by {@link ExpiryWheel} if one is set. Until then it is counted
+     * by {@link #size()} and present in {@link #keySet()}.
      *
      * @param key   a String, or null
-     * @param value a byte collection object, or null
+     * @param value an Object, or null
+     * @param ttl   time to live, positive
+     * @param unit  unit of ttl
+     * @see #setExpiryWheel(ExpiryWheel)
      */
-    public void putByteCollection(String key, Collection<Byte> value) {
-        mMap.put(key, value);
+    public void put(String key, Object value, long ttl, TimeUnit unit) {
+        store(key, ExpiringValue.of(mImmutableArrays ? BundleValues.copyArray(value) : value, ttl, unit));
     }
 
     /**
-     * Inserts a char collection value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts an int value which expires after given time into the mapping of this Bundle,
+     * replacing any existing value for the given key.
      *
      * @param key   a String, or null
-     * @param value a char collection object, or null
+     * @param value an int
+     * @param ttl   time to live, positive
+     * @param unit  unit of ttl
+     * @see #put(String, Object, long, TimeUnit)
      */
-    public void putCharCollection(String key, Collection<Character> value) {
-        mMap.put(key, value);
+    public void putInt(String key, int value, long ttl, TimeUnit unit) {
+        store(key, ExpiringValue.of(value, ttl, unit));
     }
 
     /**
-     * Inserts a double collection value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a long value which expires after given time into the mapping of this Bundle,
+     * replacing any existing value for the given key.
      *
      * @param key   a String, or null
-     * @param value a double collection object, or null
+     * @param value a long
+     * @param ttl   time to live, positive
+     * @param unit  unit of ttl
+     * @see #put(String, Object, long, TimeUnit)
      */
-    public void putDoubleCollection(String key, Collection<Double> value) {
-        mMap.put(key, value);
+    public void putLong(String key, long value, long ttl, TimeUnit unit) {
+        store(key, ExpiringValue.of(value, ttl, unit));
     }
 
     /**
-     * Inserts a float collection value into the mapping of this Bundle, replacing
-     * any existing value for the given key.  Either key or value may be null.
+     * Inserts a String value which expires after given time into the mapping of this Bundle,
+     * replacing any existing value for the given key.
      *
      * @param key   a String, or null
-     * @param value a float collection object, or null
+     * @param value a String, or null
+     * @param ttl   time to live, positive
+     * @param unit  unit of ttl
+     * @see #put(String, Object, long, TimeUnit)
      */
-    public void putFloatCollection(String key, Collection<Float> value) {
-        mMap.put(key, value);
+    public void putString(String key, String value, long ttl, TimeUnit unit) {
+        store(key, ExpiringValue.of(value, ttl, unit));
     }
 
     /**
-     * Inserts a int collection value into the mapping of this Bundle, replacing
+     * Inserts a byte[] value which expires after given time into the mapping of this Bundle,
+     * replacing any existing value for the given key.
+     *
+     * @param key   a String, or null
+     * @param value a byte[], or null
+     * @param ttl   time to live, positive
+     * @param unit  unit of ttl
+     * @see #put(String, Object, long, TimeUnit)
+     */
+    public void putByteArray(String key, byte[] value, long ttl, TimeUnit unit) {
+        put(key, value, ttl, unit);
+    }
+
+    /**
+     * Inserts a boolean list value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a boolean list object, or null
+     */
+    public void putBooleanList(String key, List<Boolean> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a byte list value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a byte list object, or null
+     */
+    public void putByteList(String key, List<Byte> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a char list value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a char list object, or null
+     */
+    public void putCharList(String key, List<Character> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a double list value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a double list object, or null
+     */
+    public void putDoubleList(String key, List<Double> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a float list value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a float list object, or null
+     */
+    public void putFloatList(String key, List<Float> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a int list value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a int list object, or null
+     */
+    public void putIntList(String key, List<Integer> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a long list value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a long list object, or null
+     */
+    public void putLongList(String key, List<Long> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a short list value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a short list object, or null
+     */
+    public void putShortList(String key, List<Short> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a String list value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a String list object, or null
+     */
+    public void putStringList(String key, List<String> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a list of any objects as value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a list object with elements of any type, or null
+     */
+    public void putList(String key, List value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a boolean collection value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a boolean collection object, or null
+     */
+    public void putBooleanCollection(String key, Collection<Boolean> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a byte collection value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a byte collection object, or null
+     */
+    public void putByteCollection(String key, Collection<Byte> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a char collection value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a char collection object, or null
+     */
+    public void putCharCollection(String key, Collection<Character> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a double collection value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a double collection object, or null
+     */
+    public void putDoubleCollection(String key, Collection<Double> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a float collection value into the mapping of this Bundle, replacing
+     * any existing value for the given key.  Either key or value may be null.
+     *
+     * @param key   a String, or null
+     * @param value a float collection object, or null
+     */
+    public void putFloatCollection(String key, Collection<Float> value) {
+        store(key, value);
+    }
+
+    /**
+     * Inserts a int collection value into the mapping of this Bundle, replacing
      * any existing value for the given key.  Either key or value may be null.
      *
      * @param key   a String, or null
      * @param value a int collection object, or null
      */
     public void putIntCollection(String key, Collection<Integer> value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -546,7 +1385,7 @@ public class Bundle {
      * @param value a long collection object, or null
      */
     public void putLongCollection(String key, Collection<Long> value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -557,7 +1396,7 @@ public class Bundle {
      * @param value a short collection object, or null
      */
     public void putShortCollection(String key, Collection<Short> value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -568,7 +1407,7 @@ public class Bundle {
      * @param value a String collection object, or null
      */
     public void putStringCollection(String key, Collection<String> value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -579,7 +1418,7 @@ public class Bundle {
      * @param value a collection object with elements of any type, or null
      */
     public void putCollection(String key, Collection value) {
-        mMap.put(key, value);
+        store(key, value);
     }
 
     /**
@@ -595,21 +1434,18 @@ public class Bundle {
         return getBoolean(key, false);
     }
 
-    // Log a message if the value was non-null but not of the expected type
+    // Report a value which was non-null but not of the expected type
     protected void typeWarning(String key, Object value, String className,
                                Object defaultValue, ClassCastException e) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Key ");
-        sb.append(key);
-        sb.append(" expected ");
-        sb.append(className);
-        sb.append(" but value was a ");
-        sb.append(value.getClass().getName());
-        sb.append(".  The default value ");
-        sb.append(defaultValue);
-        sb.append(" was returned.");
-        Log.warn(sb.toString());
-        Log.warn("Attempt to cast generated internal exception:", e);
+        BundleProfiler profiler = mProfiler;
+        if (profiler != null) {
+            profiler.recordMismatch(key, className, e);
+        }
+        MismatchReporter reporter = mReporter;
+        if (reporter == null) {
+            reporter = sDefaultReporter;
+        }
+        reporter.report(key, value, className, defaultValue, e);
     }
 
     protected void typeWarning(String key, Object value, String className,
@@ -626,7 +1462,7 @@ public class Bundle {
      * @return a boolean value
      */
     public boolean getBoolean(String key, boolean defaultValue) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return defaultValue;
         }
@@ -658,7 +1494,7 @@ public class Bundle {
      * @return a byte value
      */
     Byte getByte(String key, byte defaultValue) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return defaultValue;
         }
@@ -690,7 +1526,7 @@ public class Bundle {
      * @return a char value
      */
     char getChar(String key, char defaultValue) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return defaultValue;
         }
@@ -722,7 +1558,7 @@ public class Bundle {
      * @return a double value
      */
     public double getDouble(String key, double defaultValue) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return defaultValue;
         }
@@ -755,7 +1591,7 @@ public class Bundle {
      * @return a float value
      */
     float getFloat(String key, float defaultValue) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return defaultValue;
         }
@@ -787,7 +1623,7 @@ public class Bundle {
      * @return an int value
      */
     public int getInt(String key, int defaultValue) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return defaultValue;
         }
@@ -819,7 +1655,7 @@ public class Bundle {
      * @return a long value
      */
     public long getLong(String key, long defaultValue) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return defaultValue;
         }
@@ -851,7 +1687,7 @@ public class Bundle {
      * @return a short value
      */
     short getShort(String key, short defaultValue) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return defaultValue;
         }
@@ -872,7 +1708,7 @@ public class Bundle {
      * @return a String value, or null
      */
     public String getString(String key) {
-        final Object o = mMap.get(key);
+        final Object o = lookup(key);
         try {
             return (String) o;
         } catch (ClassCastException e) {
@@ -897,6 +1733,181 @@ public class Bundle {
         return (s == null) ? defaultValue : s;
     }
 
+    /**
+     * Returns UTF-8 bytes of the String associated with the given key, or null if no mapping
+     * of the desired type exists for the given key or a null value is explicitly associated
+     * with the key. Bytes of compact strings are not copied and no String is created,
+     * see {@link #setCompactStrings(boolean)}.
+     *
+     * @param key a String, or null
+     * @return read-only UTF-8 bytes, or null
+     */
+    public ByteSequence getStringBytes(String key) {
+        removeExpired();
+        Object raw = mMap.get(key);
+        if (raw instanceof Utf8String) {
+            return ((Utf8String) raw).bytes();
+        }
+        Object o = lookup(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return ByteSequence.of(((String) o).getBytes(StandardCharsets.UTF_8));
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "String", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the given key is associated with a String which has the same characters
+     * as the given sequence. Compact strings are compared without creating a String.
+     *
+     * @param key   a String, or null
+     * @param value characters to compare, not null
+     * @return true if the String is equal to the sequence, false otherwise or if there is no String
+     */
+    public boolean stringEquals(String key, CharSequence value) {
+        removeExpired();
+        Object raw = mMap.get(key);
+        if (raw instanceof Utf8String) {
+            return ((Utf8String) raw).contentEquals(value);
+        }
+        Object o = lookup(key);
+        return o instanceof String && ((String) o).contentEquals(value);
+    }
+
+    /**
+     * Returns the value associated with the given key as int, or defaultValue if
+     * no value convertible to int exists for the given key. Strings are parsed
+     * as by {@link Integer#parseInt(String)}, ignoring surrounding whitespace,
+     * and the result is kept, so later calls do not parse the same String again.
+     * Short and byte values are widened.
+     *
+     * @param key          a String
+     * @param defaultValue Value to return if key does not exist or cannot be converted
+     * @return an int value
+     */
+    public int coerceInt(String key, int defaultValue) {
+        removeExpired();
+        Object raw = mMap.get(key);
+        if (raw instanceof ParsedString && ((ParsedString) raw).isParsed(ParsedString.INT)) {
+            ParsedString p = (ParsedString) raw;
+            return p.isValid(ParsedString.INT) ? (int) p.mLong : defaultValue;
+        }
+        Object o = lookup(key);
+        if (o instanceof Integer || o instanceof Short || o instanceof Byte) {
+            return ((Number) o).intValue();
+        }
+        ParsedString p = coerce(key, raw, o, ParsedString.INT, "Integer", defaultValue);
+        return p != null && p.isValid(ParsedString.INT) ? (int) p.mLong : defaultValue;
+    }
+
+    /**
+     * Returns the value associated with the given key as long, or defaultValue if
+     * no value convertible to long exists for the given key. Strings are parsed
+     * as by {@link Long#parseLong(String)}, ignoring surrounding whitespace,
+     * and the result is kept, so later calls do not parse the same String again.
+     * Int, short and byte values are widened.
+     *
+     * @param key          a String
+     * @param defaultValue Value to return if key does not exist or cannot be converted
+     * @return a long value
+     */
+    public long coerceLong(String key, long defaultValue) {
+        removeExpired();
+        Object raw = mMap.get(key);
+        if (raw instanceof ParsedString && ((ParsedString) raw).isParsed(ParsedString.LONG)) {
+            ParsedString p = (ParsedString) raw;
+            return p.isValid(ParsedString.LONG) ? p.mLong : defaultValue;
+        }
+        Object o = lookup(key);
+        if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte) {
+            return ((Number) o).longValue();
+        }
+        ParsedString p = coerce(key, raw, o, ParsedString.LONG, "Long", defaultValue);
+        return p != null && p.isValid(ParsedString.LONG) ? p.mLong : defaultValue;
+    }
+
+    /**
+     * Returns the value associated with the given key as double, or defaultValue if
+     * no value convertible to double exists for the given key. Strings are parsed
+     * as by {@link Double#parseDouble(String)} and the result is kept, so later calls
+     * do not parse the same String again. Other numbers are converted.
+     *
+     * @param key          a String
+     * @param defaultValue Value to return if key does not exist or cannot be converted
+     * @return a double value
+     */
+    public double coerceDouble(String key, double defaultValue) {
+        removeExpired();
+        Object raw = mMap.get(key);
+        if (raw instanceof ParsedString && ((ParsedString) raw).isParsed(ParsedString.DOUBLE)) {
+            ParsedString p = (ParsedString) raw;
+            return p.isValid(ParsedString.DOUBLE) ? p.mDouble : defaultValue;
+        }
+        Object o = lookup(key);
+        if (o instanceof Number) {
+            return ((Number) o).doubleValue();
+        }
+        ParsedString p = coerce(key, raw, o, ParsedString.DOUBLE, "Double", defaultValue);
+        return p != null && p.isValid(ParsedString.DOUBLE) ? p.mDouble : defaultValue;
+    }
+
+    /**
+     * Returns the value associated with the given key as boolean, or defaultValue if
+     * no value convertible to boolean exists for the given key. Strings "true" and "false"
+     * are accepted, ignoring case and surrounding whitespace, and the result is kept,
+     * so later calls do not parse the same String again.
+     *
+     * @param key          a String
+     * @param defaultValue Value to return if key does not exist or cannot be converted
+     * @return a boolean value
+     */
+    public boolean coerceBoolean(String key, boolean defaultValue) {
+        removeExpired();
+        Object raw = mMap.get(key);
+        if (raw instanceof ParsedString && ((ParsedString) raw).isParsed(ParsedString.BOOLEAN)) {
+            ParsedString p = (ParsedString) raw;
+            return p.isValid(ParsedString.BOOLEAN) ? p.mBoolean : defaultValue;
+        }
+        Object o = lookup(key);
+        if (o instanceof Boolean) {
+            return (Boolean) o;
+        }
+        ParsedString p = coerce(key, raw, o, ParsedString.BOOLEAN, "Boolean", defaultValue);
+        return p != null && p.isValid(ParsedString.BOOLEAN) ? p.mBoolean : defaultValue;
+    }
+
+    // Parses String for coercing getters and keeps result in place of stored String.
+    // Returns null if value is not a String.
+    private ParsedString coerce(String key, Object raw, Object value, int kind, String className,
+                                Object defaultValue) {
+        if (value == null) {
+            return null;
+        }
+        // mismatches are reported without exception, no cast was attempted
+        if (!(value instanceof String)) {
+            typeWarning(key, value, className, defaultValue, null);
+            return null;
+        }
+        ParsedString p = raw instanceof ParsedString ? ((ParsedString) raw).parse(kind)
+                : ParsedString.parse((String) value, kind);
+        // values with other representation, e.g. expiring ones, are parsed on every call
+        if (!mReadOnly && (raw instanceof String || raw instanceof ParsedString)) {
+            if (mEntryBytes >= 0) {
+                mEntryBytes += p.estimateRetainedBytes() - RetainedSize.of(raw);
+            }
+            mMap.put(key, p);
+        }
+        if (!p.isValid(kind)) {
+            // reported once, invalid result is kept as well
+            typeWarning(key, value, className, defaultValue, null);
+        }
+        return p;
+    }
+
     /**
      * Returns the value associated with the given key, or null if
      * no mapping of the desired type exists for the given key or a null
@@ -906,7 +1917,7 @@ public class Bundle {
      * @return a value as Object, or null
      */
     public Object get(String key) {
-        return mMap.get(key);
+        return lookup(key);
     }
 
     /**
@@ -934,12 +1945,12 @@ public class Bundle {
      * @return a boolean[] value, or null
      */
     public boolean[] getBooleanArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (boolean[]) o;
+            return mImmutableArrays ? ((boolean[]) o).clone() : (boolean[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "boolean[]", e);
             return null;
@@ -955,12 +1966,12 @@ public class Bundle {
      * @return a byte[] value, or null
      */
     public byte[] getByteArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (byte[]) o;
+            return mImmutableArrays ? ((byte[]) o).clone() : (byte[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "byte[]", e);
             return null;
@@ -976,12 +1987,12 @@ public class Bundle {
      * @return a char[] value, or null
      */
     public char[] getCharArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (char[]) o;
+            return mImmutableArrays ? ((char[]) o).clone() : (char[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "char[]", e);
             return null;
@@ -997,12 +2008,12 @@ public class Bundle {
      * @return a double[] value, or null
      */
     public double[] getDoubleArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (double[]) o;
+            return mImmutableArrays ? ((double[]) o).clone() : (double[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "double[]", e);
             return null;
@@ -1018,12 +2029,12 @@ public class Bundle {
      * @return a float[] value, or null
      */
     public float[] getFloatArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (float[]) o;
+            return mImmutableArrays ? ((float[]) o).clone() : (float[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "float[]", e);
             return null;
@@ -1040,12 +2051,12 @@ public class Bundle {
      * @return a int[] value, or null
      */
     public int[] getIntArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (int[]) o;
+            return mImmutableArrays ? ((int[]) o).clone() : (int[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "int[]", e);
             return null;
@@ -1061,12 +2072,12 @@ public class Bundle {
      * @return a long[] value, or null
      */
     public long[] getLongArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (long[]) o;
+            return mImmutableArrays ? ((long[]) o).clone() : (long[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "long[]", e);
             return null;
@@ -1082,12 +2093,12 @@ public class Bundle {
      * @return a short[] value, or null
      */
     public short[] getShortArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (short[]) o;
+            return mImmutableArrays ? ((short[]) o).clone() : (short[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "short[]", e);
             return null;
@@ -1103,12 +2114,12 @@ public class Bundle {
      * @return a String[] value, or null
      */
     public String[] getStringArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (String[]) o;
+            return mImmutableArrays ? ((String[]) o).clone() : (String[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "short[]", e);
             return null;
@@ -1124,20 +2135,597 @@ public class Bundle {
      * @return a Object[] value, or null
      */
     public Object[] getObjectArray(String key) {
-        Object o = mMap.get(key);
+        Object o = lookup(key);
         if (o == null) {
             return null;
         }
         try {
-            return (Object[]) o;
+            return mImmutableArrays ? ((Object[]) o).clone() : (Object[]) o;
         } catch (ClassCastException e) {
             typeWarning(key, o, "Object[]", e);
             return null;
         }
     }
 
+    /**
+     * Returns read-only view of byte array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key. Array is not copied.
+     *
+     * @param key a String, or null
+     * @return a view of byte[] value, or null
+     */
+    public ByteSequence getByteSequence(String key) {
+        Object o = lookup(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return ByteSequence.of((byte[]) o);
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "byte[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns read-only view of char array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key. Array is not copied.
+     *
+     * @param key a String, or null
+     * @return a view of char[] value, or null
+     */
+    public CharSequence getCharArrayView(String key) {
+        Object o = lookup(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return CharBuffer.wrap((char[]) o).asReadOnlyBuffer();
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "char[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns read-only view of boolean array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key. Array is not copied.
+     *
+     * @param key a String, or null
+     * @return a view of boolean[] value, or null
+     */
+    public BooleanArrayView getBooleanArrayView(String key) {
+        Object o = lookup(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return BooleanArrayView.of((boolean[]) o);
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "boolean[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns read-only view of double array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key. Array is not copied.
+     *
+     * @param key a String, or null
+     * @return a view of double[] value, or null
+     */
+    public DoubleArrayView getDoubleArrayView(String key) {
+        Object o = lookup(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return DoubleArrayView.of((double[]) o);
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "double[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns read-only view of float array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key. Array is not copied.
+     *
+     * @param key a String, or null
+     * @return a view of float[] value, or null
+     */
+    public FloatArrayView getFloatArrayView(String key) {
+        Object o = lookup(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return FloatArrayView.of((float[]) o);
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "float[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns read-only view of int array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key. Array is not copied.
+     *
+     * @param key a String, or null
+     * @return a view of int[] value, or null
+     */
+    public IntArrayView getIntArrayView(String key) {
+        Object o = lookup(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return IntArrayView.of((int[]) o);
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "int[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns read-only view of long array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key. Array is not copied.
+     *
+     * @param key a String, or null
+     * @return a view of long[] value, or null
+     */
+    public LongArrayView getLongArrayView(String key) {
+        Object o = lookup(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return LongArrayView.of((long[]) o);
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "long[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns read-only view of short array associated with the given key, or null if
+     * no mapping of the desired type exists for the given key or a null
+     * value is explicitly associated with the key. Array is not copied.
+     *
+     * @param key a String, or null
+     * @return a view of short[] value, or null
+     */
+    public ShortArrayView getShortArrayView(String key) {
+        Object o = lookup(key);
+        if (o == null) {
+            return null;
+        }
+        try {
+            return ShortArrayView.of((short[]) o);
+        } catch (ClassCastException e) {
+            typeWarning(key, o, "short[]", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if given Bundle contains the same keys mapped to equal values.
+     * Arrays are compared by their elements.
+     *
+     * @param other a Bundle, or null
+     * @return true if both Bundles have equal content
+     */
+    public boolean contentEquals(Bundle other) {
+        removeExpired();
+        if (other == this) {
+            return true;
+        }
+        if (other == null || other.size() != mMap.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Object> e : mMap.entrySet()) {
+            Object raw = e.getValue();
+            if (raw instanceof Utf8String) {
+                // compact strings are compared as bytes, without creating Strings
+                Object otherRaw = other.mMap.get(e.getKey());
+                if (otherRaw instanceof Utf8String) {
+                    if (!((Utf8String) raw).contentEquals((Utf8String) otherRaw)) {
+                        return false;
+                    }
+                    continue;
+                }
+            }
+            Object value = resolve(raw);
+            if (value == null && !other.mMap.containsKey(e.getKey())) {
+                return false;
+            }
+            if (!BundleValues.equals(value, other.lookup(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns hash code of Bundle content, consistent with {@link #contentEquals(Bundle)}.
+     *
+     * @return hash code of keys and values
+     */
+    public int contentHashCode() {
+        removeExpired();
+        int h = 0;
+        for (Map.Entry<String, Object> e : mMap.entrySet()) {
+            String key = e.getKey();
+            h += (key == null ? 0 : key.hashCode()) ^ BundleValues.hashCode(resolve(e.getValue()));
+        }
+        return h;
+    }
+
+    /**
+     * Returns estimated number of heap bytes retained by this Bundle: the Bundle itself,
+     * its internal map, keys and values including elements of arrays and collections.
+     * Keys canonicalized by a {@link KeyDictionary} are shared and not counted.
+     * <p>
+     * Estimate is computed by walking all entries, unless tracking is enabled with
+     * {@link #setRetainedSizeTracking(boolean)}.
+     *
+     * @return estimated retained size in bytes
+     */
+    public long estimateRetainedBytes() {
+        removeExpired();
+        int size = mMap.size();
+        long bytes = SHALLOW_SIZE;
+        if (isOrdered()) {
+            bytes += RetainedSize.TREE_MAP + (long) size * RetainedSize.TREE_MAP_ENTRY;
+        } else {
+            bytes += RetainedSize.HASH_MAP + RetainedSize.hashTableBytes(size)
+                    + (long) size * RetainedSize.HASH_MAP_NODE;
+        }
+        if (mEntryBytes >= 0) {
+            return bytes + mEntryBytes;
+        }
+        for (Map.Entry<String, Object> e : mMap.entrySet()) {
+            bytes += entryBytes(e.getKey(), e.getValue());
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns estimated number of heap bytes retained by values of each type.
+     * Keys and the Bundle structure are not included.
+     *
+     * @return retained size in bytes per type of value, types not present are omitted
+     */
+    public Map<ValueType, Long> retainedSizeBreakdown() {
+        removeExpired();
+        Map<ValueType, Long> breakdown = new EnumMap<>(ValueType.class);
+        for (Object value : mMap.values()) {
+            ValueType type = ValueType.of(value);
+            Long sum = breakdown.get(type);
+            breakdown.put(type, (sum == null ? 0 : sum) + RetainedSize.of(value));
+        }
+        return breakdown;
+    }
+
+    /**
+     * Enables or disables tracking of retained size. When enabled, estimate is updated
+     * on every put and remove and {@link #estimateRetainedBytes()} does not walk the entries.
+     * Arrays and collections modified after they were put are not reflected.
+     *
+     * @param track true to keep estimate up to date
+     */
+    public void setRetainedSizeTracking(boolean track) {
+        checkWritable();
+        removeExpired();
+        if (!track) {
+            mEntryBytes = -1;
+        } else if (mEntryBytes < 0) {
+            long bytes = 0;
+            for (Map.Entry<String, Object> e : mMap.entrySet()) {
+                bytes += entryBytes(e.getKey(), e.getValue());
+            }
+            mEntryBytes = bytes;
+        }
+    }
+
+    private long entryBytes(String key, Object value) {
+        long bytes = RetainedSize.of(value);
+        if (key != null && mKeyDictionary == null) {
+            bytes += RetainedSize.stringBytes(key);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns 64-bit fingerprint of Bundle content, consistent with {@link #contentEquals(Bundle)}.
+     * Fingerprint does not depend on order of entries nor on the way values are stored, and is
+     * equal for equal content in any JVM, so it can be used as a cache key or to find duplicates.
+     * It is not a cryptographic hash.
+     * <p>
+     * Values of types other than primitives, Strings, arrays, collections, Bundles and enums
+     * are hashed by their hashCode. Lazy values are computed.
+     *
+     * @return fingerprint of keys and values
+     * @see #setFingerprintTracking(boolean)
+     */
+    public long fingerprint64() {
+        long[] sums = fingerprintSums();
+        return Fingerprint.finish64(sums[0], sums[1], mMap.size());
+    }
+
+    /**
+     * Returns 128-bit fingerprint of Bundle content, for uses where collisions of
+     * {@link #fingerprint64()} are not acceptable.
+     *
+     * @return low and high half of fingerprint
+     */
+    public long[] fingerprint128() {
+        long[] sums = fingerprintSums();
+        return Fingerprint.finish128(sums[0], sums[1], mMap.size());
+    }
+
+    /**
+     * Enables or disables tracking of fingerprint. When enabled, entry hash is updated on every
+     * put and remove and fingerprint is returned without walking the entries, unless Bundle
+     * holds lazy values. Arrays and collections modified after they were put are not reflected,
+     * see {@link #setImmutableArrays(boolean)}.
+     *
+     * @param track true to keep fingerprint up to date
+     */
+    public void setFingerprintTracking(boolean track) {
+        checkWritable();
+        removeExpired();
+        if (!track) {
+            mFingerprint = null;
+        } else if (mFingerprint == null) {
+            long[] sums = new long[2];
+            mLazyEntries = 0;
+            mFingerprint = sums;
+            for (Map.Entry<String, Object> e : mMap.entrySet()) {
+                trackFingerprint(e.getKey(), e.getValue(), 1);
+            }
+        }
+    }
+
+    private long[] fingerprintSums() {
+        removeExpired();
+        if (mFingerprint != null && mLazyEntries == 0) {
+            return mFingerprint;
+        }
+        long[] sums = new long[2];
+        Fingerprint.sum(mMap, sums);
+        return sums;
+    }
+
+    // adds or subtracts hash of entry, lazy values are only counted so they are not computed
+    private void trackFingerprint(String key, Object value, int sign) {
+        if (value instanceof LazyValue) {
+            mLazyEntries += sign;
+            return;
+        }
+        // expiring value may be released by the wheel, so its hash is kept
+        long[] hash = value instanceof ExpiringValue
+                ? ((ExpiringValue) value).entryHash(key) : Fingerprint.entry(key, resolve(value));
+        mFingerprint[0] += sign * hash[0];
+        mFingerprint[1] += sign * hash[1];
+    }
+
+    /**
+     * Returns iterator over long array associated with the given key. Compressed arrays
+     * are decompressed while iterating without creating the whole array.
+     *
+     * @param key a String, or null
+     * @return iterator over elements, or null if no long array is mapped to the key
+     */
+    public LongIterator longArrayIterator(String key) {
+        removeExpired();
+        Object o = mMap.get(key);
+        if (o instanceof CompressedArray.Longs) {
+            return ((CompressedArray.Longs) o).iterator();
+        }
+        long[] values = getLongArray(key);
+        return values == null ? null : CompressedArray.iterator(values);
+    }
+
+    /**
+     * Returns iterator over int array associated with the given key. Compressed arrays
+     * are decompressed while iterating without creating the whole array.
+     *
+     * @param key a String, or null
+     * @return iterator over elements, or null if no int array is mapped to the key
+     */
+    public IntIterator intArrayIterator(String key) {
+        removeExpired();
+        Object o = mMap.get(key);
+        if (o instanceof CompressedArray.Ints) {
+            return ((CompressedArray.Ints) o).iterator();
+        }
+        int[] values = getIntArray(key);
+        return values == null ? null : CompressedArray.iterator(values);
+    }
+
+    /**
+     * Returns iterator over double array associated with the given key. Compressed arrays
+     * are decompressed while iterating without creating the whole array.
+     *
+     * @param key a String, or null
+     * @return iterator over elements, or null if no double array is mapped to the key
+     */
+    public DoubleIterator doubleArrayIterator(String key) {
+        removeExpired();
+        Object o = mMap.get(key);
+        if (o instanceof CompressedArray.Doubles) {
+            return ((CompressedArray.Doubles) o).iterator();
+        }
+        double[] values = getDoubleArray(key);
+        return values == null ? null : CompressedArray.iterator(values);
+    }
+
+    // Single place where values enter the mapping
+    void store(String key, Object value) {
+        checkWritable();
+        removeExpired();
+        KeyDictionary dictionary = mKeyDictionary;
+        if (dictionary != null) {
+            key = dictionary.canonicalize(key);
+        }
+        if (mImmutableArrays) {
+            value = BundleValues.copyArray(value);
+        }
+        if (mStringArena != null) {
+            value = compactString(value);
+        }
+        if (value instanceof ExpiringValue) {
+            value = ((ExpiringValue) value).claim(mExpiryWheel, this, key);
+        }
+        if (mEntryBytes >= 0) {
+            if (mMap.containsKey(key)) {
+                mEntryBytes -= entryBytes(key, mMap.get(key));
+            }
+            mEntryBytes += entryBytes(key, value);
+        }
+        BundleProfiler profiler = mProfiler;
+        if (profiler != null) {
+            profiler.recordPut(key, value);
+        }
+        int size = mMap.size();
+        Object old = mMap.put(key, value);
+        if (mFingerprint != null) {
+            if (mMap.size() == size) {
+                trackFingerprint(key, old, -1);
+            }
+            trackFingerprint(key, value, 1);
+        }
+        checkGrowth();
+        if (old instanceof ExpiringValue && old != value) {
+            ((ExpiringValue) old).cancel(this);
+        }
+    }
+
+    /**
+     * Releases expired value and hands its entry over for removal on next access.
+     * Called by the wheel when value expires.
+     */
+    void expired(ExpiryWheel.Timer timer) {
+        timer.value().release();
+        ExpiryWheel.Timer head;
+        do {
+            head = mExpired;
+            timer.mNextExpired = head;
+        } while (!EXPIRED.compareAndSet(this, head, timer));
+    }
+
+    // removes entries handed over by the wheel
+    private void removeExpired() {
+        if (mExpired != null) {
+            ExpiryWheel.Timer timer = EXPIRED.getAndSet(this, null);
+            while (timer != null) {
+                expire(timer.key(), timer.value());
+                timer = timer.mNextExpired;
+            }
+        }
+    }
+
+    /**
+     * Removes entry if it still holds given value. Called when value expires.
+     *
+     * @return true if entry was removed
+     */
+    private boolean expire(String key, Object value) {
+        // views leave removal to the Bundle they are backed by
+        if (mReadOnly || mMap.get(key) != value) {
+            return false;
+        }
+        if (mEntryBytes >= 0) {
+            mEntryBytes -= entryBytes(key, value);
+        }
+        if (mFingerprint != null) {
+            trackFingerprint(key, value, -1);
+        }
+        mMap.remove(key);
+        ((ExpiringValue) value).cancel(this);
+        return true;
+    }
+
+    // runs change of array stored under key in place, its length stays the same
+    void changeInPlace(String key, Runnable change) {
+        checkWritable();
+        removeExpired();
+        Object value = mMap.get(key);
+        if (mFingerprint != null) {
+            trackFingerprint(key, value, -1);
+        }
+        change.run();
+        if (mFingerprint != null) {
+            trackFingerprint(key, value, 1);
+        }
+    }
+
+    // attaches Bundle created by factory, sized for given number of entries
+    void sizedBy(BundleFactory factory, int size) {
+        mFactory = factory;
+        mSizeHint = size;
+    }
+
+    // reports size to factory when Bundle outgrows size it was created for
+    private void checkGrowth() {
+        if (mFactory != null && mMap.size() > mSizeHint) {
+            mSizeHint = mMap.size();
+            mFactory.grown(mSizeHint);
+        }
+    }
+
+    // makes this Bundle read-only, e.g. before it is published to other threads
+    void freeze() {
+        if (mExpiryWheel != null) {
+            cancelExpiringValues();
+            removeExpired();
+            if (mEntryBytes >= 0) {
+                mEntryBytes = -1;
+                setRetainedSizeTracking(true);
+            }
+        }
+        mReadOnly = true;
+    }
+
+    private void checkWritable() {
+        if (mReadOnly) {
+            throw new UnsupportedOperationException("Bundle is read-only");
+        }
+    }
+
+    // Returns stored value, resolving values kept in internal representation
+    private Object lookup(String key) {
+        BundleProfiler profiler = mProfiler;
+        if (profiler != null) {
+            profiler.recordGet(key);
+        }
+        removeExpired();
+        Object o = mMap.get(key);
+        if (o instanceof ExpiringValue && ((ExpiringValue) o).isExpired()) {
+            expire(key, o);
+            return null;
+        }
+        return resolve(o);
+    }
+
+    private static Object resolve(Object o) {
+        if (o instanceof StoredValue) {
+            return ((StoredValue) o).resolve();
+        }
+        return o;
+    }
+
     @Override
     public synchronized String toString() {
+        removeExpired();
         return "Bundle [" + mMap.toString() + "]";
     }
 }
@@ -0,0 +1,471 @@
+package net.virtalab.commons;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of values computed from {@link Bundle} content. Bundles with equal content
+ * (see {@link Bundle#contentEquals(Bundle)}) map to the same entry.
+ * <p>
+ * Entries are evicted using segmented LRU: new entries go to probation segment and
+ * are promoted to protected segment when they are read again, so entries read only once
+ * do not push out frequently used ones. Cache is bounded by total weight of entries
+ * and entries may expire after fixed time since they were written.
+ * <p>
+ * Cache keeps a read-only shallow copy of key Bundle, so arrays and other mutable values
+ * in key must not be modified after the entry is written. Lazy values of the copy are computed
+ * and expiring values are kept without their deadline, so content of the key never changes.
+ * <p>
+ * Entries are guarded by a single lock, as every hit reorders the segments. The lock is held
+ * only to look up, weigh and relink an entry, keys are hashed and values loaded outside it.
+ *
+ * @param <V> type of cached values
+ * @since 1.0
+ */
+public class BundleCache<V> {
+
+    /**
+     * Computes weight of cache entry.
+     *
+     * @param <V> type of cached values
+     */
+    public interface Weigher<V> {
+        /**
+         * Returns weight of entry.
+         *
+         * @param key   key of entry
+         * @param value value of entry
+         * @return weight, not negative
+         */
+        long weigh(Bundle key, V value);
+    }
+
+    /**
+     * Computes value for a key which is not in cache.
+     *
+     * @param <V> type of cached values
+     */
+    public interface Loader<V> {
+        /**
+         * Computes value.
+         *
+         * @param key a Bundle
+         * @return computed value, not null
+         * @throws Exception if value cannot be computed
+         */
+        V load(Bundle key) throws Exception;
+    }
+
+    private static final int PROTECTED_PERCENT = 80;
+
+    private static final Weigher<Object> RETAINED_SIZE_WEIGHER = new Weigher<Object>() {
+        @Override
+        public long weigh(Bundle key, Object value) {
+            return key.estimateRetainedBytes();
+        }
+    };
+
+    private final long mMaxWeight;
+    private final long mMaxProtectedWeight;
+    private final Weigher<? super V> mWeigher;
+    private final long mExpireAfterWriteNanos;
+
+    private final Map<Key, Node<V>> mNodes = new HashMap<>();
+    private final Node<V> mProbation = Node.head();
+    private final Node<V> mProtected = Node.head();
+    private long mWeight;
+    private long mProtectedWeight;
+
+    private final ConcurrentMap<Key, FutureTask<V>> mLoading = new ConcurrentHashMap<>();
+
+    private final Counter mHits = new Counter();
+    private final Counter mMisses = new Counter();
+    private final Counter mLoadSuccesses = new Counter();
+    private final Counter mLoadFailures = new Counter();
+    private final Counter mEvictions = new Counter();
+
+    /**
+     * Creates cache holding up to given number of entries, which do not expire.
+     *
+     * @param maxSize max number of entries
+     */
+    public BundleCache(long maxSize) {
+        this(maxSize, null, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates cache bounded by total weight of entries.
+     *
+     * @param maxWeight        max total weight of entries
+     * @param weigher          computes weight of entry, or null to count each entry as 1
+     * @param expireAfterWrite time after which written entry expires, 0 if entries never expire
+     * @param unit             time unit of expireAfterWrite
+     */
+    public BundleCache(long maxWeight, Weigher<? super V> weigher, long expireAfterWrite, TimeUnit unit) {
+        if (maxWeight < 0 || expireAfterWrite < 0) {
+            throw new IllegalArgumentException("Max weight and expiration cannot be negative");
+        }
+        this.mMaxWeight = maxWeight;
+        // computed in two parts to not overflow for huge weights
+        this.mMaxProtectedWeight = maxWeight / 100 * PROTECTED_PERCENT + maxWeight % 100 * PROTECTED_PERCENT / 100;
+        this.mWeigher = weigher;
+        this.mExpireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+    }
+
+    /**
+     * Returns weigher which weighs entries by estimated heap size of their key Bundle.
+     *
+     * @param <V> type of cached values
+     * @return weigher using {@link Bundle#estimateRetainedBytes()}
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> Weigher<V> retainedSizeWeigher() {
+        return (Weigher<V>) RETAINED_SIZE_WEIGHER;
+    }
+
+    /**
+     * Returns value cached for given Bundle content.
+     *
+     * @param key a Bundle
+     * @return cached value, or null if there is no such value
+     */
+    public V getIfPresent(Bundle key) {
+        V value = find(new Key(key));
+        if (value == null) {
+            mMisses.increment();
+        } else {
+            mHits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Returns value cached for given Bundle content, loading it if needed.
+     * When several threads ask for same missing content concurrently, value is loaded only once
+     * and all of them get the result.
+     *
+     * @param key    a Bundle
+     * @param loader computes value when it is not cached
+     * @return cached or loaded value
+     * @throws ExecutionException if loader failed
+     */
+    public V get(final Bundle key, final Loader<? extends V> loader) throws ExecutionException {
+        Key probe = new Key(key);
+        V value = find(probe);
+        if (value != null) {
+            mHits.increment();
+            return value;
+        }
+        mMisses.increment();
+
+        final Key stored = probe.copy();
+        FutureTask<V> task = new FutureTask<>(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                V loaded = loader.load(stored.mBundle);
+                if (loaded == null) {
+                    throw new NullPointerException("Loader returned null for " + stored.mBundle);
+                }
+                return loaded;
+            }
+        });
+        FutureTask<V> running = mLoading.putIfAbsent(stored, task);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            task.run();
+            try {
+                value = await(task);
+            } catch (ExecutionException e) {
+                mLoadFailures.increment();
+                throw e;
+            }
+            mLoadSuccesses.increment();
+            write(stored, value);
+            return value;
+        } finally {
+            mLoading.remove(stored, task);
+        }
+    }
+
+    /**
+     * Associates value with given Bundle content.
+     *
+     * @param key   a Bundle
+     * @param value a value, not null
+     */
+    public void put(Bundle key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+        write(new Key(key).copy(), value);
+    }
+
+    /**
+     * Removes value cached for given Bundle content.
+     *
+     * @param key a Bundle
+     */
+    public synchronized void invalidate(Bundle key) {
+        Node<V> node = mNodes.remove(new Key(key));
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * Removes all cached values.
+     */
+    public synchronized void invalidateAll() {
+        mNodes.clear();
+        mProbation.mPrev = mProbation.mNext = mProbation;
+        mProtected.mPrev = mProtected.mNext = mProtected;
+        mWeight = 0;
+        mProtectedWeight = 0;
+    }
+
+    /**
+     * Returns number of cached values.
+     *
+     * @return number of entries
+     */
+    public synchronized long size() {
+        return mNodes.size();
+    }
+
+    /**
+     * Returns total weight of cached values.
+     *
+     * @return total weight of entries
+     */
+    public synchronized long weight() {
+        return mWeight;
+    }
+
+    /**
+     * Returns snapshot of cache statistics.
+     *
+     * @return statistics
+     */
+    public Stats stats() {
+        return new Stats(mHits.get(), mMisses.get(), mLoadSuccesses.get(), mLoadFailures.get(),
+                mEvictions.get());
+    }
+
+    private synchronized V find(Key key) {
+        Node<V> node = mNodes.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (isExpired(node, System.nanoTime())) {
+            mNodes.remove(key);
+            unlink(node);
+            mEvictions.increment();
+            return null;
+        }
+        unlink(node);
+        linkProtected(node);
+        return node.mValue;
+    }
+
+    private synchronized void write(Key key, V value) {
+        long weight = mWeigher == null ? 1 : mWeigher.weigh(key.mBundle, value);
+        if (weight < 0) {
+            throw new IllegalStateException("Weight cannot be negative: " + weight);
+        }
+        Node<V> node = mNodes.get(key);
+        if (node == null) {
+            node = new Node<>(key);
+            mNodes.put(key, node);
+        } else {
+            unlink(node);
+        }
+        node.mValue = value;
+        node.mWeight = weight;
+        node.mWriteTime = System.nanoTime();
+        linkAfter(mProbation, node);
+        evict();
+    }
+
+    private void evict() {
+        while (mWeight > mMaxWeight) {
+            Node<V> victim = mProbation.mNext != mProbation ? mProbation.mNext : mProtected.mNext;
+            mNodes.remove(victim.mKey);
+            unlink(victim);
+            mEvictions.increment();
+        }
+    }
+
+    private void linkProtected(Node<V> node) {
+        linkAfter(mProtected, node);
+        node.mProtected = true;
+        mProtectedWeight += node.mWeight;
+        // demote least recently used protected entries back to probation
+        while (mProtectedWeight > mMaxProtectedWeight && mProtected.mNext != node) {
+            Node<V> demoted = mProtected.mNext;
+            unlink(demoted);
+            linkAfter(mProbation, demoted);
+        }
+    }
+
+    // links node as most recently used in segment with given head
+    private void linkAfter(Node<V> head, Node<V> node) {
+        node.mPrev = head.mPrev;
+        node.mNext = head;
+        head.mPrev.mNext = node;
+        head.mPrev = node;
+        mWeight += node.mWeight;
+    }
+
+    private void unlink(Node<V> node) {
+        node.mPrev.mNext = node.mNext;
+        node.mNext.mPrev = node.mPrev;
+        node.mPrev = node.mNext = null;
+        mWeight -= node.mWeight;
+        if (node.mProtected) {
+            node.mProtected = false;
+            mProtectedWeight -= node.mWeight;
+        }
+    }
+
+    private boolean isExpired(Node<V> node, long now) {
+        return mExpireAfterWriteNanos > 0 && now - node.mWriteTime >= mExpireAfterWriteNanos;
+    }
+
+    private static <V> V await(FutureTask<V> task) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Statistics of cache usage.
+     */
+    public static final class Stats {
+        private final long mHitCount;
+        private final long mMissCount;
+        private final long mLoadSuccessCount;
+        private final long mLoadFailureCount;
+        private final long mEvictionCount;
+
+        Stats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+              long evictionCount) {
+            this.mHitCount = hitCount;
+            this.mMissCount = missCount;
+            this.mLoadSuccessCount = loadSuccessCount;
+            this.mLoadFailureCount = loadFailureCount;
+            this.mEvictionCount = evictionCount;
+        }
+
+        public long getHitCount() {
+            return mHitCount;
+        }
+
+        public long getMissCount() {
+            return mMissCount;
+        }
+
+        /**
+         * Returns ratio of lookups which found cached value.
+         *
+         * @return hit rate, 1.0 if there were no lookups
+         */
+        public double getHitRate() {
+            long total = mHitCount + mMissCount;
+            return total == 0 ? 1.0 : (double) mHitCount / total;
+        }
+
+        public long getLoadSuccessCount() {
+            return mLoadSuccessCount;
+        }
+
+        public long getLoadFailureCount() {
+            return mLoadFailureCount;
+        }
+
+        /**
+         * Returns number of entries removed because of size limit or expiration.
+         *
+         * @return number of evicted entries
+         */
+        public long getEvictionCount() {
+            return mEvictionCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats [hits=" + mHitCount + ", misses=" + mMissCount
+                    + ", loadSuccesses=" + mLoadSuccessCount + ", loadFailures=" + mLoadFailureCount
+                    + ", evictions=" + mEvictionCount + "]";
+        }
+    }
+
+    // Bundle compared by content, with hash code computed once
+    private static final class Key {
+        private final Bundle mBundle;
+        private final int mHash;
+
+        Key(Bundle bundle) {
+            this(bundle, bundle.contentHashCode());
+        }
+
+        private Key(Bundle bundle, int hash) {
+            this.mBundle = bundle;
+            this.mHash = hash;
+        }
+
+        // hash is computed again, as entries may have expired since this key was hashed
+        Key copy() {
+            return new Key(mBundle.resolvedCopy());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).mHash == mHash && ((Key) o).mBundle.contentEquals(mBundle);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+
+    private static final class Node<V> {
+        private final Key mKey;
+        private V mValue;
+        private long mWeight;
+        private long mWriteTime;
+        private boolean mProtected;
+        private Node<V> mPrev;
+        private Node<V> mNext;
+
+        Node(Key key) {
+            this.mKey = key;
+        }
+
+        static <V> Node<V> head() {
+            Node<V> head = new Node<>(null);
+            head.mPrev = head;
+            head.mNext = head;
+            return head;
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package net.virtalab.commons;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary layout of {@link Bundle}.
+ * <p>
+ * Layout starts with magic number and version, followed by the Bundle: flags byte, number
+ * of entries and entries. Each entry is a key followed by a value. Value is a type tag
+ * followed by its data. All numbers are big-endian, strings are length-prefixed UTF-8 with
+ * length -1 standing for null. Arrays and collections are length-prefixed, primitive arrays
+ * are written as one block. Compressed arrays are written in their compressed form.
+ * Entries put with time to live are written with their deadline as wall clock time and
+ * expire after being read back, entries which already expired are left out.
+ * <p>
+ * Supported values are nulls, boxed primitives, Strings, arrays of primitives, Strings and
+ * supported objects, lists and collections of supported values and Bundles. Lists and
+ * collections are read back as {@link ArrayList}.
+ *
+ * @since 1.0
+ */
+public final class BundleCodec {
+
+    static final int MAGIC = 0x424E444C;
+    static final int VERSION = 1;
+
+    private static final int FLAG_ORDERED = 1;
+
+    static final int NULL = 0;
+    static final int BOOLEAN = 1;
+    static final int BYTE = 2;
+    static final int CHAR = 3;
+    static final int SHORT = 4;
+    static final int INT = 5;
+    static final int LONG = 6;
+    static final int FLOAT = 7;
+    static final int DOUBLE = 8;
+    static final int STRING = 9;
+    static final int BOOLEAN_ARRAY = 10;
+    static final int BYTE_ARRAY = 11;
+    static final int CHAR_ARRAY = 12;
+    static final int SHORT_ARRAY = 13;
+    static final int INT_ARRAY = 14;
+    static final int LONG_ARRAY = 15;
+    static final int FLOAT_ARRAY = 16;
+    static final int DOUBLE_ARRAY = 17;
+    static final int STRING_ARRAY = 18;
+    static final int OBJECT_ARRAY = 19;
+    static final int LIST = 20;
+    static final int COLLECTION = 21;
+    static final int BUNDLE = 22;
+    static final int COMPRESSED_LONGS = 23;
+    static final int COMPRESSED_INTS = 24;
+    static final int COMPRESSED_DOUBLES = 25;
+    static final int COMPRESSED_BOOLEANS = 26;
+    // entry with time to live: deadline in milliseconds since epoch followed by tagged value
+    static final int EXPIRING = 27;
+
+    private static final int MAX_DEPTH = 64;
+
+    private BundleCodec() {
+    }
+
+    /**
+     * Encodes Bundle.
+     *
+     * @param bundle a Bundle
+     * @return encoded Bundle
+     * @throws IllegalArgumentException if Bundle contains value which cannot be encoded
+     */
+    public static byte[] encode(Bundle bundle) {
+        return encodeToOutput(bundle).toByteArray();
+    }
+
+    /**
+     * Encodes Bundle to buffer, avoiding copy of encoded data.
+     *
+     * @param bundle a Bundle
+     * @return buffer with encoded Bundle between its position and limit
+     * @throws IllegalArgumentException if Bundle contains value which cannot be encoded
+     */
+    public static ByteBuffer encodeToBuffer(Bundle bundle) {
+        return encodeToOutput(bundle).toBuffer();
+    }
+
+    /**
+     * Decodes Bundle.
+     *
+     * @param data encoded Bundle
+     * @return decoded Bundle
+     * @throws IOException if data is not a valid encoded Bundle
+     */
+    public static Bundle decode(byte[] data) throws IOException {
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Decodes Bundle from buffer, starting at its position.
+     *
+     * @param buffer buffer with encoded Bundle, position is moved after the Bundle
+     * @return decoded Bundle
+     * @throws IOException if data is not a valid encoded Bundle
+     */
+    public static Bundle decode(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new StreamCorruptedException("Not an encoded Bundle");
+            }
+            int version = buffer.get();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("Unsupported Bundle version " + version);
+            }
+            return readBundle(buffer, 0);
+        } catch (BufferUnderflowException e) {
+            throw truncated(e);
+        }
+    }
+
+    private static ByteOutput encodeToOutput(Bundle bundle) {
+        ByteOutput out = new ByteOutput(256);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeBundle(out, bundle, 0);
+        return out;
+    }
+
+    private static void writeBundle(ByteOutput out, Bundle bundle, int depth) {
+        out.writeByte(bundle.isOrdered() ? FLAG_ORDERED : 0);
+        // Bundle may hold expired entries not removed yet, count is written when known
+        int countPosition = out.position();
+        out.writeInt(0);
+        int count = 0;
+        BundleCursor cursor = bundle.cursor();
+        while (cursor.next()) {
+            Object value = cursor.rawValue();
+            if (value instanceof ExpiringValue && ((ExpiringValue) value).isExpired()) {
+                continue;
+            }
+            out.writeString(cursor.key());
+            writeRawValue(out, cursor.key(), value, depth);
+            count++;
+        }
+        out.writeIntAt(countPosition, count);
+    }
+
+    // writes value as stored in Bundle, keeping compressed arrays compressed
+    static void writeRawValue(ByteOutput out, String key, Object value, int depth) {
+        if (value instanceof CompressedArray) {
+            CompressedArray array = (CompressedArray) value;
+            if (array instanceof CompressedArray.Longs) {
+                out.writeByte(COMPRESSED_LONGS);
+            } else if (array instanceof CompressedArray.Ints) {
+                out.writeByte(COMPRESSED_INTS);
+            } else if (array instanceof CompressedArray.Doubles) {
+                out.writeByte(COMPRESSED_DOUBLES);
+            } else {
+                out.writeByte(COMPRESSED_BOOLEANS);
+            }
+            out.writeInt(array.mLength);
+            out.writeInt(array.mData.length);
+            out.writeBytes(array.mData);
+        } else if (value instanceof Utf8String) {
+            // compact strings are written without creating String
+            Utf8String s = (Utf8String) value;
+            out.writeByte(STRING);
+            out.writeInt(s.mLength);
+            out.writeBytes(s.mBytes, s.mOffset, s.mLength);
+        } else if (value instanceof Utf8StringArray) {
+            Utf8StringArray strings = (Utf8StringArray) value;
+            out.writeByte(strings.isList() ? LIST : STRING_ARRAY);
+            out.writeInt(strings.size());
+            for (int i = 0; i < strings.size(); i++) {
+                int start = strings.start(i);
+                int end = strings.end(i);
+                if (strings.isList()) {
+                    // elements of list are tagged values
+                    if (end < 0) {
+                        out.writeByte(NULL);
+                        continue;
+                    }
+                    out.writeByte(STRING);
+                }
+                if (end < 0) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(end - start);
+                    out.writeBytes(strings.bytes(), start, end - start);
+                }
+            }
+        } else if (value instanceof ExpiringValue) {
+            ExpiringValue expiring = (ExpiringValue) value;
+            out.ensure(9).put((byte) EXPIRING).putLong(expiring.deadlineMillis());
+            writeValue(out, key, expiring.resolve(), depth);
+        } else if (value instanceof StoredValue) {
+            writeValue(out, key, ((StoredValue) value).resolve(), depth);
+        } else {
+            writeValue(out, key, value, depth);
+        }
+    }
+
+    static void writeValue(ByteOutput out, String key, Object value, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Value of key " + key + " is nested too deep");
+        }
+        ByteBuffer b;
+        switch (ValueType.of(value)) {
+            case NULL:
+                out.writeByte(NULL);
+                break;
+            case BOOLEAN:
+                out.writeByte(BOOLEAN);
+                out.writeByte((Boolean) value ? 1 : 0);
+                break;
+            case BYTE:
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+                break;
+            case CHAR:
+                out.ensure(3).put((byte) CHAR).putChar((Character) value);
+                break;
+            case SHORT:
+                out.ensure(3).put((byte) SHORT).putShort((Short) value);
+                break;
+            case INT:
+                out.ensure(5).put((byte) INT).putInt((Integer) value);
+                break;
+            case LONG:
+                out.ensure(9).put((byte) LONG).putLong((Long) value);
+                break;
+            case FLOAT:
+                out.ensure(5).put((byte) FLOAT).putFloat((Float) value);
+                break;
+            case DOUBLE:
+                out.ensure(9).put((byte) DOUBLE).putDouble((Double) value);
+                break;
+            case STRING:
+                out.writeByte(STRING);
+                out.writeString((String) value);
+                break;
+            case BOOLEAN_ARRAY: {
+                boolean[] array = (boolean[]) value;
+                b = out.ensure(5 + array.length).put((byte) BOOLEAN_ARRAY).putInt(array.length);
+                for (boolean v : array) {
+                    b.put((byte) (v ? 1 : 0));
+                }
+                break;
+            }
+            case BYTE_ARRAY: {
+                byte[] array = (byte[]) value;
+                out.ensure(5 + array.length).put((byte) BYTE_ARRAY).putInt(array.length).put(array);
+                break;
+            }
+            case CHAR_ARRAY: {
+                char[] array = (char[]) value;
+                b = out.ensure(5 + 2 * array.length).put((byte) CHAR_ARRAY).putInt(array.length);
+                b.asCharBuffer().put(array);
+                b.position(b.position() + 2 * array.length);
+                break;
+            }
+            case SHORT_ARRAY: {
+                short[] array = (short[]) value;
+                b = out.ensure(5 + 2 * array.length).put((byte) SHORT_ARRAY).putInt(array.length);
+                b.asShortBuffer().put(array);
+                b.position(b.position() + 2 * array.length);
+                break;
+            }
+            case INT_ARRAY: {
+                int[] array = (int[]) value;
+                b = out.ensure(5 + 4 * array.length).put((byte) INT_ARRAY).putInt(array.length);
+                b.asIntBuffer().put(array);
+                b.position(b.position() + 4 * array.length);
+                break;
+            }
+            case LONG_ARRAY: {
+                long[] array = (long[]) value;
+                b = out.ensure(5 + 8 * array.length).put((byte) LONG_ARRAY).putInt(array.length);
+                b.asLongBuffer().put(array);
+                b.position(b.position() + 8 * array.length);
+                break;
+            }
+            case FLOAT_ARRAY: {
+                float[] array = (float[]) value;
+                b = out.ensure(5 + 4 * array.length).put((byte) FLOAT_ARRAY).putInt(array.length);
+                b.asFloatBuffer().put(array);
+                b.position(b.position() + 4 * array.length);
+                break;
+            }
+            case DOUBLE_ARRAY: {
+                double[] array = (double[]) value;
+                b = out.ensure(5 + 8 * array.length).put((byte) DOUBLE_ARRAY).putInt(array.length);
+                b.asDoubleBuffer().put(array);
+                b.position(b.position() + 8 * array.length);
+                break;
+            }
+            case STRING_ARRAY: {
+                String[] array = (String[]) value;
+                out.writeByte(STRING_ARRAY);
+                out.writeInt(array.length);
+                for (String s : array) {
+                    out.writeString(s);
+                }
+                break;
+            }
+            case OBJECT_ARRAY: {
+                Object[] array = (Object[]) value;
+                out.writeByte(OBJECT_ARRAY);
+                out.writeInt(array.length);
+                for (Object element : array) {
+                    writeValue(out, key, element, depth + 1);
+                }
+                break;
+            }
+            case LIST:
+            case COLLECTION: {
+                Collection<?> collection = (Collection<?>) value;
+                out.writeByte(value instanceof List ? LIST : COLLECTION);
+                out.writeInt(collection.size());
+                for (Object element : collection) {
+                    writeValue(out, key, element, depth + 1);
+                }
+                break;
+            }
+            case BUNDLE:
+                out.writeByte(BUNDLE);
+                writeBundle(out, (Bundle) value, depth + 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot encode value of key " + key + " of type "
+                        + value.getClass().getName());
+        }
+    }
+
+    private static Bundle readBundle(ByteBuffer in, int depth) throws IOException {
+        int flags = in.get();
+        int count = readLength(in, 5);
+        Bundle bundle = (flags & FLAG_ORDERED) != 0 ? Bundle.createOrderedBundle()
+                : new Bundle(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            Object value = readEntryValue(in, depth);
+            if (value instanceof ExpiringValue && ((ExpiringValue) value).isExpired()) {
+                continue;
+            }
+            bundle.put(key, value);
+        }
+        return bundle;
+    }
+
+    // reads value of Bundle entry, which unlike nested values may have time to live
+    static Object readEntryValue(ByteBuffer in, int depth) throws IOException {
+        if (!in.hasRemaining() || in.get(in.position()) != EXPIRING) {
+            return readValue(in, depth);
+        }
+        in.get();
+        long deadline = in.getLong();
+        return ExpiringValue.at(readValue(in, depth), deadline);
+    }
+
+    static Object readValue(ByteBuffer in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new StreamCorruptedException("Value is nested too deep");
+        }
+        int tag = in.get();
+        int length;
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.get() != 0;
+            case BYTE:
+                return in.get();
+            case CHAR:
+                return in.getChar();
+            case SHORT:
+                return in.getShort();
+            case INT:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case FLOAT:
+                return in.getFloat();
+            case DOUBLE:
+                return in.getDouble();
+            case STRING:
+                return readString(in);
+            case BOOLEAN_ARRAY: {
+                boolean[] array = new boolean[readLength(in, 1)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.get() != 0;
+                }
+                return array;
+            }
+            case BYTE_ARRAY: {
+                byte[] array = new byte[readLength(in, 1)];
+                in.get(array);
+                return array;
+            }
+            case CHAR_ARRAY: {
+                char[] array = new char[readLength(in, 2)];
+                in.asCharBuffer().get(array);
+                in.position(in.position() + 2 * array.length);
+                return array;
+            }
+            case SHORT_ARRAY: {
+                short[] array = new short[readLength(in, 2)];
+                in.asShortBuffer().get(array);
+                in.position(in.position() + 2 * array.length);
+                return array;
+            }
+            case INT_ARRAY: {
+                int[] array = new int[readLength(in, 4)];
+                in.asIntBuffer().get(array);
+                in.position(in.position() + 4 * array.length);
+                return array;
+            }
+            case LONG_ARRAY: {
+                long[] array = new long[readLength(in, 8)];
+                in.asLongBuffer().get(array);
+                in.position(in.position() + 8 * array.length);
+                return array;
+            }
+            case FLOAT_ARRAY: {
+                float[] array = new float[readLength(in, 4)];
+                in.asFloatBuffer().get(array);
+                in.position(in.position() + 4 * array.length);
+                return array;
+            }
+            case DOUBLE_ARRAY: {
+                double[] array = new double[readLength(in, 8)];
+                in.asDoubleBuffer().get(array);
+                in.position(in.position() + 8 * array.length);
+                return array;
+            }
+            case STRING_ARRAY: {
+                String[] array = new String[readLength(in, 4)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readString(in);
+                }
+                return array;
+            }
+            case OBJECT_ARRAY: {
+                Object[] array = new Object[readLength(in, 1)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in, depth + 1);
+                }
+                return array;
+            }
+            case LIST:
+            case COLLECTION: {
+                length = readLength(in, 1);
+                List<Object> list = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    list.add(readValue(in, depth + 1));
+                }
+                return list;
+            }
+            case BUNDLE:
+                return readBundle(in, depth + 1);
+            case COMPRESSED_LONGS:
+            case COMPRESSED_INTS:
+            case COMPRESSED_DOUBLES:
+            case COMPRESSED_BOOLEANS: {
+                length = in.getInt();
+                if (length < 0) {
+                    throw new StreamCorruptedException("Negative length " + length);
+                }
+                byte[] data = new byte[readLength(in, 1)];
+                in.get(data);
+                // length is checked against data, decoding must not run past it
+                boolean valid;
+                if (tag == COMPRESSED_LONGS) {
+                    valid = ArrayCompression.isVarints(data, length, 10);
+                } else if (tag == COMPRESSED_INTS) {
+                    valid = ArrayCompression.isVarints(data, length, 5);
+                } else if (tag == COMPRESSED_DOUBLES) {
+                    valid = ArrayCompression.isDoubles(data, length);
+                } else {
+                    valid = ArrayCompression.isBooleans(data, length);
+                }
+                if (!valid) {
+                    throw new StreamCorruptedException("Compressed data does not hold " + length + " elements");
+                }
+                if (tag == COMPRESSED_LONGS) {
+                    return new CompressedArray.Longs(data, length);
+                } else if (tag == COMPRESSED_INTS) {
+                    return new CompressedArray.Ints(data, length);
+                } else if (tag == COMPRESSED_DOUBLES) {
+                    return new CompressedArray.Doubles(data, length);
+                } else {
+                    return new CompressedArray.Booleans(data, length);
+                }
+            }
+            default:
+                throw new StreamCorruptedException("Unknown value tag " + tag);
+        }
+    }
+
+    static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > in.remaining()) {
+            throw new StreamCorruptedException("Invalid string length " + length);
+        }
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    // reads length of sequence whose elements take at least elementSize bytes
+    private static int readLength(ByteBuffer in, int elementSize) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || (long) length * elementSize > in.remaining()) {
+            throw new StreamCorruptedException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    static IOException truncated(BufferUnderflowException e) {
+        IOException ex = new StreamCorruptedException("Encoded Bundle is truncated");
+        ex.initCause(e);
+        return ex;
+    }
+}
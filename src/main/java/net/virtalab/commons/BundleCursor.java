@@ -0,0 +1,158 @@
+package net.virtalab.commons;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Cursor over entries of a {@link Bundle}. Cursor reads entries from Bundle's internal map
+ * directly, so walking a Bundle creates no entry objects and primitive values are returned
+ * without boxing. Values are read as {@link Bundle#get(String)} reads them: lazy values are
+ * computed and entries which expired read as null until the Bundle removes them.
+ * <pre>
+ * BundleCursor c = bundle.cursor();
+ * while (c.next()) {
+ *     if (c.type() == ValueType.LONG) {
+ *         sum += c.longValue();
+ *     }
+ * }
+ * </pre>
+ * Bundle must not be modified while the cursor is in use.
+ *
+ * @since 1.0
+ */
+public final class BundleCursor {
+
+    private final Map<String, Object> mMap;
+    private Iterator<Map.Entry<String, Object>> mIterator;
+    private Map.Entry<String, Object> mEntry;
+
+    BundleCursor(Map<String, Object> map) {
+        this.mMap = map;
+        this.mIterator = map.entrySet().iterator();
+    }
+
+    /**
+     * Moves cursor to next entry.
+     *
+     * @return true if cursor points to an entry, false if there are no more entries
+     */
+    public boolean next() {
+        if (mIterator.hasNext()) {
+            mEntry = mIterator.next();
+            return true;
+        }
+        mEntry = null;
+        return false;
+    }
+
+    /**
+     * Moves cursor before first entry, so Bundle can be walked again.
+     */
+    public void reset() {
+        mIterator = mMap.entrySet().iterator();
+        mEntry = null;
+    }
+
+    /**
+     * Returns key of current entry.
+     *
+     * @return a String, or null
+     */
+    public String key() {
+        return entry().getKey();
+    }
+
+    /**
+     * Returns type of value of current entry.
+     *
+     * @return type of value
+     */
+    public ValueType type() {
+        Object o = entry().getValue();
+        if (o instanceof ExpiringValue && ((ExpiringValue) o).isExpired()) {
+            return ValueType.NULL;
+        }
+        return ValueType.of(o);
+    }
+
+    /**
+     * Returns value of current entry of type int, long, short, byte or char as long.
+     *
+     * @return the value
+     * @throws ClassCastException if value is of other type
+     */
+    public long longValue() {
+        Object o = value();
+        if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte) {
+            return ((Number) o).longValue();
+        } else if (o instanceof Character) {
+            return (Character) o;
+        }
+        throw mismatch(o, "integral value");
+    }
+
+    /**
+     * Returns numeric value of current entry as double.
+     *
+     * @return the value
+     * @throws ClassCastException if value is not a number
+     */
+    public double doubleValue() {
+        Object o = value();
+        if (o instanceof Number) {
+            return ((Number) o).doubleValue();
+        } else if (o instanceof Character) {
+            return (Character) o;
+        }
+        throw mismatch(o, "number");
+    }
+
+    /**
+     * Returns boolean value of current entry.
+     *
+     * @return the value
+     * @throws ClassCastException if value is not boolean
+     */
+    public boolean booleanValue() {
+        Object o = value();
+        if (o instanceof Boolean) {
+            return (Boolean) o;
+        }
+        throw mismatch(o, "boolean");
+    }
+
+    /**
+     * Returns value of current entry as it would be returned by {@link Bundle#get(String)}.
+     *
+     * @return the value, or null
+     */
+    public Object objectValue() {
+        return value();
+    }
+
+    // value as stored in Bundle, without resolving internal representation
+    Object rawValue() {
+        return entry().getValue();
+    }
+
+    // value resolved from internal representation, entries which expired are seen as null
+    private Object value() {
+        Object o = entry().getValue();
+        if (o instanceof ExpiringValue && ((ExpiringValue) o).isExpired()) {
+            return null;
+        }
+        return o instanceof StoredValue ? ((StoredValue) o).resolve() : o;
+    }
+
+    private Map.Entry<String, Object> entry() {
+        if (mEntry == null) {
+            throw new IllegalStateException("Cursor does not point to an entry");
+        }
+        return mEntry;
+    }
+
+    private ClassCastException mismatch(Object value, String expected) {
+        return new ClassCastException("Key " + mEntry.getKey() + " expected " + expected + " but value was "
+                + (value == null ? "null" : value.getClass().getName()));
+    }
+}
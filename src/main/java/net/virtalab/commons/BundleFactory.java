@@ -0,0 +1,115 @@
+package net.virtalab.commons;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates Bundles pre-sized for the size Bundles of this factory typically reach, so that
+ * filling them does not rehash.
+ * <p>
+ * Factory is meant to be kept per call site, e.g. in a static field of the class which creates
+ * Bundles of the same shape. It learns the expected size from Bundles which outgrow it, which
+ * report their size as they grow, and from a few Bundles sampled in every window of creations,
+ * whose size is read when the window ends. When no Bundle of the window outgrew the expected
+ * size and sampled Bundles stayed smaller, expected size shrinks to the largest of them.
+ * Once the expected size is learned, creating and filling Bundles of typical size never rehashes.
+ * <p>
+ * Factory is thread-safe.
+ *
+ * @since 1.0
+ */
+public final class BundleFactory {
+
+    // creations between adjustments of expected size
+    private static final int WINDOW = 256;
+    // Bundles sampled in each window
+    private static final int SAMPLES = 8;
+    // fewest live samples needed to shrink expected size
+    private static final int MIN_SAMPLES = 4;
+
+    private final AtomicInteger mCreated = new AtomicInteger();
+    private volatile int mExpectedSize;
+    // guarded by this
+    private int mGrownMax;
+    @SuppressWarnings("unchecked")
+    private WeakReference<Bundle>[] mSamples = new WeakReference[SAMPLES];
+    private int mSampleCount;
+
+    /**
+     * Creates factory which starts with default capacity of Bundle.
+     */
+    public BundleFactory() {
+        this(0);
+    }
+
+    /**
+     * Creates factory with initial guess of expected size.
+     *
+     * @param expectedSize expected number of entries, not negative
+     */
+    public BundleFactory(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Expected size cannot be negative");
+        }
+        this.mExpectedSize = expectedSize;
+    }
+
+    /**
+     * Creates new and empty Bundle sized for expected number of entries.
+     *
+     * @return empty Bundle
+     */
+    public Bundle create() {
+        int expected = mExpectedSize;
+        Bundle bundle = expected == 0 ? new Bundle() : new Bundle(expected * 4 / 3 + 1);
+        bundle.sizedBy(this, expected);
+        int created = mCreated.incrementAndGet();
+        if (created % (WINDOW / SAMPLES) == 0) {
+            sample(bundle, created % WINDOW == 0);
+        }
+        return bundle;
+    }
+
+    /**
+     * Returns number of entries Bundles are currently sized for.
+     *
+     * @return expected size
+     */
+    public int getExpectedSize() {
+        return mExpectedSize;
+    }
+
+    // called by Bundle which got more entries than it was sized for
+    synchronized void grown(int size) {
+        if (size > mExpectedSize) {
+            mExpectedSize = size;
+        }
+        mGrownMax = Math.max(mGrownMax, size);
+    }
+
+    private synchronized void sample(Bundle bundle, boolean endOfWindow) {
+        if (!endOfWindow) {
+            if (mSampleCount < SAMPLES) {
+                mSamples[mSampleCount++] = new WeakReference<>(bundle);
+            }
+            return;
+        }
+        // samples of previous window had time to be filled
+        int live = 0;
+        int max = mGrownMax;
+        for (int i = 0; i < mSampleCount; i++) {
+            Bundle sampled = mSamples[i].get();
+            if (sampled != null) {
+                live++;
+                max = Math.max(max, sampled.size());
+            }
+            mSamples[i] = null;
+        }
+        if (live >= MIN_SAMPLES && max < mExpectedSize) {
+            mExpectedSize = max;
+        }
+        mGrownMax = 0;
+        mSamples[0] = new WeakReference<>(bundle);
+        mSampleCount = 1;
+    }
+}
@@ -0,0 +1,263 @@
+package net.virtalab.commons;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+/**
+ * Asynchronous loading and saving of Bundles in {@link BundleCodec} layout.
+ * <p>
+ * Files are read and written with {@link AsynchronousFileChannel}. Decoding of loaded Bundle runs
+ * in completion handler, on the given executor or on the default channel thread pool when
+ * executor is null. Any executor can be used, e.g. one starting virtual thread per task.
+ *
+ * @since 1.0
+ */
+public final class BundleFiles {
+
+    private static final Set<StandardOpenOption> READ = EnumSet.of(StandardOpenOption.READ);
+    private static final Set<StandardOpenOption> WRITE = EnumSet.of(StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+
+    private BundleFiles() {
+    }
+
+    /**
+     * Starts loading of Bundle from file.
+     *
+     * @param file     file with encoded Bundle
+     * @param executor executor for completion handlers, or null to use default one
+     * @return future completed with loaded Bundle, or failed with {@link IOException}
+     */
+    public static CompletableFuture<Bundle> load(Path file, ExecutorService executor) {
+        CompletableFuture<Bundle> future = new CompletableFuture<>();
+        load(file, executor, future);
+        return future;
+    }
+
+    /**
+     * Starts saving of Bundle to file. Bundle is encoded before this method returns, so it can
+     * be modified while it is being written. Bundle is written to temporary file with unique name
+     * next to target file, which then replaces target file, so concurrent saves of the same file
+     * never mix their content. Temporary file is deleted when saving fails.
+     *
+     * @param file     target file
+     * @param bundle   a Bundle
+     * @param executor executor for completion handlers, or null to use default one
+     * @return future completed once file is written and replaced, or failed with {@link IOException}
+     * @throws IllegalArgumentException if Bundle contains value which cannot be encoded
+     */
+    public static CompletableFuture<Void> save(final Path file, Bundle bundle, ExecutorService executor) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        ByteBuffer data = BundleCodec.encodeToBuffer(bundle);
+        final Path temp;
+        try {
+            temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp");
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        final AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(temp, WRITE, executor);
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            future.completeExceptionally(e);
+            return future;
+        }
+        CompletionHandler<Integer, ByteBuffer> handler = new CompletionHandler<Integer, ByteBuffer>() {
+            private long mPosition;
+
+            @Override
+            public void completed(Integer written, ByteBuffer buffer) {
+                // any failure has to complete the future, otherwise caller waits forever
+                try {
+                    mPosition += written;
+                    if (buffer.hasRemaining()) {
+                        channel.write(buffer, mPosition, buffer, this);
+                        return;
+                    }
+                    channel.force(false);
+                    channel.close();
+                    replace(temp, file);
+                    future.complete(null);
+                } catch (Throwable t) {
+                    failed(t, buffer);
+                }
+            }
+
+            @Override
+            public void failed(Throwable t, ByteBuffer buffer) {
+                closeQuietly(channel);
+                deleteQuietly(temp);
+                future.completeExceptionally(t);
+            }
+        };
+        try {
+            channel.write(data, 0, data, handler);
+        } catch (Throwable t) {
+            handler.failed(t, data);
+        }
+        return future;
+    }
+
+    /**
+     * Loads all Bundles from files in directory matching given glob pattern. At most maxInFlight
+     * files are being loaded at any time, further files are not opened until some
+     * of loads complete.
+     *
+     * @param dir         a directory
+     * @param glob        glob pattern of file names, e.g. "*.bundle"
+     * @param executor    executor for completion handlers, or null to use default one
+     * @param maxInFlight max number of files loaded at the same time
+     * @return loaded Bundles by their files, in directory listing order
+     * @throws IOException          if directory cannot be read or any file failed to load.
+     *                              Failures of other files are added as suppressed exceptions.
+     * @throws InterruptedException if interrupted while waiting for loads
+     */
+    public static Map<Path, Bundle> loadAll(Path dir, String glob, ExecutorService executor, int maxInFlight)
+            throws IOException, InterruptedException {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Max in flight must be positive");
+        }
+        final Semaphore permits = new Semaphore(maxInFlight);
+        BiConsumer<Bundle, Throwable> release = new BiConsumer<Bundle, Throwable>() {
+            @Override
+            public void accept(Bundle bundle, Throwable t) {
+                permits.release();
+            }
+        };
+        Map<Path, CompletableFuture<Bundle>> loads = new LinkedHashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, glob)) {
+            for (Path file : files) {
+                permits.acquire();
+                CompletableFuture<Bundle> future = load(file, executor);
+                loads.put(file, future);
+                future.whenComplete(release);
+            }
+        } finally {
+            // wait for all started loads, also when listing failed
+            permits.acquireUninterruptibly(maxInFlight);
+        }
+
+        Map<Path, Bundle> bundles = new LinkedHashMap<>(loads.size() * 4 / 3 + 1);
+        IOException failure = null;
+        for (Map.Entry<Path, CompletableFuture<Bundle>> e : loads.entrySet()) {
+            try {
+                bundles.put(e.getKey(), e.getValue().get());
+            } catch (ExecutionException ex) {
+                IOException cause = ex.getCause() instanceof IOException ? (IOException) ex.getCause()
+                        : new IOException("Failed to load " + e.getKey(), ex.getCause());
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return bundles;
+    }
+
+    // completes the future on every path, loadAll waits for it to release its permit
+    private static void load(final Path file, ExecutorService executor, final CompletableFuture<Bundle> future) {
+        final AsynchronousFileChannel channel;
+        final ByteBuffer buffer;
+        try {
+            channel = AsynchronousFileChannel.open(file, READ, executor);
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            return;
+        }
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File " + file + " is too large: " + size + " bytes");
+            }
+            buffer = ByteBuffer.allocate((int) size);
+        } catch (Throwable t) {
+            closeQuietly(channel);
+            future.completeExceptionally(t);
+            return;
+        }
+        CompletionHandler<Integer, ByteBuffer> handler = new CompletionHandler<Integer, ByteBuffer>() {
+            @Override
+            public void completed(Integer read, ByteBuffer buffer) {
+                try {
+                    if (read < 0 && buffer.hasRemaining()) {
+                        throw new EOFException("File " + file + " was truncated while reading");
+                    }
+                    if (buffer.hasRemaining()) {
+                        channel.read(buffer, buffer.position(), buffer, this);
+                        return;
+                    }
+                    closeQuietly(channel);
+                    buffer.flip();
+                    Bundle bundle;
+                    try {
+                        bundle = BundleCodec.decode(buffer);
+                    } catch (IOException e) {
+                        throw new IOException("Cannot decode " + file, e);
+                    }
+                    future.complete(bundle);
+                } catch (Throwable t) {
+                    failed(t, buffer);
+                }
+            }
+
+            @Override
+            public void failed(Throwable t, ByteBuffer buffer) {
+                closeQuietly(channel);
+                future.completeExceptionally(t);
+            }
+        };
+        try {
+            channel.read(buffer, 0, buffer, handler);
+        } catch (Throwable t) {
+            handler.failed(t, buffer);
+        }
+    }
+
+    private static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // nothing to do, failure is reported instead
+        }
+    }
+
+    private static void closeQuietly(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing to do, result is already known
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package net.virtalab.commons;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes which turn one version of a Bundle into another, e.g. for replication.
+ * <p>
+ * Primitive arrays are split into chunks of equal size in bytes, each chunk is hashed.
+ * When an array keeps its type and length, patch carries only the chunks which changed and
+ * applying it overwrites them in place, so the size of patch and the cost of applying it are
+ * proportional to the changed bytes, not to the size of the array. Other values are compared
+ * by their hash and carried whole when they differ.
+ * <p>
+ * Base version can be kept as a {@link Signature}, which holds only hashes and is much smaller
+ * than the Bundle. Patch records hashes of base chunks it replaces and applying checks them,
+ * so patch is never applied to an array it was not made for.
+ * <p>
+ * Patch refers to values of the target Bundle until it is encoded.
+ *
+ * @since 1.0
+ */
+public final class BundlePatch {
+
+    /**
+     * Default size of array chunk in bytes.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 4096;
+
+    private static final int MAGIC = 0x424E4450;
+    private static final int VERSION = 1;
+
+    private static final int PUT = 1;
+    private static final int REMOVE = 2;
+    private static final int CHUNKS = 3;
+
+    private final List<Op> mOps;
+
+    private BundlePatch(List<Op> ops) {
+        this.mOps = ops;
+    }
+
+    /**
+     * Returns signature of Bundle with chunks of default size.
+     *
+     * @param bundle a Bundle
+     * @return signature of current content of the Bundle
+     */
+    public static Signature signature(Bundle bundle) {
+        return signature(bundle, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Returns signature of Bundle.
+     *
+     * @param bundle     a Bundle
+     * @param chunkBytes size of array chunk in bytes, at least 8
+     * @return signature of current content of the Bundle
+     */
+    public static Signature signature(Bundle bundle, int chunkBytes) {
+        if (chunkBytes < 8) {
+            throw new IllegalArgumentException("Chunk must have at least 8 bytes");
+        }
+        Map<String, Object> entries = bundle.storage();
+        Map<String, Hash> hashes = new HashMap<>(entries.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Object> e : entries.entrySet()) {
+            String key = e.getKey();
+            Object value = resolve(e.getValue());
+            if (isPrimitiveArray(value)) {
+                int length = Array.getLength(value);
+                int chunk = chunkLength(value, chunkBytes);
+                long[] chunks = new long[(length + chunk - 1) / chunk];
+                for (int c = 0; c < chunks.length; c++) {
+                    chunks[c] = Fingerprint.range(value, c * chunk, Math.min(length, (c + 1) * chunk));
+                }
+                hashes.put(key, new Hash(0, value.getClass(), length, chunks));
+            } else {
+                hashes.put(key, new Hash(Fingerprint.entry(key, value)[0], null, 0, null));
+            }
+        }
+        return new Signature(chunkBytes, hashes);
+    }
+
+    /**
+     * Returns patch which turns base Bundle into target Bundle, with chunks of default size.
+     *
+     * @param base   base version
+     * @param target target version
+     * @return patch
+     */
+    public static BundlePatch diff(Bundle base, Bundle target) {
+        return diff(signature(base), target);
+    }
+
+    /**
+     * Returns patch which turns Bundle with given signature into target Bundle.
+     *
+     * @param base   signature of base version
+     * @param target target version
+     * @return patch
+     */
+    public static BundlePatch diff(Signature base, Bundle target) {
+        List<Op> ops = new ArrayList<>();
+        Map<String, Object> entries = target.storage();
+        for (Map.Entry<String, Object> e : entries.entrySet()) {
+            String key = e.getKey();
+            Object value = resolve(e.getValue());
+            Hash hash = base.mHashes.get(key);
+            if (hash == null) {
+                ops.add(new Op(PUT, key, value));
+            } else if (hash.mChunks != null && value != null && value.getClass() == hash.mType
+                    && Array.getLength(value) == hash.mLength) {
+                Op op = chunks(key, value, hash, base.mChunkBytes);
+                if (op != null) {
+                    ops.add(op);
+                }
+            } else if (hash.mChunks != null || isPrimitiveArray(value)
+                    || Fingerprint.entry(key, value)[0] != hash.mHash) {
+                ops.add(new Op(PUT, key, value));
+            }
+        }
+        for (String key : base.mHashes.keySet()) {
+            if (!entries.containsKey(key)) {
+                ops.add(new Op(REMOVE, key, null));
+            }
+        }
+        return new BundlePatch(Collections.unmodifiableList(ops));
+    }
+
+    // changed chunks of array, or null if none changed
+    private static Op chunks(String key, Object array, Hash base, int chunkBytes) {
+        int length = base.mLength;
+        int chunk = chunkLength(array, chunkBytes);
+        int[] changed = new int[base.mChunks.length];
+        long[] baseHashes = new long[base.mChunks.length];
+        int count = 0;
+        int elements = 0;
+        for (int c = 0; c < base.mChunks.length; c++) {
+            int from = c * chunk;
+            int to = Math.min(length, from + chunk);
+            if (Fingerprint.range(array, from, to) != base.mChunks[c]) {
+                changed[count] = c;
+                baseHashes[count++] = base.mChunks[c];
+                elements += to - from;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        Object data = Array.newInstance(array.getClass().getComponentType(), elements);
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            int from = changed[i] * chunk;
+            int to = Math.min(length, from + chunk);
+            System.arraycopy(array, from, data, position, to - from);
+            position += to - from;
+        }
+        Op op = new Op(CHUNKS, key, data);
+        op.mLength = length;
+        op.mChunkLength = chunk;
+        op.mChunks = count == changed.length ? changed : Arrays.copyOf(changed, count);
+        op.mBaseHashes = count == baseHashes.length ? baseHashes : Arrays.copyOf(baseHashes, count);
+        return op;
+    }
+
+    /**
+     * Returns true if patch makes no change.
+     *
+     * @return true if base and target were equal
+     */
+    public boolean isEmpty() {
+        return mOps.isEmpty();
+    }
+
+    /**
+     * Returns number of entries changed by patch.
+     *
+     * @return number of put, removed and patched entries
+     */
+    public int size() {
+        return mOps.size();
+    }
+
+    /**
+     * Applies patch to a Bundle equal to base version. Arrays are changed in place, unless they
+     * are stored in other form, e.g. compressed, in which case they are replaced by changed
+     * plain arrays. Bundle is checked before it is changed, so patch is applied whole or not at all.
+     *
+     * @param bundle Bundle to change
+     * @throws IllegalStateException if patched arrays do not match base version
+     */
+    public void apply(Bundle bundle) {
+        Map<String, Object> entries = bundle.storage();
+        for (Op op : mOps) {
+            if (op.mType == CHUNKS) {
+                verify(op, resolve(entries.get(op.mKey)));
+            }
+        }
+        for (final Op op : mOps) {
+            switch (op.mType) {
+                case PUT:
+                    bundle.store(op.mKey, op.mValue);
+                    break;
+                case REMOVE:
+                    bundle.remove(op.mKey);
+                    break;
+                default:
+                    Object raw = entries.get(op.mKey);
+                    final Object array = resolve(raw);
+                    if (raw == array) {
+                        bundle.changeInPlace(op.mKey, new Runnable() {
+                            @Override
+                            public void run() {
+                                op.copyChunks(array);
+                            }
+                        });
+                    } else {
+                        Object copy = BundleValues.copyArray(array);
+                        op.copyChunks(copy);
+                        bundle.store(op.mKey, copy);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private static void verify(Op op, Object array) {
+        if (array == null || array.getClass() != op.mValue.getClass() || Array.getLength(array) != op.mLength) {
+            throw new IllegalStateException("Array of key " + op.mKey + " does not match base of patch");
+        }
+        for (int i = 0; i < op.mChunks.length; i++) {
+            int from = op.mChunks[i] * op.mChunkLength;
+            int to = Math.min(op.mLength, from + op.mChunkLength);
+            if (Fingerprint.range(array, from, to) != op.mBaseHashes[i]) {
+                throw new IllegalStateException("Chunk " + op.mChunks[i] + " of key " + op.mKey
+                        + " does not match base of patch");
+            }
+        }
+    }
+
+    /**
+     * Encodes patch, values are encoded as by {@link BundleCodec}.
+     *
+     * @return encoded patch
+     * @throws IllegalArgumentException if a value cannot be encoded
+     */
+    public byte[] encode() {
+        ByteOutput out = new ByteOutput(256);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(mOps.size());
+        for (Op op : mOps) {
+            out.writeByte(op.mType);
+            out.writeString(op.mKey);
+            if (op.mType == PUT) {
+                BundleCodec.writeValue(out, op.mKey, op.mValue, 0);
+            } else if (op.mType == CHUNKS) {
+                out.writeInt(op.mLength);
+                out.writeInt(op.mChunkLength);
+                out.writeInt(op.mChunks.length);
+                for (int i = 0; i < op.mChunks.length; i++) {
+                    out.writeInt(op.mChunks[i]);
+                    out.writeLong(op.mBaseHashes[i]);
+                }
+                BundleCodec.writeValue(out, op.mKey, op.mValue, 0);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes patch.
+     *
+     * @param data encoded patch
+     * @return decoded patch
+     * @throws IOException if data is not a valid encoded patch
+     */
+    public static BundlePatch decode(byte[] data) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new StreamCorruptedException("Not an encoded patch");
+            }
+            int version = in.get();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("Unsupported patch version " + version);
+            }
+            int count = in.getInt();
+            if (count < 0 || count > in.remaining()) {
+                throw new StreamCorruptedException("Invalid number of changes " + count);
+            }
+            List<Op> ops = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int type = in.get();
+                String key = BundleCodec.readString(in);
+                switch (type) {
+                    case PUT:
+                        ops.add(new Op(PUT, key, BundleCodec.readValue(in, 0)));
+                        break;
+                    case REMOVE:
+                        ops.add(new Op(REMOVE, key, null));
+                        break;
+                    case CHUNKS:
+                        ops.add(readChunks(in, key));
+                        break;
+                    default:
+                        throw new StreamCorruptedException("Unknown change type " + type);
+                }
+            }
+            return new BundlePatch(Collections.unmodifiableList(ops));
+        } catch (BufferUnderflowException e) {
+            throw BundleCodec.truncated(e);
+        }
+    }
+
+    private static Op readChunks(ByteBuffer in, String key) throws IOException {
+        int length = in.getInt();
+        int chunkLength = in.getInt();
+        int count = in.getInt();
+        if (length < 0 || chunkLength <= 0 || count < 0 || count > in.remaining() / 12) {
+            throw new StreamCorruptedException("Invalid chunks of key " + key);
+        }
+        int[] chunks = new int[count];
+        long[] baseHashes = new long[count];
+        long elements = 0;
+        for (int i = 0; i < count; i++) {
+            chunks[i] = in.getInt();
+            baseHashes[i] = in.getLong();
+            long from = (long) chunks[i] * chunkLength;
+            if (chunks[i] < 0 || from >= length) {
+                throw new StreamCorruptedException("Invalid chunk " + chunks[i] + " of key " + key);
+            }
+            elements += Math.min(length, from + chunkLength) - from;
+        }
+        Object data = BundleCodec.readValue(in, 0);
+        if (!isPrimitiveArray(data) || Array.getLength(data) != elements) {
+            throw new StreamCorruptedException("Invalid chunk data of key " + key);
+        }
+        Op op = new Op(CHUNKS, key, data);
+        op.mLength = length;
+        op.mChunkLength = chunkLength;
+        op.mChunks = chunks;
+        op.mBaseHashes = baseHashes;
+        return op;
+    }
+
+    private static Object resolve(Object o) {
+        return o instanceof StoredValue ? ((StoredValue) o).resolve() : o;
+    }
+
+    private static boolean isPrimitiveArray(Object value) {
+        return value != null && value.getClass().isArray() && value.getClass().getComponentType().isPrimitive();
+    }
+
+    // number of elements of array in chunk of given size
+    private static int chunkLength(Object array, int chunkBytes) {
+        Class<?> type = array.getClass().getComponentType();
+        int size;
+        if (type == long.class || type == double.class) {
+            size = 8;
+        } else if (type == int.class || type == float.class) {
+            size = 4;
+        } else if (type == short.class || type == char.class) {
+            size = 2;
+        } else {
+            size = 1;
+        }
+        return chunkBytes / size;
+    }
+
+    /**
+     * Hashes of Bundle content, used as base of {@link #diff(Signature, Bundle)}.
+     * Signature is immutable.
+     */
+    public static final class Signature {
+        private final int mChunkBytes;
+        private final Map<String, Hash> mHashes;
+
+        private Signature(int chunkBytes, Map<String, Hash> hashes) {
+            this.mChunkBytes = chunkBytes;
+            this.mHashes = hashes;
+        }
+
+        /**
+         * Returns size of array chunk in bytes.
+         *
+         * @return chunk size in bytes
+         */
+        public int getChunkBytes() {
+            return mChunkBytes;
+        }
+    }
+
+    // hash of value, or of chunks of primitive array
+    private static final class Hash {
+        final long mHash;
+        final Class<?> mType;
+        final int mLength;
+        final long[] mChunks;
+
+        Hash(long hash, Class<?> type, int length, long[] chunks) {
+            this.mHash = hash;
+            this.mType = type;
+            this.mLength = length;
+            this.mChunks = chunks;
+        }
+    }
+
+    private static final class Op {
+        final int mType;
+        final String mKey;
+        // value to put, or changed chunks of array one after another
+        final Object mValue;
+        int mLength;
+        int mChunkLength;
+        int[] mChunks;
+        long[] mBaseHashes;
+
+        Op(int type, String key, Object value) {
+            this.mType = type;
+            this.mKey = key;
+            this.mValue = value;
+        }
+
+        void copyChunks(Object array) {
+            int position = 0;
+            for (int chunk : mChunks) {
+                int from = chunk * mChunkLength;
+                int length = Math.min(mLength, from + mChunkLength) - from;
+                System.arraycopy(mValue, position, array, from, length);
+                position += length;
+            }
+        }
+    }
+}
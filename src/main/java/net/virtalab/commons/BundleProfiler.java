@@ -0,0 +1,442 @@
+package net.virtalab.commons;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Samples reads and writes of Bundles to which it is attached, see {@link Bundle#setProfiler(BundleProfiler)}.
+ * Profiler counts gets and puts of every key and types of values put, and records where values were
+ * read through getter of different type. {@link #report()} suggests schema from these counts: keys
+ * ordered from most read, type of each key and keys which are written but never read.
+ * <p>
+ * Only one of every sampleRate accesses is recorded, other accesses cost one random number.
+ * Counts in report are scaled by sample rate, so they are estimates. Type mismatches are rare
+ * and are all recorded. Profiler is thread-safe and may be shared by many Bundles, e.g. all
+ * Bundles of one kind of message.
+ *
+ * @since 1.0
+ */
+public final class BundleProfiler {
+
+    public static final int DEFAULT_SAMPLE_RATE = 64;
+    public static final int DEFAULT_MAX_TRACKED_KEYS = 1024;
+    // call sites of mismatches recorded per key
+    private static final int MAX_SITES = 16;
+    private static final String PACKAGE = BundleProfiler.class.getPackage().getName() + ".";
+
+    private static final ValueType[] TYPES = ValueType.values();
+
+    private final int mSampleRate;
+    private final int mMaxTrackedKeys;
+    private final ConcurrentMap<String, KeyStats> mKeys = new ConcurrentHashMap<>();
+    private final Counter mUntracked = new Counter();
+
+    /**
+     * Creates profiler which records one of 64 accesses.
+     */
+    public BundleProfiler() {
+        this(DEFAULT_SAMPLE_RATE, DEFAULT_MAX_TRACKED_KEYS);
+    }
+
+    /**
+     * Creates profiler with given limits.
+     *
+     * @param sampleRate     one of this number of accesses is recorded, 1 records all of them
+     * @param maxTrackedKeys number of distinct keys recorded. Accesses of other keys are only counted.
+     */
+    public BundleProfiler(int sampleRate, int maxTrackedKeys) {
+        if (sampleRate < 1 || maxTrackedKeys < 0) {
+            throw new IllegalArgumentException("Sample rate must be positive and max tracked keys not negative");
+        }
+        this.mSampleRate = sampleRate;
+        this.mMaxTrackedKeys = maxTrackedKeys;
+    }
+
+    /**
+     * Returns number of accesses per one recorded access.
+     *
+     * @return sample rate
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    private boolean sampled() {
+        return mSampleRate == 1 || ThreadLocalRandom.current().nextInt(mSampleRate) == 0;
+    }
+
+    // called by Bundle on every read
+    void recordGet(String key) {
+        if (sampled()) {
+            KeyStats stats = statsFor(key);
+            if (stats != null) {
+                stats.mGets.increment();
+            }
+        }
+    }
+
+    // called by Bundle on every write, value in its stored form
+    void recordPut(String key, Object value) {
+        if (sampled()) {
+            KeyStats stats = statsFor(key);
+            if (stats != null) {
+                stats.mPuts.increment();
+                stats.mTypes.incrementAndGet(ValueType.of(value).ordinal());
+            }
+        }
+    }
+
+    // called by Bundle when value is read by getter of other type
+    void recordMismatch(String key, String expectedType, ClassCastException e) {
+        KeyStats stats = statsFor(key);
+        if (stats != null) {
+            // mismatches found without cast are located by stack of this call
+            stats.mismatch(expectedType + " at " + site(e != null ? e : new Throwable()));
+        }
+    }
+
+    // first frame of failed cast outside of classes of this package
+    private static String site(Throwable e) {
+        for (StackTraceElement frame : e.getStackTrace()) {
+            String name = frame.getClassName();
+            if (!name.startsWith(PACKAGE) || name.indexOf('.', PACKAGE.length()) >= 0) {
+                return frame.toString();
+            }
+        }
+        return "<unknown>";
+    }
+
+    private KeyStats statsFor(String key) {
+        if (key == null) {
+            mUntracked.increment();
+            return null;
+        }
+        KeyStats stats = mKeys.get(key);
+        if (stats != null) {
+            return stats;
+        }
+        // racy bound, may be exceeded by a few keys
+        if (mKeys.size() >= mMaxTrackedKeys) {
+            mUntracked.increment();
+            return null;
+        }
+        stats = new KeyStats();
+        KeyStats existing = mKeys.putIfAbsent(key, stats);
+        return existing != null ? existing : stats;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        mKeys.clear();
+        mUntracked.add(-mUntracked.get());
+    }
+
+    /**
+     * Returns report of accesses recorded so far.
+     *
+     * @return immutable report
+     */
+    public Report report() {
+        List<KeyReport> keys = new ArrayList<>(mKeys.size());
+        for (Map.Entry<String, KeyStats> e : mKeys.entrySet()) {
+            keys.add(e.getValue().report(e.getKey(), mSampleRate));
+        }
+        Collections.sort(keys, new Comparator<KeyReport>() {
+            @Override
+            public int compare(KeyReport a, KeyReport b) {
+                int byGets = Long.compare(b.mGets, a.mGets);
+                return byGets != 0 ? byGets : a.mKey.compareTo(b.mKey);
+            }
+        });
+        return new Report(mSampleRate, mUntracked.get() * mSampleRate, keys);
+    }
+
+    private static final class KeyStats {
+        final Counter mGets = new Counter();
+        final Counter mPuts = new Counter();
+        final AtomicLongArray mTypes = new AtomicLongArray(TYPES.length);
+        final Counter mMismatches = new Counter();
+        final ConcurrentMap<String, Counter> mSites = new ConcurrentHashMap<>();
+
+        void mismatch(String site) {
+            mMismatches.increment();
+            Counter counter = mSites.get(site);
+            if (counter == null) {
+                if (mSites.size() >= MAX_SITES) {
+                    return;
+                }
+                Counter created = new Counter();
+                counter = mSites.putIfAbsent(site, created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+            counter.increment();
+        }
+
+        KeyReport report(String key, int sampleRate) {
+            Map<ValueType, Long> types = new EnumMap<>(ValueType.class);
+            for (int i = 0; i < TYPES.length; i++) {
+                long count = mTypes.get(i);
+                if (count > 0) {
+                    types.put(TYPES[i], count * sampleRate);
+                }
+            }
+            Map<String, Long> sites = new LinkedHashMap<>();
+            for (Map.Entry<String, Counter> e : mSites.entrySet()) {
+                sites.put(e.getKey(), e.getValue().get());
+            }
+            return new KeyReport(key, mGets.get() * sampleRate, mPuts.get() * sampleRate, types,
+                    mMismatches.get(), sites);
+        }
+    }
+
+    /**
+     * Recorded accesses of one key.
+     */
+    public static final class KeyReport {
+        private final String mKey;
+        private final long mGets;
+        private final long mPuts;
+        private final Map<ValueType, Long> mTypes;
+        private final long mMismatches;
+        private final Map<String, Long> mSites;
+
+        private KeyReport(String key, long gets, long puts, Map<ValueType, Long> types,
+                          long mismatches, Map<String, Long> sites) {
+            this.mKey = key;
+            this.mGets = gets;
+            this.mPuts = puts;
+            this.mTypes = Collections.unmodifiableMap(types);
+            this.mMismatches = mismatches;
+            this.mSites = Collections.unmodifiableMap(sites);
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        /**
+         * Returns estimated number of reads.
+         *
+         * @return number of reads
+         */
+        public long getGets() {
+            return mGets;
+        }
+
+        /**
+         * Returns estimated number of writes.
+         *
+         * @return number of writes
+         */
+        public long getPuts() {
+            return mPuts;
+        }
+
+        /**
+         * Returns estimated number of writes of each type of value.
+         *
+         * @return types of written values
+         */
+        public Map<ValueType, Long> getTypes() {
+            return mTypes;
+        }
+
+        /**
+         * Returns type written most often, null values are counted only when key had no other value.
+         *
+         * @return dominant type, or null if no write was recorded
+         */
+        public ValueType getDominantType() {
+            ValueType dominant = null;
+            long max = 0;
+            for (Map.Entry<ValueType, Long> e : mTypes.entrySet()) {
+                if (e.getKey() != ValueType.NULL && e.getValue() > max) {
+                    dominant = e.getKey();
+                    max = e.getValue();
+                }
+            }
+            return dominant == null && mTypes.containsKey(ValueType.NULL) ? ValueType.NULL : dominant;
+        }
+
+        /**
+         * Returns number of reads through getter of other type than the value.
+         *
+         * @return number of type mismatches
+         */
+        public long getMismatches() {
+            return mMismatches;
+        }
+
+        /**
+         * Returns code which read the key with getter of wrong type, with number of such reads.
+         *
+         * @return expected type and call site, mapped to number of mismatches
+         */
+        public Map<String, Long> getMismatchSites() {
+            return mSites;
+        }
+    }
+
+    /**
+     * Recorded accesses with suggested schema.
+     */
+    public static final class Report {
+        private final int mSampleRate;
+        private final long mUntracked;
+        private final List<KeyReport> mKeys;
+
+        private Report(int sampleRate, long untracked, List<KeyReport> keys) {
+            this.mSampleRate = sampleRate;
+            this.mUntracked = untracked;
+            this.mKeys = Collections.unmodifiableList(keys);
+        }
+
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        /**
+         * Returns estimated number of accesses of keys which were not tracked.
+         *
+         * @return number of untracked accesses
+         */
+        public long getUntrackedAccesses() {
+            return mUntracked;
+        }
+
+        /**
+         * Returns reports of keys, most read key first.
+         *
+         * @return key reports
+         */
+        public List<KeyReport> getKeys() {
+            return mKeys;
+        }
+
+        /**
+         * Returns suggested order of keys, most read key first, keys to drop are left out.
+         *
+         * @return keys in suggested order
+         */
+        public List<String> getKeyOrder() {
+            List<String> order = new ArrayList<>(mKeys.size());
+            for (KeyReport key : mKeys) {
+                if (key.mGets > 0) {
+                    order.add(key.mKey);
+                }
+            }
+            return order;
+        }
+
+        /**
+         * Returns suggested type of each key, the type written most often.
+         *
+         * @return keys in suggested order mapped to their types
+         */
+        public Map<String, ValueType> getSuggestedTypes() {
+            Map<String, ValueType> types = new LinkedHashMap<>();
+            for (KeyReport key : mKeys) {
+                ValueType type = key.getDominantType();
+                if (key.mGets > 0 && type != null) {
+                    types.put(key.mKey, type);
+                }
+            }
+            return types;
+        }
+
+        /**
+         * Returns keys which are written but were never read.
+         *
+         * @return keys suggested to drop
+         */
+        public List<String> getKeysToDrop() {
+            List<String> drop = new ArrayList<>();
+            for (KeyReport key : mKeys) {
+                if (key.mGets == 0 && key.mPuts > 0) {
+                    drop.add(key.mKey);
+                }
+            }
+            Collections.sort(drop);
+            return drop;
+        }
+
+        /**
+         * Returns report as Bundle, e.g. to store or send it. Bundle has keys "sampleRate",
+         * "keyOrder", "types" mapping keys to type names, "drop" and "keys" with Bundle
+         * of counts per key.
+         *
+         * @return new Bundle
+         */
+        public Bundle toBundle() {
+            Bundle b = new Bundle();
+            b.putInt("sampleRate", mSampleRate);
+            b.putLong("untracked", mUntracked);
+            List<String> order = getKeyOrder();
+            b.putStringArray("keyOrder", order.toArray(new String[order.size()]));
+            Bundle types = new Bundle();
+            for (Map.Entry<String, ValueType> e : getSuggestedTypes().entrySet()) {
+                types.putString(e.getKey(), e.getValue().name());
+            }
+            b.put("types", types);
+            List<String> drop = getKeysToDrop();
+            b.putStringArray("drop", drop.toArray(new String[drop.size()]));
+            Bundle keys = new Bundle();
+            for (KeyReport key : mKeys) {
+                Bundle k = new Bundle();
+                k.putLong("gets", key.mGets);
+                k.putLong("puts", key.mPuts);
+                Bundle written = new Bundle();
+                for (Map.Entry<ValueType, Long> e : key.mTypes.entrySet()) {
+                    written.putLong(e.getKey().name(), e.getValue());
+                }
+                k.put("types", written);
+                k.putLong("mismatches", key.mMismatches);
+                Bundle sites = new Bundle();
+                for (Map.Entry<String, Long> e : key.mSites.entrySet()) {
+                    sites.putLong(e.getKey(), e.getValue());
+                }
+                k.put("sites", sites);
+                keys.put(key.mKey, k);
+            }
+            b.put("keys", keys);
+            return b;
+        }
+
+        /**
+         * Returns report as text, with one line per key and suggested schema at the end.
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Bundle profile, 1 of ").append(mSampleRate).append(" accesses sampled\n");
+            sb.append(String.format("%-32s %12s %12s %-14s %10s%n", "key", "gets", "puts", "type", "mismatches"));
+            for (KeyReport key : mKeys) {
+                ValueType type = key.getDominantType();
+                sb.append(String.format("%-32s %12d %12d %-14s %10d%n", key.mKey, key.mGets, key.mPuts,
+                        type == null ? "-" : type.name(), key.mMismatches));
+                for (Map.Entry<String, Long> e : key.mSites.entrySet()) {
+                    sb.append("    ").append(e.getValue()).append(" x ").append(e.getKey()).append('\n');
+                }
+            }
+            if (mUntracked > 0) {
+                sb.append("untracked accesses: ").append(mUntracked).append('\n');
+            }
+            sb.append("suggested schema: ").append(getSuggestedTypes()).append('\n');
+            sb.append("keys to drop: ").append(getKeysToDrop()).append('\n');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package net.virtalab.commons;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread-safe store of Bundles keyed by entity id.
+ * <p>
+ * Entities are spread over partitions, by default one per available processor. Each partition
+ * has one writer at a time, writers of different partitions do not contend. Bundles are stored
+ * as read-only versions: an update copies current version, changes the copy and publishes it,
+ * so readers never block and always see complete result of an update. Updates of one entity are
+ * serialized and none of them is lost.
+ * <p>
+ * Arrays read from stored Bundles are shared by versions and must not be modified.
+ *
+ * @since 1.0
+ */
+public final class BundleStore {
+
+    /**
+     * Receives entities of the store.
+     */
+    public interface Visitor {
+        /**
+         * Called for each entity.
+         *
+         * @param id     id of entity
+         * @param bundle read-only version of entity
+         */
+        void visit(String id, Bundle bundle);
+    }
+
+    private final Partition[] mPartitions;
+    private final int mMask;
+
+    /**
+     * Creates store with one partition per available processor.
+     */
+    public BundleStore() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates store with given number of partitions, rounded up to power of two.
+     *
+     * @param partitions number of partitions, positive
+     */
+    public BundleStore(int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("Number of partitions must be positive");
+        }
+        int n = partitions == 1 ? 1 : Integer.highestOneBit(partitions - 1) << 1;
+        mPartitions = new Partition[n];
+        for (int i = 0; i < n; i++) {
+            mPartitions[i] = new Partition();
+        }
+        mMask = n - 1;
+    }
+
+    /**
+     * Returns current version of entity. Does not block.
+     *
+     * @param id id of entity, not null
+     * @return read-only Bundle, or null if there is no such entity
+     */
+    public Bundle get(String id) {
+        return partition(id).mEntities.get(id);
+    }
+
+    /**
+     * Atomically changes Bundle of entity, creating it if it does not exist.
+     *
+     * @param id      id of entity, not null
+     * @param updater changes the Bundle
+     * @return new read-only version of entity
+     */
+    public Bundle update(String id, BundleUpdater updater) {
+        Partition partition = partition(id);
+        partition.mWriteLock.lock();
+        try {
+            Bundle current = partition.mEntities.get(id);
+            Bundle next = current == null ? new Bundle() : new Bundle(current, false);
+            updater.update(next);
+            next.freeze();
+            partition.mEntities.put(id, next);
+            return next;
+        } finally {
+            partition.mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Stores copy of given Bundle as new version of entity.
+     *
+     * @param id     id of entity, not null
+     * @param bundle a Bundle
+     * @return stored read-only version
+     */
+    public Bundle put(String id, Bundle bundle) {
+        Bundle version = new Bundle(bundle, false);
+        version.freeze();
+        Partition partition = partition(id);
+        partition.mWriteLock.lock();
+        try {
+            partition.mEntities.put(id, version);
+            return version;
+        } finally {
+            partition.mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Removes entity.
+     *
+     * @param id id of entity, not null
+     * @return last version of entity, or null if there was no such entity
+     */
+    public Bundle remove(String id) {
+        Partition partition = partition(id);
+        partition.mWriteLock.lock();
+        try {
+            return partition.mEntities.remove(id);
+        } finally {
+            partition.mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Returns number of entities.
+     *
+     * @return number of entities
+     */
+    public int size() {
+        int size = 0;
+        for (Partition partition : mPartitions) {
+            size += partition.mEntities.size();
+        }
+        return size;
+    }
+
+    /**
+     * Visits all entities without blocking writers. Each entity is visited once,
+     * in version current at the time it is reached. Entities added or removed
+     * during the scan may or may not be visited.
+     *
+     * @param visitor a visitor
+     */
+    public void forEach(Visitor visitor) {
+        for (Partition partition : mPartitions) {
+            for (Map.Entry<String, Bundle> e : partition.mEntities.entrySet()) {
+                visitor.visit(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns copy of the store made as by {@link #forEach(Visitor)}. Bundles are not copied,
+     * as stored versions never change.
+     *
+     * @return map of entity ids to read-only Bundles
+     */
+    public Map<String, Bundle> snapshot() {
+        final Map<String, Bundle> snapshot = new HashMap<>(size() * 4 / 3 + 1);
+        forEach(new Visitor() {
+            @Override
+            public void visit(String id, Bundle bundle) {
+                snapshot.put(id, bundle);
+            }
+        });
+        return snapshot;
+    }
+
+    private Partition partition(String id) {
+        int h = id.hashCode();
+        return mPartitions[(h ^ (h >>> 16)) & mMask];
+    }
+
+    private static final class Partition {
+        final ReentrantLock mWriteLock = new ReentrantLock();
+        final ConcurrentHashMap<String, Bundle> mEntities = new ConcurrentHashMap<>();
+    }
+}
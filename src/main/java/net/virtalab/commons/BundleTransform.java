@@ -0,0 +1,339 @@
+package net.virtalab.commons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable pipeline deriving a Bundle from another Bundle by renaming, dropping,
+ * keeping and converting entries.
+ * <p>
+ * Steps are compiled once, when the transform is built, into a plan which maps each
+ * affected input key to its output key and converters. Applying the transform then makes
+ * single pass over the input into output Bundle sized for the result, regardless of
+ * the number of steps. Transform is thread-safe and can be reused for any number of Bundles.
+ * <p>
+ * Steps are applied in order they were added. Renaming onto a key replaces that key, even when
+ * renamed key is missing in the input Bundle.
+ *
+ * @since 1.0
+ */
+public final class BundleTransform {
+
+    /**
+     * Converts value of an entry.
+     */
+    public interface Converter {
+        /**
+         * Returns converted value.
+         *
+         * @param value value of entry, or null
+         * @return converted value, or null
+         */
+        Object convert(Object value);
+    }
+
+    /**
+     * Parses String as int. Other values are left as they are.
+     *
+     * @throws NumberFormatException from {@link #apply(Bundle)} if String is not a number
+     */
+    public static final Converter TO_INT = new Converter() {
+        @Override
+        public Object convert(Object value) {
+            return value instanceof String ? Integer.parseInt(((String) value).trim()) : value;
+        }
+    };
+
+    /**
+     * Parses String as long. Other values are left as they are.
+     *
+     * @throws NumberFormatException from {@link #apply(Bundle)} if String is not a number
+     */
+    public static final Converter TO_LONG = new Converter() {
+        @Override
+        public Object convert(Object value) {
+            return value instanceof String ? Long.parseLong(((String) value).trim()) : value;
+        }
+    };
+
+    /**
+     * Parses String as double. Other values are left as they are.
+     *
+     * @throws NumberFormatException from {@link #apply(Bundle)} if String is not a number
+     */
+    public static final Converter TO_DOUBLE = new Converter() {
+        @Override
+        public Object convert(Object value) {
+            return value instanceof String ? Double.parseDouble((String) value) : value;
+        }
+    };
+
+    /**
+     * Parses String as boolean, as {@link Boolean#parseBoolean(String)} does.
+     * Other values are left as they are.
+     */
+    public static final Converter TO_BOOLEAN = new Converter() {
+        @Override
+        public Object convert(Object value) {
+            return value instanceof String ? Boolean.parseBoolean(((String) value).trim()) : value;
+        }
+    };
+
+    /**
+     * Converts non-null value to String with {@link String#valueOf(Object)}.
+     */
+    public static final Converter TO_STRING = new Converter() {
+        @Override
+        public Object convert(Object value) {
+            return value == null ? null : String.valueOf(value);
+        }
+    };
+
+    private static final Converter[] NO_CONVERTERS = {};
+
+    private final List<Step> mSteps;
+    // compiled plan
+    private final Rule[] mRules;
+    private final boolean mPassThrough;
+    private final Set<String> mHandled;
+
+    private BundleTransform(List<Step> steps) {
+        this.mSteps = steps;
+        Map<String, Rule> tracked = new LinkedHashMap<>();
+        Set<String> handled = new HashSet<>();
+        boolean passThrough = true;
+        for (Step step : steps) {
+            switch (step.mType) {
+                case RENAME: {
+                    Rule rule = take(tracked, handled, passThrough, step.mKey);
+                    if (rule != null) {
+                        tracked.remove(step.mTarget);
+                        handled.add(step.mTarget);
+                        tracked.put(step.mTarget, rule);
+                    }
+                    break;
+                }
+                case DROP:
+                    tracked.remove(step.mKey);
+                    handled.add(step.mKey);
+                    break;
+                case KEEP: {
+                    Map<String, Rule> kept = new LinkedHashMap<>();
+                    for (String key : step.mKeys) {
+                        Rule rule = take(tracked, handled, passThrough, key);
+                        if (rule != null) {
+                            kept.put(key, rule);
+                        }
+                    }
+                    tracked = kept;
+                    passThrough = false;
+                    break;
+                }
+                case CONVERT: {
+                    Rule rule = take(tracked, handled, passThrough, step.mKey);
+                    if (rule != null) {
+                        rule.mConverters.add(step.mConverter);
+                        tracked.put(step.mKey, rule);
+                    }
+                    break;
+                }
+                default:
+                    throw new AssertionError(step.mType);
+            }
+        }
+        mRules = new Rule[tracked.size()];
+        int i = 0;
+        for (Map.Entry<String, Rule> e : tracked.entrySet()) {
+            Rule rule = e.getValue();
+            rule.mTarget = e.getKey();
+            rule.mCompiled = rule.mConverters.toArray(NO_CONVERTERS);
+            mRules[i++] = rule;
+        }
+        mPassThrough = passThrough;
+        mHandled = handled;
+    }
+
+    // removes rule of entry currently named by key, or creates one if entry comes from input as is
+    private static Rule take(Map<String, Rule> tracked, Set<String> handled, boolean passThrough, String key) {
+        Rule rule = tracked.remove(key);
+        if (rule == null && passThrough && handled.add(key)) {
+            rule = new Rule(key);
+        }
+        return rule;
+    }
+
+    /**
+     * Returns builder of new transform.
+     *
+     * @return empty builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates Bundle with transformed entries of given Bundle. Output Bundle has the same
+     * settings as input, values which are not converted are copied in their stored form.
+     *
+     * @param input a Bundle
+     * @return new Bundle
+     */
+    public Bundle apply(Bundle input) {
+        Map<String, Object> entries = input.storage();
+        Bundle output = input.emptyCopy(mPassThrough ? entries.size() : mRules.length);
+        if (mPassThrough) {
+            Set<String> handled = mHandled;
+            for (Map.Entry<String, Object> e : entries.entrySet()) {
+                if (!handled.contains(e.getKey())) {
+                    output.store(e.getKey(), e.getValue());
+                }
+            }
+        }
+        for (Rule rule : mRules) {
+            String source = rule.mSource;
+            Object value = entries.get(source);
+            if (value == null && !entries.containsKey(source)) {
+                continue;
+            }
+            Converter[] converters = rule.mCompiled;
+            if (converters.length > 0) {
+                value = input.get(source);
+                for (Converter converter : converters) {
+                    value = converter.convert(value);
+                }
+            }
+            output.store(rule.mTarget, value);
+        }
+        return output;
+    }
+
+    /**
+     * Returns transform applying steps of this transform followed by steps of given one,
+     * in single pass.
+     *
+     * @param next a transform
+     * @return combined transform
+     */
+    public BundleTransform andThen(BundleTransform next) {
+        List<Step> steps = new ArrayList<>(mSteps.size() + next.mSteps.size());
+        steps.addAll(mSteps);
+        steps.addAll(next.mSteps);
+        return new BundleTransform(Collections.unmodifiableList(steps));
+    }
+
+    /**
+     * Collects steps of transform.
+     */
+    public static final class Builder {
+
+        private final List<Step> mSteps = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Renames entry. Existing entry with new key is replaced.
+         *
+         * @param from current key
+         * @param to   new key
+         * @return this builder
+         */
+        public Builder rename(String from, String to) {
+            if (!equal(from, to)) {
+                mSteps.add(new Step(StepType.RENAME, from, to, null, null));
+            }
+            return this;
+        }
+
+        /**
+         * Removes entries with given keys.
+         *
+         * @param keys keys to remove
+         * @return this builder
+         */
+        public Builder drop(String... keys) {
+            for (String key : keys) {
+                mSteps.add(new Step(StepType.DROP, key, null, null, null));
+            }
+            return this;
+        }
+
+        /**
+         * Removes all entries except those with given keys.
+         *
+         * @param keys keys to keep
+         * @return this builder
+         */
+        public Builder keep(String... keys) {
+            mSteps.add(new Step(StepType.KEEP, null, null, Arrays.asList(keys.clone()), null));
+            return this;
+        }
+
+        /**
+         * Converts value of entry. Converter is not called when entry is missing.
+         *
+         * @param key       key of entry
+         * @param converter a converter
+         * @return this builder
+         */
+        public Builder convert(String key, Converter converter) {
+            if (converter == null) {
+                throw new IllegalArgumentException("Converter cannot be null");
+            }
+            mSteps.add(new Step(StepType.CONVERT, key, null, null, converter));
+            return this;
+        }
+
+        /**
+         * Compiles collected steps. Builder can be used further, changes do not affect
+         * transforms already built.
+         *
+         * @return new transform
+         */
+        public BundleTransform build() {
+            return new BundleTransform(Collections.unmodifiableList(new ArrayList<>(mSteps)));
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private enum StepType {
+        RENAME, DROP, KEEP, CONVERT
+    }
+
+    private static final class Step {
+        final StepType mType;
+        final String mKey;
+        final String mTarget;
+        final List<String> mKeys;
+        final Converter mConverter;
+
+        Step(StepType type, String key, String target, List<String> keys, Converter converter) {
+            this.mType = type;
+            this.mKey = key;
+            this.mTarget = target;
+            this.mKeys = keys;
+            this.mConverter = converter;
+        }
+    }
+
+    // how single input entry gets to output
+    private static final class Rule {
+        final String mSource;
+        final List<Converter> mConverters = new ArrayList<>();
+        String mTarget;
+        Converter[] mCompiled;
+
+        Rule(String source) {
+            this.mSource = source;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package net.virtalab.commons;
+
+/**
+ * Changes a {@link Bundle} within an atomic update, e.g. of {@link BundleStore},
+ * {@link IndexedBundles} or {@link VersionedBundle}.
+ *
+ * @since 1.0
+ */
+public interface BundleUpdater {
+
+    /**
+     * Changes given Bundle. Changes are published after method returns.
+     * When method throws, current version is kept.
+     *
+     * @param bundle writable copy of current version, or empty Bundle if there is none
+     */
+    void update(Bundle bundle);
+}
@@ -0,0 +1,110 @@
+package net.virtalab.commons;
+
+import java.util.Arrays;
+
+/**
+ * Content based equality and hashing of values stored in {@link Bundle}.
+ * Arrays are compared by elements.
+ *
+ * @since 1.0
+ */
+final class BundleValues {
+
+    private BundleValues() {
+    }
+
+    static boolean equals(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof Bundle) {
+            return b instanceof Bundle && ((Bundle) a).contentEquals((Bundle) b);
+        }
+        if (!a.getClass().isArray()) {
+            return a.equals(b);
+        }
+        if (a instanceof Object[] && b instanceof Object[]) {
+            return Arrays.deepEquals((Object[]) a, (Object[]) b);
+        }
+        if (a.getClass() != b.getClass()) {
+            return false;
+        }
+        if (a instanceof int[]) {
+            return Arrays.equals((int[]) a, (int[]) b);
+        } else if (a instanceof long[]) {
+            return Arrays.equals((long[]) a, (long[]) b);
+        } else if (a instanceof double[]) {
+            return Arrays.equals((double[]) a, (double[]) b);
+        } else if (a instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        } else if (a instanceof float[]) {
+            return Arrays.equals((float[]) a, (float[]) b);
+        } else if (a instanceof short[]) {
+            return Arrays.equals((short[]) a, (short[]) b);
+        } else if (a instanceof char[]) {
+            return Arrays.equals((char[]) a, (char[]) b);
+        } else {
+            return Arrays.equals((boolean[]) a, (boolean[]) b);
+        }
+    }
+
+    static int hashCode(Object o) {
+        if (o == null) {
+            return 0;
+        }
+        if (o instanceof Bundle) {
+            return ((Bundle) o).contentHashCode();
+        }
+        if (!o.getClass().isArray()) {
+            return o.hashCode();
+        }
+        if (o instanceof Object[]) {
+            return Arrays.deepHashCode((Object[]) o);
+        } else if (o instanceof int[]) {
+            return Arrays.hashCode((int[]) o);
+        } else if (o instanceof long[]) {
+            return Arrays.hashCode((long[]) o);
+        } else if (o instanceof double[]) {
+            return Arrays.hashCode((double[]) o);
+        } else if (o instanceof byte[]) {
+            return Arrays.hashCode((byte[]) o);
+        } else if (o instanceof float[]) {
+            return Arrays.hashCode((float[]) o);
+        } else if (o instanceof short[]) {
+            return Arrays.hashCode((short[]) o);
+        } else if (o instanceof char[]) {
+            return Arrays.hashCode((char[]) o);
+        } else {
+            return Arrays.hashCode((boolean[]) o);
+        }
+    }
+
+    // returns copy of array, other values are returned as they are
+    static Object copyArray(Object o) {
+        if (o == null || !o.getClass().isArray()) {
+            return o;
+        }
+        if (o instanceof Object[]) {
+            return ((Object[]) o).clone();
+        } else if (o instanceof int[]) {
+            return ((int[]) o).clone();
+        } else if (o instanceof long[]) {
+            return ((long[]) o).clone();
+        } else if (o instanceof double[]) {
+            return ((double[]) o).clone();
+        } else if (o instanceof byte[]) {
+            return ((byte[]) o).clone();
+        } else if (o instanceof float[]) {
+            return ((float[]) o).clone();
+        } else if (o instanceof short[]) {
+            return ((short[]) o).clone();
+        } else if (o instanceof char[]) {
+            return ((char[]) o).clone();
+        } else {
+            return ((boolean[]) o).clone();
+        }
+    }
+}
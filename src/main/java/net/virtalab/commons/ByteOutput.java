@@ -0,0 +1,91 @@
+package net.virtalab.commons;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Growable big-endian output buffer used by {@link BundleCodec}.
+ *
+ * @since 1.0
+ */
+final class ByteOutput {
+
+    private ByteBuffer mBuffer;
+
+    ByteOutput(int initialCapacity) {
+        this.mBuffer = ByteBuffer.allocate(Math.max(initialCapacity, 16));
+    }
+
+    ByteBuffer ensure(int bytes) {
+        if (mBuffer.remaining() < bytes) {
+            long needed = (long) mBuffer.position() + bytes;
+            long capacity = Math.max(needed, (long) mBuffer.capacity() * 2);
+            if (capacity > Integer.MAX_VALUE - 8) {
+                if (needed > Integer.MAX_VALUE - 8) {
+                    throw new IllegalArgumentException("Encoded data exceeds max array size");
+                }
+                capacity = Integer.MAX_VALUE - 8;
+            }
+            ByteBuffer grown = ByteBuffer.allocate((int) capacity);
+            mBuffer.flip();
+            grown.put(mBuffer);
+            mBuffer = grown;
+        }
+        return mBuffer;
+    }
+
+    void writeByte(int v) {
+        ensure(1).put((byte) v);
+    }
+
+    void writeInt(int v) {
+        ensure(4).putInt(v);
+    }
+
+    void writeLong(long v) {
+        ensure(8).putLong(v);
+    }
+
+    void writeBytes(byte[] bytes) {
+        ensure(bytes.length).put(bytes);
+    }
+
+    void writeBytes(byte[] bytes, int offset, int length) {
+        ensure(length).put(bytes, offset, length);
+    }
+
+    // length prefixed UTF-8, -1 length for null
+    void writeString(String s) {
+        if (s == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        writeBytes(bytes);
+    }
+
+    // overwrites int written earlier, e.g. count known only after its items are written
+    void writeIntAt(int position, int v) {
+        mBuffer.putInt(position, v);
+    }
+
+    int position() {
+        return mBuffer.position();
+    }
+
+    /**
+     * Returns buffer with written bytes between position 0 and limit.
+     */
+    ByteBuffer toBuffer() {
+        ByteBuffer out = mBuffer.duplicate();
+        out.flip();
+        return out;
+    }
+
+    byte[] toByteArray() {
+        byte[] out = new byte[mBuffer.position()];
+        System.arraycopy(mBuffer.array(), 0, out, 0, out.length);
+        return out;
+    }
+}
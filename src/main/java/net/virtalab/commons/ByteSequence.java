@@ -0,0 +1,126 @@
+package net.virtalab.commons;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only sequence of bytes backed by a byte array stored in a {@link Bundle}.
+ * Sequence does not copy the bytes, so it reflects changes made to the array by its owner.
+ *
+ * @since 1.0
+ */
+public final class ByteSequence {
+
+    private final byte[] mArray;
+    private final int mOffset;
+    private final int mLength;
+
+    private ByteSequence(byte[] array, int offset, int length) {
+        this.mArray = array;
+        this.mOffset = offset;
+        this.mLength = length;
+    }
+
+    static ByteSequence of(byte[] array) {
+        return array == null ? null : new ByteSequence(array, 0, array.length);
+    }
+
+    static ByteSequence of(byte[] array, int offset, int length) {
+        return new ByteSequence(array, offset, length);
+    }
+
+    /**
+     * Returns number of bytes.
+     *
+     * @return length of sequence
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * Returns byte at given index.
+     *
+     * @param index index of byte
+     * @return the byte
+     * @throws IndexOutOfBoundsException if index is out of range
+     */
+    public byte byteAt(int index) {
+        if (index < 0 || index >= mLength) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range " + mLength);
+        }
+        return mArray[mOffset + index];
+    }
+
+    /**
+     * Returns part of this sequence without copying bytes.
+     *
+     * @param start index of first byte, inclusive
+     * @param end   index of last byte, exclusive
+     * @return subsequence
+     * @throws IndexOutOfBoundsException if start or end is out of range
+     */
+    public ByteSequence subSequence(int start, int end) {
+        if (start < 0 || end > mLength || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " out of range " + mLength);
+        }
+        return new ByteSequence(mArray, mOffset + start, end - start);
+    }
+
+    /**
+     * Copies bytes to given array.
+     *
+     * @param srcPos  index of first byte to copy
+     * @param dest    destination array
+     * @param destPos index in destination array
+     * @param length  number of bytes to copy
+     */
+    public void copyTo(int srcPos, byte[] dest, int destPos, int length) {
+        if (srcPos < 0 || length < 0 || srcPos + length > mLength) {
+            throw new IndexOutOfBoundsException("Range " + srcPos + "+" + length + " out of range " + mLength);
+        }
+        System.arraycopy(mArray, mOffset + srcPos, dest, destPos, length);
+    }
+
+    /**
+     * Returns copy of bytes.
+     *
+     * @return new array with all bytes
+     */
+    public byte[] toArray() {
+        byte[] copy = new byte[mLength];
+        System.arraycopy(mArray, mOffset, copy, 0, mLength);
+        return copy;
+    }
+
+    /**
+     * Returns read-only buffer over the bytes, e.g. to write them to a channel without copying.
+     *
+     * @return read-only buffer positioned at first byte
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        return ByteBuffer.wrap(mArray, mOffset, mLength).slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ByteSequence)) {
+            return false;
+        }
+        ByteSequence other = (ByteSequence) o;
+        return other.mLength == mLength && ByteWords.equals(mArray, mOffset, other.mArray, other.mOffset, mLength);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = mOffset; i < mOffset + mLength; i++) {
+            h = 31 * h + mArray[i];
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteSequence[length=" + mLength + "]";
+    }
+}
@@ -0,0 +1,48 @@
+package net.virtalab.commons;
+
+/**
+ * Word-wise reads and comparisons of byte arrays.
+ * <p>
+ * This is the Java 8 implementation, which assembles words byte by byte. Multi-release JAR
+ * contains implementation for Java 17+ which reads whole word at once and compares ranges
+ * with vectorized {@link java.util.Arrays} intrinsics, neither of which Java 8 provides.
+ *
+ * @since 1.0
+ */
+final class ByteWords {
+
+    private ByteWords() {
+    }
+
+    /**
+     * Returns 8 bytes starting at given index as little-endian long.
+     */
+    static long getLongLE(byte[] b, int i) {
+        return (b[i] & 0xFFL)
+                | (b[i + 1] & 0xFFL) << 8
+                | (b[i + 2] & 0xFFL) << 16
+                | (b[i + 3] & 0xFFL) << 24
+                | (b[i + 4] & 0xFFL) << 32
+                | (b[i + 5] & 0xFFL) << 40
+                | (b[i + 6] & 0xFFL) << 48
+                | (b[i + 7] & 0xFFL) << 56;
+    }
+
+    /**
+     * Returns true if length bytes of a starting at aFrom equal those of b starting at bFrom.
+     */
+    static boolean equals(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        int i = 0;
+        for (; i <= length - 8; i += 8) {
+            if (getLongLE(a, aFrom + i) != getLongLE(b, bFrom + i)) {
+                return false;
+            }
+        }
+        for (; i < length; i++) {
+            if (a[aFrom + i] != b[bFrom + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
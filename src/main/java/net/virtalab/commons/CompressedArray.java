@@ -0,0 +1,259 @@
+package net.virtalab.commons;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Primitive array kept in a {@link Bundle} in compressed form. It is decompressed
+ * on every read, so each getter call returns a new array.
+ *
+ * @see ArrayCompression
+ * @since 1.0
+ */
+abstract class CompressedArray extends StoredValue {
+
+    final byte[] mData;
+    final int mLength;
+
+    CompressedArray(byte[] data, int length) {
+        this.mData = data;
+        this.mLength = length;
+    }
+
+    /**
+     * Returns number of bytes used by compressed data.
+     *
+     * @return size of compressed data in bytes
+     */
+    int compressedSize() {
+        return mData.length;
+    }
+
+    @Override
+    long estimateRetainedBytes() {
+        return RetainedSize.OBJECT_HEADER + 16 + RetainedSize.arrayBytes(mData.length, 1);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[length=" + mLength + ", compressed=" + mData.length + "]";
+    }
+
+    static final class Longs extends CompressedArray {
+        Longs(long[] values) {
+            super(ArrayCompression.encodeLongs(values), values.length);
+        }
+
+        Longs(byte[] data, int length) {
+            super(data, length);
+        }
+
+        @Override
+        ValueType type() {
+            return ValueType.LONG_ARRAY;
+        }
+
+        @Override
+        long[] resolve() {
+            long[] out = new long[mLength];
+            ArrayCompression.VarintDecoder decoder = new ArrayCompression.VarintDecoder(mData);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = decoder.nextLong();
+            }
+            return out;
+        }
+
+        LongIterator iterator() {
+            final ArrayCompression.VarintDecoder decoder = new ArrayCompression.VarintDecoder(mData);
+            return new LongIterator() {
+                private int mIndex;
+
+                @Override
+                public boolean hasNext() {
+                    return mIndex < mLength;
+                }
+
+                @Override
+                public long nextLong() {
+                    if (mIndex >= mLength) {
+                        throw new NoSuchElementException();
+                    }
+                    mIndex++;
+                    return decoder.nextLong();
+                }
+            };
+        }
+    }
+
+    static final class Ints extends CompressedArray {
+        Ints(int[] values) {
+            super(ArrayCompression.encodeInts(values), values.length);
+        }
+
+        Ints(byte[] data, int length) {
+            super(data, length);
+        }
+
+        @Override
+        ValueType type() {
+            return ValueType.INT_ARRAY;
+        }
+
+        @Override
+        int[] resolve() {
+            int[] out = new int[mLength];
+            ArrayCompression.VarintDecoder decoder = new ArrayCompression.VarintDecoder(mData);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = decoder.nextInt();
+            }
+            return out;
+        }
+
+        IntIterator iterator() {
+            final ArrayCompression.VarintDecoder decoder = new ArrayCompression.VarintDecoder(mData);
+            return new IntIterator() {
+                private int mIndex;
+
+                @Override
+                public boolean hasNext() {
+                    return mIndex < mLength;
+                }
+
+                @Override
+                public int nextInt() {
+                    if (mIndex >= mLength) {
+                        throw new NoSuchElementException();
+                    }
+                    mIndex++;
+                    return decoder.nextInt();
+                }
+            };
+        }
+    }
+
+    static final class Doubles extends CompressedArray {
+        Doubles(double[] values) {
+            super(ArrayCompression.encodeDoubles(values), values.length);
+        }
+
+        Doubles(byte[] data, int length) {
+            super(data, length);
+        }
+
+        @Override
+        ValueType type() {
+            return ValueType.DOUBLE_ARRAY;
+        }
+
+        @Override
+        double[] resolve() {
+            double[] out = new double[mLength];
+            ArrayCompression.XorDecoder decoder = new ArrayCompression.XorDecoder(mData);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = decoder.nextDouble();
+            }
+            return out;
+        }
+
+        DoubleIterator iterator() {
+            final ArrayCompression.XorDecoder decoder = new ArrayCompression.XorDecoder(mData);
+            return new DoubleIterator() {
+                private int mIndex;
+
+                @Override
+                public boolean hasNext() {
+                    return mIndex < mLength;
+                }
+
+                @Override
+                public double nextDouble() {
+                    if (mIndex >= mLength) {
+                        throw new NoSuchElementException();
+                    }
+                    mIndex++;
+                    return decoder.nextDouble();
+                }
+            };
+        }
+    }
+
+    static final class Booleans extends CompressedArray {
+        Booleans(boolean[] values) {
+            super(ArrayCompression.encodeBooleans(values), values.length);
+        }
+
+        Booleans(byte[] data, int length) {
+            super(data, length);
+        }
+
+        @Override
+        ValueType type() {
+            return ValueType.BOOLEAN_ARRAY;
+        }
+
+        @Override
+        boolean[] resolve() {
+            boolean[] out = new boolean[mLength];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = ArrayCompression.decodeBoolean(mData, i);
+            }
+            return out;
+        }
+    }
+
+    static LongIterator iterator(final long[] values) {
+        return new LongIterator() {
+            private int mIndex;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < values.length;
+            }
+
+            @Override
+            public long nextLong() {
+                if (mIndex >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return values[mIndex++];
+            }
+        };
+    }
+
+    static IntIterator iterator(final int[] values) {
+        return new IntIterator() {
+            private int mIndex;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < values.length;
+            }
+
+            @Override
+            public int nextInt() {
+                if (mIndex >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return values[mIndex++];
+            }
+        };
+    }
+
+    static DoubleIterator iterator(final double[] values) {
+        return new DoubleIterator() {
+            private int mIndex;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < values.length;
+            }
+
+            @Override
+            public double nextDouble() {
+                if (mIndex >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return values[mIndex++];
+            }
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package net.virtalab.commons;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter updated by many threads and read rarely, e.g. statistics. Updates are spread
+ * over cells when threads contend, so they do not contend on single memory location.
+ *
+ * @since 1.0
+ */
+final class Counter {
+
+    private final LongAdder mValue = new LongAdder();
+
+    void increment() {
+        mValue.increment();
+    }
+
+    void add(long delta) {
+        mValue.add(delta);
+    }
+
+    long get() {
+        return mValue.sum();
+    }
+}
@@ -0,0 +1,24 @@
+package net.virtalab.commons;
+
+/**
+ * Iterator over double values, which does not box elements.
+ *
+ * @since 1.0
+ */
+public interface DoubleIterator {
+
+    /**
+     * Returns true if iteration has more elements.
+     *
+     * @return true if {@link #nextDouble()} will return element
+     */
+    boolean hasNext();
+
+    /**
+     * Returns next element.
+     *
+     * @return next double value
+     * @throws java.util.NoSuchElementException if there are no more elements
+     */
+    double nextDouble();
+}
@@ -0,0 +1,735 @@
+package net.virtalab.commons;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Thread-safe Bundle whose changes survive crash of the process or machine.
+ * <p>
+ * Every change is appended as a typed record to a log before the changing method returns.
+ * Changes made by concurrent threads are written and forced to disk together (group commit),
+ * so one disk flush makes durable all changes which arrived while previous flush was running.
+ * When log grows over the compaction threshold, current content is written as a snapshot
+ * in {@link BundleCodec} layout and older log segments are deleted. Opening replays log written
+ * after the newest snapshot. Incomplete record at the end of log, left by a crash during
+ * write, is discarded.
+ * <p>
+ * Directory contains files {@code snapshot.N} and {@code log.N}, snapshot N holds everything
+ * written to logs before N. Directory must not be used by more DurableBundles at once.
+ * <p>
+ * Once writing of log fails, the change which failed and all further changes throw
+ * {@link IOException}, as it is not known which changes reached the disk.
+ *
+ * @since 1.0
+ */
+public final class DurableBundle implements Closeable {
+
+    /**
+     * Log size over which log is compacted into snapshot, 64 MB.
+     */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 64L << 20;
+
+    private static final String SNAPSHOT = "snapshot.";
+    private static final String LOG = "log.";
+
+    private static final int OP_PUT = 1;
+    private static final int OP_REMOVE = 2;
+    private static final int OP_CLEAR = 3;
+    private static final int OP_PUT_ALL = 4;
+
+    // length and checksum of record payload
+    private static final int RECORD_HEADER = 8;
+
+    private final Path mDir;
+    private final long mCompactionThreshold;
+    private final Bundle mState;
+
+    // guarded by this
+    private FileChannel mLog;
+    private long mGeneration;
+    private long mLogSize;
+    private ByteOutput mPending = new ByteOutput(4096);
+    // bytes appended to pending log and bytes forced to disk since opening
+    private long mAppended;
+    private long mDurable;
+    private boolean mFlushing;
+    private boolean mCompacting;
+    private IOException mFailure;
+    private boolean mClosed;
+
+    private DurableBundle(Path dir, long compactionThreshold, Bundle state, FileChannel log, long generation)
+            throws IOException {
+        this.mDir = dir;
+        this.mCompactionThreshold = compactionThreshold;
+        this.mState = state;
+        this.mLog = log;
+        this.mGeneration = generation;
+        this.mLogSize = log.position();
+    }
+
+    /**
+     * Opens durable Bundle stored in directory with default compaction threshold,
+     * creating the directory if needed.
+     *
+     * @param dir a directory
+     * @return recovered Bundle
+     * @throws IOException if directory cannot be read or contains corrupted data
+     */
+    public static DurableBundle open(Path dir) throws IOException {
+        return open(dir, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens durable Bundle stored in directory, creating the directory if needed.
+     *
+     * @param dir                 a directory
+     * @param compactionThreshold size of log in bytes over which log is compacted
+     * @return recovered Bundle
+     * @throws IOException if directory cannot be read or contains corrupted data
+     */
+    public static DurableBundle open(Path dir, long compactionThreshold) throws IOException {
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException("Compaction threshold must be positive");
+        }
+        Files.createDirectories(dir);
+        List<Long> snapshots = new ArrayList<>();
+        List<Long> logs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SNAPSHOT)) {
+                    addGeneration(snapshots, name.substring(SNAPSHOT.length()));
+                } else if (name.startsWith(LOG)) {
+                    addGeneration(logs, name.substring(LOG.length()));
+                }
+            }
+        }
+        Collections.sort(snapshots);
+        Collections.sort(logs);
+
+        Bundle state;
+        long generation = 0;
+        if (snapshots.isEmpty()) {
+            state = new Bundle();
+        } else {
+            generation = snapshots.get(snapshots.size() - 1);
+            byte[] data = Files.readAllBytes(dir.resolve(SNAPSHOT + generation));
+            try {
+                state = BundleCodec.decode(data);
+            } catch (IOException e) {
+                throw new IOException("Cannot decode snapshot " + generation + " in " + dir, e);
+            }
+        }
+        state.setImmutableArrays(true);
+
+        FileChannel log = null;
+        long logGeneration = generation;
+        try {
+            for (int i = 0; i < logs.size(); i++) {
+                long g = logs.get(i);
+                if (g < generation) {
+                    continue;
+                }
+                if (log != null) {
+                    log.close();
+                }
+                logGeneration = g;
+                log = FileChannel.open(dir.resolve(LOG + g), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                long valid = replay(log, state);
+                if (valid < log.size()) {
+                    if (i < logs.size() - 1) {
+                        throw new StreamCorruptedException("Log " + g + " in " + dir + " is corrupted");
+                    }
+                    // torn write of last record before crash
+                    log.truncate(valid);
+                    log.force(true);
+                }
+                log.position(valid);
+            }
+            if (log == null) {
+                log = FileChannel.open(dir.resolve(LOG + logGeneration), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                syncDirectory(dir);
+            }
+            return new DurableBundle(dir, compactionThreshold, state, log, logGeneration);
+        } catch (IOException | RuntimeException e) {
+            if (log != null) {
+                log.close();
+            }
+            throw e;
+        }
+    }
+
+    private static void addGeneration(List<Long> generations, String suffix) {
+        try {
+            generations.add(Long.parseLong(suffix));
+        } catch (NumberFormatException ignored) {
+            // not our file, e.g. temporary snapshot
+        }
+    }
+
+    // applies valid records of log to state, returns size of valid part
+    private static long replay(FileChannel log, Bundle state) throws IOException {
+        long size = log.size();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Log is too large: " + size + " bytes");
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        while (data.hasRemaining() && log.read(data, data.position()) >= 0) {
+            // read whole file
+        }
+        data.flip();
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= RECORD_HEADER) {
+            int start = data.position();
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                return start;
+            }
+            crc.reset();
+            crc.update(data.array(), data.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+            ByteBuffer payload = data.slice();
+            payload.limit(length);
+            try {
+                apply(payload, state);
+            } catch (BufferUnderflowException e) {
+                throw BundleCodec.truncated(e);
+            }
+            data.position(data.position() + length);
+        }
+        return data.position();
+    }
+
+    private static void apply(ByteBuffer in, Bundle state) throws IOException {
+        int op = in.get();
+        switch (op) {
+            case OP_PUT: {
+                String key = BundleCodec.readString(in);
+                state.put(key, BundleCodec.readValue(in, 0));
+                break;
+            }
+            case OP_REMOVE:
+                state.remove(BundleCodec.readString(in));
+                break;
+            case OP_CLEAR:
+                state.clear();
+                break;
+            case OP_PUT_ALL: {
+                int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    String key = BundleCodec.readString(in);
+                    Object value = BundleCodec.readEntryValue(in, 0);
+                    if (value instanceof ExpiringValue && ((ExpiringValue) value).isExpired()) {
+                        // expired entry still replaced value put before it
+                        state.remove(key);
+                    } else {
+                        state.put(key, value);
+                    }
+                }
+                break;
+            }
+            default:
+                throw new StreamCorruptedException("Unknown log record " + op);
+        }
+    }
+
+    /**
+     * Inserts a boolean value durably, replacing any existing value for the given key.
+     *
+     * @param key   a String, or null
+     * @param value a boolean
+     * @throws IOException if change cannot be written to log
+     */
+    public void putBoolean(String key, boolean value) throws IOException {
+        put(key, (Object) value);
+    }
+
+    /**
+     * Inserts an int value durably, replacing any existing value for the given key.
+     *
+     * @param key   a String, or null
+     * @param value an int
+     * @throws IOException if change cannot be written to log
+     */
+    public void putInt(String key, int value) throws IOException {
+        put(key, (Object) value);
+    }
+
+    /**
+     * Inserts a long value durably, replacing any existing value for the given key.
+     *
+     * @param key   a String, or null
+     * @param value a long
+     * @throws IOException if change cannot be written to log
+     */
+    public void putLong(String key, long value) throws IOException {
+        put(key, (Object) value);
+    }
+
+    /**
+     * Inserts a double value durably, replacing any existing value for the given key.
+     *
+     * @param key   a String, or null
+     * @param value a double
+     * @throws IOException if change cannot be written to log
+     */
+    public void putDouble(String key, double value) throws IOException {
+        put(key, (Object) value);
+    }
+
+    /**
+     * Inserts a String value durably, replacing any existing value for the given key.
+     *
+     * @param key   a String, or null
+     * @param value a String, or null
+     * @throws IOException if change cannot be written to log
+     */
+    public void putString(String key, String value) throws IOException {
+        put(key, (Object) value);
+    }
+
+    /**
+     * Inserts a byte array value durably, replacing any existing value for the given key.
+     * Array is copied.
+     *
+     * @param key   a String, or null
+     * @param value a byte array, or null
+     * @throws IOException if change cannot be written to log
+     */
+    public void putByteArray(String key, byte[] value) throws IOException {
+        put(key, (Object) value);
+    }
+
+    /**
+     * Inserts a long array value durably, replacing any existing value for the given key.
+     * Array is copied.
+     *
+     * @param key   a String, or null
+     * @param value a long array, or null
+     * @throws IOException if change cannot be written to log
+     */
+    public void putLongArray(String key, long[] value) throws IOException {
+        put(key, (Object) value);
+    }
+
+    /**
+     * Inserts a double array value durably, replacing any existing value for the given key.
+     * Array is copied.
+     *
+     * @param key   a String, or null
+     * @param value a double array, or null
+     * @throws IOException if change cannot be written to log
+     */
+    public void putDoubleArray(String key, double[] value) throws IOException {
+        put(key, (Object) value);
+    }
+
+    /**
+     * Inserts a value durably, replacing any existing value for the given key.
+     *
+     * @param key   a String, or null
+     * @param value a value supported by {@link BundleCodec}, or null
+     * @throws IOException              if change cannot be written to log
+     * @throws IllegalArgumentException if value cannot be encoded
+     */
+    public void put(String key, Object value) throws IOException {
+        ByteOutput record = new ByteOutput(64);
+        record.writeByte(OP_PUT);
+        record.writeString(key);
+        BundleCodec.writeValue(record, key, value, 0);
+        long end;
+        synchronized (this) {
+            end = append(record);
+            mState.put(key, value);
+        }
+        commit(end);
+    }
+
+    /**
+     * Inserts all mappings from the given Bundle durably. Either all or none of them
+     * are recovered after crash. Entries put with time to live keep it, also after recovery.
+     *
+     * @param bundle a Bundle
+     * @throws IOException              if change cannot be written to log
+     * @throws IllegalArgumentException if any value cannot be encoded
+     */
+    public void putAll(Bundle bundle) throws IOException {
+        ByteOutput record = new ByteOutput(256);
+        record.writeByte(OP_PUT_ALL);
+        record.writeInt(bundle.size());
+        BundleCursor cursor = bundle.cursor();
+        while (cursor.next()) {
+            record.writeString(cursor.key());
+            BundleCodec.writeRawValue(record, cursor.key(), cursor.rawValue(), 0);
+        }
+        long end;
+        synchronized (this) {
+            end = append(record);
+            cursor.reset();
+            while (cursor.next()) {
+                Object value = cursor.rawValue();
+                // compressed arrays are immutable and entries keep time to live they are logged with,
+                // other representations are stored resolved
+                mState.put(cursor.key(), value instanceof CompressedArray || value instanceof ExpiringValue
+                        ? value : cursor.objectValue());
+            }
+        }
+        commit(end);
+    }
+
+    /**
+     * Removes any entry with the given key durably.
+     *
+     * @param key a String key
+     * @throws IOException if change cannot be written to log
+     */
+    public void remove(String key) throws IOException {
+        ByteOutput record = new ByteOutput(32);
+        record.writeByte(OP_REMOVE);
+        record.writeString(key);
+        long end;
+        synchronized (this) {
+            end = append(record);
+            mState.remove(key);
+        }
+        commit(end);
+    }
+
+    /**
+     * Removes all entries durably.
+     *
+     * @throws IOException if change cannot be written to log
+     */
+    public void clear() throws IOException {
+        ByteOutput record = new ByteOutput(16);
+        record.writeByte(OP_CLEAR);
+        long end;
+        synchronized (this) {
+            end = append(record);
+            mState.clear();
+        }
+        commit(end);
+    }
+
+    /**
+     * Returns the value associated with the given key, or null.
+     *
+     * @param key a String, or null
+     * @return a value, arrays are returned as copies
+     * @see Bundle#get(String)
+     */
+    public synchronized Object get(String key) {
+        return BundleValues.copyArray(mState.get(key));
+    }
+
+    /**
+     * Returns the String associated with the given key, or null.
+     *
+     * @param key a String, or null
+     * @return a String value, or null
+     * @see Bundle#getString(String)
+     */
+    public synchronized String getString(String key) {
+        return mState.getString(key);
+    }
+
+    /**
+     * Returns the int associated with the given key, or defaultValue.
+     *
+     * @param key          a String
+     * @param defaultValue value to return if key does not exist
+     * @return an int value
+     * @see Bundle#getInt(String, int)
+     */
+    public synchronized int getInt(String key, int defaultValue) {
+        return mState.getInt(key, defaultValue);
+    }
+
+    /**
+     * Returns the long associated with the given key, or defaultValue.
+     *
+     * @param key          a String
+     * @param defaultValue value to return if key does not exist
+     * @return a long value
+     * @see Bundle#getLong(String, long)
+     */
+    public synchronized long getLong(String key, long defaultValue) {
+        return mState.getLong(key, defaultValue);
+    }
+
+    /**
+     * Returns true if the given key is contained in this Bundle.
+     *
+     * @param key a String key
+     * @return true if the key is part of the mapping
+     */
+    public synchronized boolean containsKey(String key) {
+        return mState.containsKey(key);
+    }
+
+    /**
+     * Returns the number of mappings.
+     *
+     * @return the number of mappings
+     */
+    public synchronized int size() {
+        return mState.size();
+    }
+
+    /**
+     * Returns copy of current content. Changes made later are not reflected.
+     *
+     * @return a new Bundle
+     */
+    public synchronized Bundle snapshot() {
+        return new Bundle(mState);
+    }
+
+    /**
+     * Writes current content as snapshot and deletes log written before it.
+     * Writers are blocked only while log is switched to new segment.
+     *
+     * @throws IOException if snapshot cannot be written
+     */
+    public void compact() throws IOException {
+        Bundle content;
+        long generation;
+        FileChannel previous;
+        synchronized (this) {
+            checkUsable();
+            if (mCompacting) {
+                return;
+            }
+            awaitFlushes();
+            mCompacting = true;
+            // flushing is held off until new segment is in place
+            mFlushing = true;
+            try {
+                flushPending(mLog);
+                previous = mLog;
+                generation = mGeneration + 1;
+                mLog = FileChannel.open(mDir.resolve(LOG + generation), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                syncDirectory(mDir);
+                mGeneration = generation;
+                mLogSize = 0;
+                mDurable = mAppended;
+                // arrays of state are never modified, so shallow copy is consistent
+                content = new Bundle(mState, false);
+            } catch (IOException e) {
+                mFailure = e;
+                mCompacting = false;
+                throw e;
+            } finally {
+                mFlushing = false;
+                notifyAll();
+            }
+        }
+        try {
+            previous.close();
+            writeSnapshot(content, generation);
+            deleteBefore(generation);
+        } finally {
+            synchronized (this) {
+                mCompacting = false;
+            }
+        }
+    }
+
+    /**
+     * Writes pending changes and closes log. Bundle cannot be changed after closing.
+     *
+     * @throws IOException if pending changes cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            awaitFlushes();
+            mClosed = true;
+            try {
+                if (mFailure == null) {
+                    flushPending(mLog);
+                    mDurable = mAppended;
+                }
+            } finally {
+                mLog.close();
+            }
+        }
+    }
+
+    // appends record to pending log, returns position after it
+    private long append(ByteOutput record) throws IOException {
+        checkUsable();
+        byte[] payload = record.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        mPending.writeInt(payload.length);
+        mPending.writeInt((int) crc.getValue());
+        mPending.writeBytes(payload);
+        mAppended += RECORD_HEADER + payload.length;
+        return mAppended;
+    }
+
+    // waits until log is forced up to given position, flushing pending log if no one else does
+    private void commit(long end) throws IOException {
+        while (true) {
+            ByteBuffer batch;
+            FileChannel log;
+            long target;
+            synchronized (this) {
+                while (mDurable < end && mFailure == null && mFlushing) {
+                    waitUninterruptibly();
+                }
+                if (mDurable >= end) {
+                    break;
+                }
+                if (mFailure != null) {
+                    throw new IOException("Log cannot be written", mFailure);
+                }
+                // this thread writes all changes pending so far
+                mFlushing = true;
+                batch = mPending.toBuffer();
+                mPending = new ByteOutput(4096);
+                target = mAppended;
+                log = mLog;
+            }
+            IOException failure = null;
+            try {
+                while (batch.hasRemaining()) {
+                    log.write(batch);
+                }
+                log.force(false);
+            } catch (IOException e) {
+                failure = e;
+            }
+            synchronized (this) {
+                mFlushing = false;
+                if (failure != null) {
+                    mFailure = failure;
+                } else {
+                    mDurable = target;
+                    mLogSize += batch.limit();
+                }
+                notifyAll();
+            }
+        }
+        boolean compact;
+        synchronized (this) {
+            compact = mLogSize > mCompactionThreshold && !mCompacting && !mClosed && mFailure == null;
+        }
+        if (compact) {
+            compact();
+        }
+    }
+
+    // writes pending log while holding the monitor
+    private void flushPending(FileChannel log) throws IOException {
+        ByteBuffer batch = mPending.toBuffer();
+        mPending = new ByteOutput(4096);
+        while (batch.hasRemaining()) {
+            log.write(batch);
+        }
+        log.force(false);
+        mLogSize += batch.limit();
+    }
+
+    private void awaitFlushes() {
+        while (mFlushing) {
+            waitUninterruptibly();
+        }
+    }
+
+    // durability of changes already applied does not allow to give up waiting
+    private void waitUninterruptibly() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                wait();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkUsable() throws IOException {
+        if (mClosed) {
+            throw new IOException("DurableBundle is closed");
+        }
+        if (mFailure != null) {
+            throw new IOException("Log cannot be written", mFailure);
+        }
+    }
+
+    private void writeSnapshot(Bundle content, long generation) throws IOException {
+        ByteBuffer data = BundleCodec.encodeToBuffer(content);
+        Path temp = mDir.resolve(SNAPSHOT + generation + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Path target = mDir.resolve(SNAPSHOT + generation);
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(mDir);
+    }
+
+    private void deleteBefore(long generation) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(mDir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String suffix = name.startsWith(SNAPSHOT) ? name.substring(SNAPSHOT.length())
+                        : name.startsWith(LOG) ? name.substring(LOG.length()) : null;
+                if (suffix == null) {
+                    continue;
+                }
+                try {
+                    if (Long.parseLong(suffix) < generation) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // not our file
+                }
+            }
+        }
+    }
+
+    // makes file creation and renames durable, where file system allows to sync directory
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // not supported on this platform
+        }
+    }
+}
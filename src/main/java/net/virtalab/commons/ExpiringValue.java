@@ -0,0 +1,165 @@
+package net.virtalab.commons;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Value which expires at given deadline. Expired value is removed from the Bundle
+ * when it is accessed, or earlier by {@link ExpiryWheel} the Bundle is registered with.
+ * The wheel releases the value as soon as it expires, the entry holding it is removed
+ * by the Bundle later.
+ *
+ * @since 1.0
+ */
+final class ExpiringValue extends StoredValue {
+
+    // written by the wheel when released
+    private volatile Object mValue;
+    // System.nanoTime() at which value expires
+    private final long mDeadline;
+    private ExpiryWheel.Timer mTimer;
+    // true once the value was stored into a Bundle, which may share it with its copies
+    private boolean mStored;
+    // retained size and entry hash of the value, kept after it is released, so that
+    // the Bundle untracks the entry as it was tracked
+    private long mValueBytes = -1;
+    private EntryHash mEntryHash;
+
+    private ExpiringValue(Object value, long deadline) {
+        this.mValue = value;
+        this.mDeadline = deadline;
+    }
+
+    /**
+     * Creates value which expires after given time from now.
+     *
+     * @param value a value, or null
+     * @param ttl   time to live, positive
+     * @param unit  unit of ttl
+     * @return expiring value
+     */
+    static ExpiringValue of(Object value, long ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("TTL must be positive");
+        }
+        return new ExpiringValue(value, System.nanoTime() + unit.toNanos(ttl));
+    }
+
+    /**
+     * Creates value which expires at given wall clock time, e.g. value read back from storage.
+     *
+     * @param value          a value, or null
+     * @param deadlineMillis time in milliseconds since epoch
+     * @return expiring value, already expired if deadline has passed
+     */
+    static ExpiringValue at(Object value, long deadlineMillis) {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(deadlineMillis - System.currentTimeMillis());
+        // keeps deadline comparable with nanoTime for distant deadlines
+        return new ExpiringValue(value, System.nanoTime() + Math.min(remaining, Long.MAX_VALUE >> 1));
+    }
+
+    /**
+     * Returns deadline as wall clock time, which unlike nanoTime is meaningful in other processes.
+     *
+     * @return time in milliseconds since epoch
+     */
+    long deadlineMillis() {
+        long remaining = mDeadline - System.nanoTime();
+        return System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(remaining);
+    }
+
+    @Override
+    Object resolve() {
+        return mValue;
+    }
+
+    boolean isExpired() {
+        return System.nanoTime() - mDeadline >= 0;
+    }
+
+    /**
+     * Prepares this value to be stored into the Bundle and registers it with the wheel, if any.
+     * Registered value is released by the wheel, so value stored before, which other Bundles
+     * may share, is not registered itself, its copy with the same deadline is instead.
+     *
+     * @param wheel wheel of the Bundle, or null
+     * @return value to store in the Bundle
+     */
+    ExpiringValue claim(ExpiryWheel wheel, Bundle bundle, String key) {
+        if (mTimer != null && mTimer.isOwnedBy(bundle, key)) {
+            return this;
+        }
+        if (wheel == null) {
+            mStored = true;
+            return this;
+        }
+        if (mStored) {
+            ExpiringValue copy = new ExpiringValue(mValue, mDeadline);
+            copy.mValueBytes = mValueBytes;
+            copy.mEntryHash = mEntryHash;
+            return copy.claim(wheel, bundle, key);
+        }
+        mStored = true;
+        mTimer = wheel.schedule(bundle, key, this, mDeadline);
+        return this;
+    }
+
+    /**
+     * Drops reference to the value. Called by the wheel once the value expired.
+     */
+    void release() {
+        mValue = null;
+    }
+
+    /**
+     * Returns hash of entry with this value under given key, as {@link Fingerprint#entry(String, Object)}.
+     */
+    long[] entryHash(String key) {
+        EntryHash hash = mEntryHash;
+        if (hash == null || !(key == null ? hash.mKey == null : key.equals(hash.mKey))) {
+            hash = new EntryHash(key, Fingerprint.entry(key, mValue));
+            mEntryHash = hash;
+        }
+        return hash.mHash;
+    }
+
+    /**
+     * Removes registration made by given Bundle.
+     */
+    void cancel(Bundle bundle) {
+        ExpiryWheel.Timer timer = mTimer;
+        if (timer != null && timer.isOwnedBy(bundle)) {
+            timer.cancel();
+            mTimer = null;
+        }
+    }
+
+    @Override
+    long estimateRetainedBytes() {
+        long bytes = RetainedSize.align(RetainedSize.OBJECT_HEADER + 17 + 3 * RetainedSize.REFERENCE);
+        if (mTimer != null) {
+            bytes += ExpiryWheel.Timer.RETAINED_SIZE;
+        }
+        long valueBytes = mValueBytes;
+        if (valueBytes < 0) {
+            valueBytes = RetainedSize.of(mValue);
+            mValueBytes = valueBytes;
+        }
+        return bytes + valueBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(mValue);
+    }
+
+    // hash of entry and the key it was computed for, published together
+    private static final class EntryHash {
+        final String mKey;
+        final long[] mHash;
+
+        EntryHash(String key, long[] hash) {
+            this.mKey = key;
+            this.mHash = hash;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package net.virtalab.commons;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timing wheel removing expired entries from Bundles it is set to,
+ * see {@link Bundle#setExpiryWheel(ExpiryWheel)}.
+ * <p>
+ * Wheel keeps only entries put with time to live, so the cost of {@link #advance()} depends
+ * on the number of entries which expire, not on the number of Bundles. Registering and
+ * cancelling an entry takes constant time. Entries expire up to one tick late.
+ * <p>
+ * Bundles are referenced weakly. Wheel releases values of expired entries at once, so their
+ * memory is reclaimed even if the Bundle is never accessed again. Entries themselves are handed
+ * over to their Bundles, which remove them on next access, from the thread which uses them.
+ *
+ * @since 1.0
+ */
+public final class ExpiryWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+
+    private final long mTickNanos;
+    private final long mStart;
+    // circular lists of timers with sentinel heads, per level and slot
+    private final Timer[][] mSlots = new Timer[LEVELS][SLOTS];
+    // last processed tick
+    private long mTick;
+    private int mSize;
+
+    /**
+     * Returns wheel shared by whole application. It is advanced every 100 milliseconds
+     * by a daemon thread started on first use.
+     *
+     * @return shared wheel
+     */
+    public static ExpiryWheel shared() {
+        return SharedWheel.WHEEL;
+    }
+
+    /**
+     * Creates wheel with given tick. Wheel is not advanced until {@link #advance()}
+     * is called, e.g. by executor passed to {@link #schedule(ScheduledExecutorService)}.
+     *
+     * @param tick duration of tick, positive
+     * @param unit unit of tick
+     */
+    public ExpiryWheel(long tick, TimeUnit unit) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        this.mTickNanos = unit.toNanos(tick);
+        this.mStart = System.nanoTime();
+        for (Timer[] level : mSlots) {
+            for (int i = 0; i < SLOTS; i++) {
+                level[i] = new Timer(null, null, null, null);
+            }
+        }
+    }
+
+    /**
+     * Schedules advancing of this wheel on every tick.
+     *
+     * @param executor executor to run advancing
+     * @return future which cancels advancing
+     */
+    public ScheduledFuture<?> schedule(ScheduledExecutorService executor) {
+        return executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                advance();
+            }
+        }, mTickNanos, mTickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Releases values of entries which expired since last advance and hands the entries
+     * over to their Bundles for removal.
+     *
+     * @return number of expired entries
+     */
+    public int advance() {
+        List<Timer> due = null;
+        synchronized (this) {
+            long target = (System.nanoTime() - mStart) / mTickNanos;
+            while (mTick < target) {
+                if (mSize == 0) {
+                    mTick = target;
+                    break;
+                }
+                mTick++;
+                if ((mTick & SLOT_MASK) == 0) {
+                    cascade();
+                }
+                Timer head = mSlots[0][(int) (mTick & SLOT_MASK)];
+                while (head.mNext != head) {
+                    Timer timer = head.mNext;
+                    unlink(timer);
+                    if (due == null) {
+                        due = new ArrayList<>();
+                    }
+                    due.add(timer);
+                }
+            }
+        }
+        if (due == null) {
+            return 0;
+        }
+        int expired = 0;
+        for (Timer timer : due) {
+            Bundle bundle = timer.mBundle.get();
+            if (bundle != null) {
+                bundle.expired(timer);
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Returns number of entries waiting for expiry.
+     *
+     * @return number of registered entries
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    synchronized Timer schedule(Bundle bundle, String key, ExpiringValue value, long deadline) {
+        Timer timer = new Timer(this, bundle, key, value);
+        long ticks = (deadline - mStart + mTickNanos - 1) / mTickNanos;
+        timer.mDeadline = Math.max(ticks, mTick + 1);
+        place(timer);
+        mSize++;
+        return timer;
+    }
+
+    synchronized void cancel(Timer timer) {
+        if (timer.mNext != null) {
+            unlink(timer);
+        }
+    }
+
+    // moves timers of higher levels, whose slots start at current tick, to lower levels
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int slot = (int) ((mTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            Timer head = mSlots[level][slot];
+            Timer timer = head.mNext;
+            head.mNext = head;
+            head.mPrev = head;
+            while (timer != head) {
+                Timer next = timer.mNext;
+                place(timer);
+                timer = next;
+            }
+            if (slot != 0) {
+                break;
+            }
+        }
+    }
+
+    private void place(Timer timer) {
+        long deadline = timer.mDeadline;
+        int level = 0;
+        while (level < LEVELS - 1 && deadline >>> (SLOT_BITS * (level + 1)) != mTick >>> (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int shift = SLOT_BITS * level;
+        long slot;
+        if (deadline >>> (shift + SLOT_BITS) == mTick >>> (shift + SLOT_BITS)) {
+            slot = deadline >>> shift;
+        } else {
+            // beyond range of wheel, slot reached last is taken and timer is placed again
+            slot = (mTick >>> shift) - 1;
+        }
+        Timer head = mSlots[level][(int) (slot & SLOT_MASK)];
+        timer.mPrev = head.mPrev;
+        timer.mNext = head;
+        head.mPrev.mNext = timer;
+        head.mPrev = timer;
+    }
+
+    private void unlink(Timer timer) {
+        timer.mPrev.mNext = timer.mNext;
+        timer.mNext.mPrev = timer.mPrev;
+        timer.mPrev = null;
+        timer.mNext = null;
+        mSize--;
+    }
+
+    /**
+     * Registration of single Bundle entry.
+     */
+    static final class Timer {
+
+        // header, fields and weak reference
+        static final int RETAINED_SIZE = 96;
+
+        private final ExpiryWheel mWheel;
+        private final WeakReference<Bundle> mBundle;
+        private final String mKey;
+        private final ExpiringValue mValue;
+        private long mDeadline;
+        private Timer mPrev;
+        private Timer mNext;
+        // next expired timer handed over to the same Bundle
+        Timer mNextExpired;
+
+        private Timer(ExpiryWheel wheel, Bundle bundle, String key, ExpiringValue value) {
+            this.mWheel = wheel;
+            this.mBundle = bundle == null ? null : new WeakReference<>(bundle);
+            this.mKey = key;
+            this.mValue = value;
+            // sentinel of empty list points to itself
+            this.mPrev = this;
+            this.mNext = this;
+        }
+
+        String key() {
+            return mKey;
+        }
+
+        ExpiringValue value() {
+            return mValue;
+        }
+
+        boolean isOwnedBy(Bundle bundle) {
+            return mBundle.get() == bundle;
+        }
+
+        boolean isOwnedBy(Bundle bundle, String key) {
+            return isOwnedBy(bundle) && (mKey == null ? key == null : mKey.equals(key));
+        }
+
+        void cancel() {
+            mWheel.cancel(this);
+        }
+    }
+
+    private static final class SharedWheel {
+        static final ExpiryWheel WHEEL = new ExpiryWheel(100, TimeUnit.MILLISECONDS);
+
+        static {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "bundle-expiry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            WHEEL.schedule(executor);
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package net.virtalab.commons;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stable hash of Bundle content, see {@link Bundle#fingerprint64()}.
+ * <p>
+ * Each entry is encoded as a sequence of 64-bit words: type tag, lengths and elements, with
+ * elements of primitive arrays packed into words. Words are hashed by four xxHash64 lanes,
+ * which yield two 64-bit halves of the entry hash. Bundle fingerprint is computed from sums of
+ * entry hashes, so it does not depend on iteration order and can be updated when a single entry
+ * changes. Encoding does not depend on identity hash codes nor on platform, so fingerprints
+ * are equal across JVMs.
+ *
+ * @since 1.0
+ */
+final class Fingerprint {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final long SEED = 0x62756E646C65L;
+
+    // type tags of canonical encoding, must never change
+    private static final int NULL = 0;
+    private static final int BOOLEAN = 1;
+    private static final int BYTE = 2;
+    private static final int CHAR = 3;
+    private static final int SHORT = 4;
+    private static final int INT = 5;
+    private static final int LONG = 6;
+    private static final int FLOAT = 7;
+    private static final int DOUBLE = 8;
+    private static final int STRING = 9;
+    private static final int BOOLEAN_ARRAY = 10;
+    private static final int BYTE_ARRAY = 11;
+    private static final int CHAR_ARRAY = 12;
+    private static final int SHORT_ARRAY = 13;
+    private static final int INT_ARRAY = 14;
+    private static final int LONG_ARRAY = 15;
+    private static final int FLOAT_ARRAY = 16;
+    private static final int DOUBLE_ARRAY = 17;
+    private static final int OBJECT_ARRAY = 18;
+    private static final int LIST = 19;
+    private static final int COLLECTION = 20;
+    private static final int BUNDLE = 21;
+    private static final int ENUM = 22;
+    private static final int OBJECT = 23;
+    private static final int KEY = 24;
+
+    private long mV1 = SEED + P1 + P2;
+    private long mV2 = SEED + P2;
+    private long mV3 = SEED;
+    private long mV4 = SEED - P1;
+    // lane receiving next word
+    private int mLane;
+    private long mWords;
+
+    private Fingerprint() {
+    }
+
+    /**
+     * Returns both halves of the hash of entry, low half first.
+     */
+    static long[] entry(String key, Object value) {
+        long[] hash = new long[2];
+        entry(key, value, hash);
+        return hash;
+    }
+
+    /**
+     * Stores halves of the hash of entry into given array.
+     */
+    static void entry(String key, Object value, long[] hash) {
+        Fingerprint f = new Fingerprint();
+        if (key == null) {
+            f.word(NULL);
+        } else {
+            f.word(KEY);
+            f.chars(key);
+        }
+        f.value(value);
+        hash[0] = f.low();
+        hash[1] = f.high();
+    }
+
+    /**
+     * Computes sums of entry hashes of given entries, stored values are resolved.
+     *
+     * @param entries entries of a Bundle
+     * @param sums    receives sum of low and sum of high halves
+     */
+    static void sum(Map<String, Object> entries, long[] sums) {
+        long[] hash = new long[2];
+        long low = 0;
+        long high = 0;
+        for (Map.Entry<String, Object> e : entries.entrySet()) {
+            Object value = e.getValue();
+            entry(e.getKey(), value instanceof StoredValue ? ((StoredValue) value).resolve() : value, hash);
+            low += hash[0];
+            high += hash[1];
+        }
+        sums[0] = low;
+        sums[1] = high;
+    }
+
+    /**
+     * Returns hash of range of primitive array.
+     */
+    static long range(Object array, int from, int to) {
+        Fingerprint f = new Fingerprint();
+        f.array(array, from, to);
+        return f.low();
+    }
+
+    /**
+     * Returns 64-bit fingerprint from sums of entry hashes.
+     */
+    static long finish64(long low, long high, int size) {
+        return avalanche(low ^ Long.rotateLeft(high, 29) ^ size * P5);
+    }
+
+    /**
+     * Returns 128-bit fingerprint from sums of entry hashes, low half first.
+     */
+    static long[] finish128(long low, long high, int size) {
+        return new long[]{avalanche(low + size * P3), avalanche(high ^ size * P4)};
+    }
+
+    private void word(long w) {
+        switch (mLane) {
+            case 0:
+                mV1 = round(mV1, w);
+                break;
+            case 1:
+                mV2 = round(mV2, w);
+                break;
+            case 2:
+                mV3 = round(mV3, w);
+                break;
+            default:
+                mV4 = round(mV4, w);
+                break;
+        }
+        mLane = (mLane + 1) & 3;
+        mWords++;
+    }
+
+    private void value(Object value) {
+        if (value == null) {
+            word(NULL);
+        } else if (value instanceof String) {
+            word(STRING);
+            chars((String) value);
+        } else if (value instanceof Integer) {
+            word(INT);
+            word((Integer) value);
+        } else if (value instanceof Long) {
+            word(LONG);
+            word((Long) value);
+        } else if (value instanceof Double) {
+            word(DOUBLE);
+            word(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Boolean) {
+            word(BOOLEAN);
+            word((Boolean) value ? 1 : 0);
+        } else if (value instanceof Float) {
+            word(FLOAT);
+            word(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Short) {
+            word(SHORT);
+            word((Short) value);
+        } else if (value instanceof Byte) {
+            word(BYTE);
+            word((Byte) value);
+        } else if (value instanceof Character) {
+            word(CHAR);
+            word((Character) value);
+        } else if (value instanceof Bundle) {
+            word(BUNDLE);
+            long[] nested = ((Bundle) value).fingerprint128();
+            word(nested[0]);
+            word(nested[1]);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            word(LIST);
+            word(list.size());
+            for (Object element : list) {
+                value(element);
+            }
+        } else if (value instanceof Collection) {
+            // elements are hashed separately and summed, as iteration order is not defined
+            Collection<?> collection = (Collection<?>) value;
+            long low = 0;
+            long high = 0;
+            for (Object element : collection) {
+                Fingerprint f = new Fingerprint();
+                f.value(element);
+                low += f.low();
+                high += f.high();
+            }
+            word(COLLECTION);
+            word(collection.size());
+            word(low);
+            word(high);
+        } else if (value instanceof Enum) {
+            word(ENUM);
+            chars(((Enum<?>) value).getDeclaringClass().getName());
+            chars(((Enum<?>) value).name());
+        } else if (!value.getClass().isArray()) {
+            // stable only as far as hashCode of the class is
+            word(OBJECT);
+            chars(value.getClass().getName());
+            word(value.hashCode());
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            word(OBJECT_ARRAY);
+            word(array.length);
+            for (Object element : array) {
+                value(element);
+            }
+        } else {
+            array(value, 0, Array.getLength(value));
+        }
+    }
+
+    // primitive array or its range
+    private void array(Object a, int from, int to) {
+        if (a instanceof byte[]) {
+            word(BYTE_ARRAY);
+            bytes((byte[]) a, from, to);
+        } else if (a instanceof int[]) {
+            word(INT_ARRAY);
+            ints((int[]) a, from, to);
+        } else if (a instanceof long[]) {
+            word(LONG_ARRAY);
+            longs((long[]) a, from, to);
+        } else if (a instanceof double[]) {
+            word(DOUBLE_ARRAY);
+            doubles((double[]) a, from, to);
+        } else if (a instanceof float[]) {
+            word(FLOAT_ARRAY);
+            floats((float[]) a, from, to);
+        } else if (a instanceof short[]) {
+            word(SHORT_ARRAY);
+            shorts((short[]) a, from, to);
+        } else if (a instanceof char[]) {
+            word(CHAR_ARRAY);
+            chars((char[]) a, from, to);
+        } else {
+            word(BOOLEAN_ARRAY);
+            booleans((boolean[]) a, from, to);
+        }
+    }
+
+    private void chars(String s) {
+        int length = s.length();
+        word(length);
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            word(s.charAt(i) | (long) s.charAt(i + 1) << 16 | (long) s.charAt(i + 2) << 32
+                    | (long) s.charAt(i + 3) << 48);
+        }
+        if (i < length) {
+            long w = 0;
+            for (int shift = 0; i < length; i++, shift += 16) {
+                w |= (long) s.charAt(i) << shift;
+            }
+            word(w);
+        }
+    }
+
+    private void chars(char[] a, int from, int to) {
+        word(to - from);
+        int i = from;
+        for (; i + 4 <= to; i += 4) {
+            word(a[i] | (long) a[i + 1] << 16 | (long) a[i + 2] << 32 | (long) a[i + 3] << 48);
+        }
+        if (i < to) {
+            long w = 0;
+            for (int shift = 0; i < to; i++, shift += 16) {
+                w |= (long) a[i] << shift;
+            }
+            word(w);
+        }
+    }
+
+    private void shorts(short[] a, int from, int to) {
+        word(to - from);
+        int i = from;
+        for (; i + 4 <= to; i += 4) {
+            word((a[i] & 0xFFFFL) | (a[i + 1] & 0xFFFFL) << 16 | (a[i + 2] & 0xFFFFL) << 32
+                    | (a[i + 3] & 0xFFFFL) << 48);
+        }
+        if (i < to) {
+            long w = 0;
+            for (int shift = 0; i < to; i++, shift += 16) {
+                w |= (a[i] & 0xFFFFL) << shift;
+            }
+            word(w);
+        }
+    }
+
+    private void bytes(byte[] a, int from, int to) {
+        word(to - from);
+        int i = from;
+        // whole lane rounds are made without per-word dispatch
+        if (mLane == 0) {
+            long v1 = mV1;
+            long v2 = mV2;
+            long v3 = mV3;
+            long v4 = mV4;
+            for (; i + 32 <= to; i += 32) {
+                v1 = round(v1, ByteWords.getLongLE(a, i));
+                v2 = round(v2, ByteWords.getLongLE(a, i + 8));
+                v3 = round(v3, ByteWords.getLongLE(a, i + 16));
+                v4 = round(v4, ByteWords.getLongLE(a, i + 24));
+            }
+            mV1 = v1;
+            mV2 = v2;
+            mV3 = v3;
+            mV4 = v4;
+            mWords += (i - from) >>> 3;
+        }
+        for (; i + 8 <= to; i += 8) {
+            word(ByteWords.getLongLE(a, i));
+        }
+        if (i < to) {
+            long w = 0;
+            for (int shift = 0; i < to; i++, shift += 8) {
+                w |= (a[i] & 0xFFL) << shift;
+            }
+            word(w);
+        }
+    }
+
+    private void booleans(boolean[] a, int from, int to) {
+        word(to - from);
+        int i = from;
+        while (i < to) {
+            long w = 0;
+            for (int bit = 0; bit < 64 && i < to; bit++, i++) {
+                if (a[i]) {
+                    w |= 1L << bit;
+                }
+            }
+            word(w);
+        }
+    }
+
+    private void ints(int[] a, int from, int to) {
+        word(to - from);
+        int i = from;
+        for (; i + 2 <= to; i += 2) {
+            word((a[i] & 0xFFFFFFFFL) | (long) a[i + 1] << 32);
+        }
+        if (i < to) {
+            word(a[i] & 0xFFFFFFFFL);
+        }
+    }
+
+    private void floats(float[] a, int from, int to) {
+        word(to - from);
+        int i = from;
+        for (; i + 2 <= to; i += 2) {
+            word((Float.floatToIntBits(a[i]) & 0xFFFFFFFFL) | (long) Float.floatToIntBits(a[i + 1]) << 32);
+        }
+        if (i < to) {
+            word(Float.floatToIntBits(a[i]) & 0xFFFFFFFFL);
+        }
+    }
+
+    private void longs(long[] a, int from, int to) {
+        word(to - from);
+        int i = from;
+        if (mLane == 0) {
+            long v1 = mV1;
+            long v2 = mV2;
+            long v3 = mV3;
+            long v4 = mV4;
+            for (; i + 4 <= to; i += 4) {
+                v1 = round(v1, a[i]);
+                v2 = round(v2, a[i + 1]);
+                v3 = round(v3, a[i + 2]);
+                v4 = round(v4, a[i + 3]);
+            }
+            mV1 = v1;
+            mV2 = v2;
+            mV3 = v3;
+            mV4 = v4;
+            mWords += i - from;
+        }
+        for (; i < to; i++) {
+            word(a[i]);
+        }
+    }
+
+    private void doubles(double[] a, int from, int to) {
+        word(to - from);
+        int i = from;
+        if (mLane == 0) {
+            long v1 = mV1;
+            long v2 = mV2;
+            long v3 = mV3;
+            long v4 = mV4;
+            for (; i + 4 <= to; i += 4) {
+                v1 = round(v1, Double.doubleToLongBits(a[i]));
+                v2 = round(v2, Double.doubleToLongBits(a[i + 1]));
+                v3 = round(v3, Double.doubleToLongBits(a[i + 2]));
+                v4 = round(v4, Double.doubleToLongBits(a[i + 3]));
+            }
+            mV1 = v1;
+            mV2 = v2;
+            mV3 = v3;
+            mV4 = v4;
+            mWords += i - from;
+        }
+        for (; i < to; i++) {
+            word(Double.doubleToLongBits(a[i]));
+        }
+    }
+
+    private long low() {
+        long h = Long.rotateLeft(mV1, 1) + Long.rotateLeft(mV2, 7) + Long.rotateLeft(mV3, 12)
+                + Long.rotateLeft(mV4, 18);
+        h = merge(h, mV1);
+        h = merge(h, mV2);
+        h = merge(h, mV3);
+        h = merge(h, mV4);
+        return avalanche(h + mWords * 8);
+    }
+
+    private long high() {
+        long h = Long.rotateLeft(mV4, 1) + Long.rotateLeft(mV3, 7) + Long.rotateLeft(mV2, 12)
+                + Long.rotateLeft(mV1, 18) + P5;
+        h = merge(h, mV4);
+        h = merge(h, mV3);
+        h = merge(h, mV2);
+        h = merge(h, mV1);
+        return avalanche(h ^ mWords * P1);
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long h, long v) {
+        h ^= round(0, v);
+        return h * P1 + P4;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+}
@@ -0,0 +1,547 @@
+package net.virtalab.commons;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe collection of Bundles keyed by id, with secondary indexes on declared keys.
+ * <p>
+ * Hash index answers equality queries, range index answers range queries on integral values.
+ * Indexes are updated on every put, update and remove. Query uses the index which yields
+ * fewest candidates and checks all conditions on them, so entries which expired after being
+ * indexed are not matched. Query without indexed condition
+ * scans all Bundles, in parallel when collection was created with an executor.
+ * Queries return the same results with and without indexes.
+ * <p>
+ * Bundles are stored as read-only copies, so indexed values cannot change behind the indexes.
+ *
+ * @since 1.0
+ */
+public final class IndexedBundles {
+
+    // smallest number of Bundles scanned by one task
+    private static final int SCAN_PART_MIN_SIZE = 4096;
+
+    private final ExecutorService mExecutor;
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final Map<String, Bundle> mEntries = new HashMap<>();
+    private final Map<String, Map<Object, Set<String>>> mHashIndexes = new HashMap<>();
+    private final Map<String, NavigableMap<Long, Set<String>>> mRangeIndexes = new HashMap<>();
+    // values each Bundle was indexed with, in order of hash and then range indexes; expiring
+    // values may be released before the Bundle is unindexed
+    private final Map<String, Object[]> mIndexedValues = new HashMap<>();
+
+    /**
+     * Creates empty collection which scans sequentially.
+     */
+    public IndexedBundles() {
+        this(null);
+    }
+
+    /**
+     * Creates empty collection.
+     *
+     * @param executor executor for parallel scans, or null to scan in calling thread
+     */
+    public IndexedBundles(ExecutorService executor) {
+        this.mExecutor = executor;
+    }
+
+    /**
+     * Declares hash index on key, used by {@link Query#whereEquals(String, Object)}.
+     * Bundles already present are indexed.
+     *
+     * @param key a key
+     */
+    public void addHashIndex(String key) {
+        mLock.writeLock().lock();
+        try {
+            if (!mHashIndexes.containsKey(key)) {
+                mHashIndexes.put(key, new HashMap<Object, Set<String>>());
+                reindex();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Declares range index on key, used by {@link Query#whereBetween(String, long, long)}.
+     * Bundles already present are indexed.
+     *
+     * @param key a key
+     */
+    public void addRangeIndex(String key) {
+        mLock.writeLock().lock();
+        try {
+            if (!mRangeIndexes.containsKey(key)) {
+                mRangeIndexes.put(key, new TreeMap<Long, Set<String>>());
+                reindex();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts copy of Bundle, replacing Bundle with the same id.
+     *
+     * @param id     id of Bundle, not null
+     * @param bundle a Bundle
+     * @return stored read-only copy
+     */
+    public Bundle put(String id, Bundle bundle) {
+        Bundle version = new Bundle(bundle, false);
+        version.freeze();
+        mLock.writeLock().lock();
+        try {
+            replace(id, version);
+            return version;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Atomically changes Bundle with given id, creating it if it does not exist.
+     *
+     * @param id      id of Bundle, not null
+     * @param updater changes writable copy of the Bundle
+     * @return stored read-only version
+     */
+    public Bundle update(String id, BundleUpdater updater) {
+        mLock.writeLock().lock();
+        try {
+            Bundle current = mEntries.get(id);
+            Bundle next = current == null ? new Bundle() : new Bundle(current, false);
+            updater.update(next);
+            next.freeze();
+            replace(id, next);
+            return next;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes Bundle with given id.
+     *
+     * @param id id of Bundle
+     * @return removed Bundle, or null if there was none
+     */
+    public Bundle remove(String id) {
+        mLock.writeLock().lock();
+        try {
+            Bundle removed = mEntries.remove(id);
+            if (removed != null) {
+                unindex(id);
+            }
+            return removed;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns Bundle with given id.
+     *
+     * @param id id of Bundle
+     * @return read-only Bundle, or null
+     */
+    public Bundle get(String id) {
+        mLock.readLock().lock();
+        try {
+            return mEntries.get(id);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns number of Bundles.
+     *
+     * @return number of Bundles
+     */
+    public int size() {
+        mLock.readLock().lock();
+        try {
+            return mEntries.size();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Starts new query. All conditions of query must hold.
+     *
+     * @return query without conditions, matching all Bundles
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    private void replace(String id, Bundle version) {
+        Bundle previous = mEntries.put(id, version);
+        if (previous != null) {
+            unindex(id);
+        }
+        index(id, version);
+    }
+
+    private void reindex() {
+        for (Map<Object, Set<String>> index : mHashIndexes.values()) {
+            index.clear();
+        }
+        for (NavigableMap<Long, Set<String>> index : mRangeIndexes.values()) {
+            index.clear();
+        }
+        mIndexedValues.clear();
+        for (Map.Entry<String, Bundle> e : mEntries.entrySet()) {
+            index(e.getKey(), e.getValue());
+        }
+    }
+
+    private void index(String id, Bundle bundle) {
+        Object[] values = new Object[mHashIndexes.size() + mRangeIndexes.size()];
+        int i = 0;
+        for (Map.Entry<String, Map<Object, Set<String>>> e : mHashIndexes.entrySet()) {
+            Object value = indexedValue(bundle, e.getKey());
+            if (value != null) {
+                add(e.getValue(), value, id);
+            }
+            values[i++] = value;
+        }
+        for (Map.Entry<String, NavigableMap<Long, Set<String>>> e : mRangeIndexes.entrySet()) {
+            Object value = indexedValue(bundle, e.getKey());
+            if (isIntegral(value)) {
+                add(e.getValue(), ((Number) value).longValue(), id);
+            }
+            values[i++] = value;
+        }
+        if (values.length > 0) {
+            mIndexedValues.put(id, values);
+        }
+    }
+
+    private void unindex(String id) {
+        Object[] values = mIndexedValues.remove(id);
+        if (values == null) {
+            return;
+        }
+        int i = 0;
+        for (Map<Object, Set<String>> index : mHashIndexes.values()) {
+            Object value = values[i++];
+            if (value != null) {
+                remove(index, value, id);
+            }
+        }
+        for (NavigableMap<Long, Set<String>> index : mRangeIndexes.values()) {
+            Object value = values[i++];
+            if (isIntegral(value)) {
+                remove(index, ((Number) value).longValue(), id);
+            }
+        }
+    }
+
+    // value of read-only Bundle ignoring expiry, as queries recheck expired values
+    private static Object indexedValue(Bundle bundle, String key) {
+        Object o = bundle.storage().get(key);
+        return o instanceof StoredValue ? ((StoredValue) o).resolve() : o;
+    }
+
+    private static <K> void add(Map<K, Set<String>> index, K value, String id) {
+        Set<String> ids = index.get(value);
+        if (ids == null) {
+            ids = new HashSet<>(4);
+            index.put(value, ids);
+        }
+        ids.add(id);
+    }
+
+    private static <K> void remove(Map<K, Set<String>> index, K value, String id) {
+        Set<String> ids = index.get(value);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            index.remove(value);
+        }
+    }
+
+    static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    /**
+     * Condition on a value of a Bundle.
+     */
+    private abstract static class Condition {
+        final String mKey;
+
+        Condition(String key) {
+            this.mKey = key;
+        }
+
+        abstract boolean matches(Object value);
+
+        // ids matching condition, or null if there is no index for it
+        abstract Collection<String> candidates(IndexedBundles bundles);
+
+        // number of candidates, or -1 if there is no index
+        abstract int estimate(IndexedBundles bundles);
+    }
+
+    private static final class Equals extends Condition {
+        final Object mValue;
+
+        Equals(String key, Object value) {
+            super(key);
+            this.mValue = value;
+        }
+
+        @Override
+        boolean matches(Object value) {
+            return value != null && value.equals(mValue);
+        }
+
+        @Override
+        Collection<String> candidates(IndexedBundles bundles) {
+            Map<Object, Set<String>> index = bundles.mHashIndexes.get(mKey);
+            if (index == null) {
+                return null;
+            }
+            Set<String> ids = index.get(mValue);
+            return ids == null ? Collections.<String>emptySet() : ids;
+        }
+
+        @Override
+        int estimate(IndexedBundles bundles) {
+            Collection<String> ids = candidates(bundles);
+            return ids == null ? -1 : ids.size();
+        }
+    }
+
+    private static final class Between extends Condition {
+        final long mFrom;
+        final long mTo;
+
+        Between(String key, long from, long to) {
+            super(key);
+            this.mFrom = from;
+            this.mTo = to;
+        }
+
+        @Override
+        boolean matches(Object value) {
+            if (!isIntegral(value)) {
+                return false;
+            }
+            long v = ((Number) value).longValue();
+            return v >= mFrom && v < mTo;
+        }
+
+        private NavigableMap<Long, Set<String>> range(IndexedBundles bundles) {
+            NavigableMap<Long, Set<String>> index = bundles.mRangeIndexes.get(mKey);
+            if (index == null) {
+                return null;
+            }
+            if (mFrom >= mTo) {
+                return Collections.unmodifiableNavigableMap(new TreeMap<Long, Set<String>>());
+            }
+            return index.subMap(mFrom, true, mTo, false);
+        }
+
+        @Override
+        Collection<String> candidates(IndexedBundles bundles) {
+            NavigableMap<Long, Set<String>> range = range(bundles);
+            if (range == null) {
+                return null;
+            }
+            List<String> ids = new ArrayList<>();
+            for (Set<String> set : range.values()) {
+                ids.addAll(set);
+            }
+            return ids;
+        }
+
+        @Override
+        int estimate(IndexedBundles bundles) {
+            NavigableMap<Long, Set<String>> range = range(bundles);
+            if (range == null) {
+                return -1;
+            }
+            long size = 0;
+            for (Set<String> set : range.values()) {
+                size += set.size();
+            }
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Query over the collection. Query is not thread-safe, but can be run repeatedly.
+     */
+    public final class Query {
+
+        private final List<Condition> mConditions = new ArrayList<>();
+
+        private Query() {
+        }
+
+        /**
+         * Requires value of key to be equal to given value, as by {@link Object#equals(Object)}.
+         * Numbers of different types are not equal.
+         *
+         * @param key   a key
+         * @param value value, not null
+         * @return this query
+         */
+        public Query whereEquals(String key, Object value) {
+            if (value == null) {
+                throw new IllegalArgumentException("Value cannot be null");
+            }
+            mConditions.add(new Equals(key, value));
+            return this;
+        }
+
+        /**
+         * Requires value of key to be long, int, short or byte in given range.
+         *
+         * @param key  a key
+         * @param from lowest value, inclusive
+         * @param to   highest value, exclusive
+         * @return this query
+         */
+        public Query whereBetween(String key, long from, long to) {
+            mConditions.add(new Between(key, from, to));
+            return this;
+        }
+
+        /**
+         * Returns ids of matching Bundles.
+         *
+         * @return ids in no particular order
+         * @throws InterruptedException if interrupted while waiting for parallel scan
+         */
+        public List<String> ids() throws InterruptedException {
+            mLock.readLock().lock();
+            try {
+                Condition best = null;
+                int bestSize = Integer.MAX_VALUE;
+                for (Condition condition : mConditions) {
+                    int size = condition.estimate(IndexedBundles.this);
+                    if (size >= 0 && size < bestSize) {
+                        best = condition;
+                        bestSize = size;
+                    }
+                }
+                if (best == null) {
+                    return scan();
+                }
+                List<String> ids = new ArrayList<>(bestSize);
+                for (String id : best.candidates(IndexedBundles.this)) {
+                    if (matches(mEntries.get(id))) {
+                        ids.add(id);
+                    }
+                }
+                return ids;
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Returns matching Bundles.
+         *
+         * @return read-only Bundles in no particular order
+         * @throws InterruptedException if interrupted while waiting for parallel scan
+         */
+        public List<Bundle> list() throws InterruptedException {
+            mLock.readLock().lock();
+            try {
+                List<String> ids = ids();
+                List<Bundle> bundles = new ArrayList<>(ids.size());
+                for (String id : ids) {
+                    bundles.add(mEntries.get(id));
+                }
+                return bundles;
+            } finally {
+                mLock.readLock().unlock();
+            }
+        }
+
+        private boolean matches(Bundle bundle) {
+            for (Condition condition : mConditions) {
+                if (!condition.matches(bundle.get(condition.mKey))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // called under read lock
+        private List<String> scan() throws InterruptedException {
+            @SuppressWarnings("unchecked")
+            final Map.Entry<String, Bundle>[] entries = mEntries.entrySet().toArray(new Map.Entry[mEntries.size()]);
+            int parts = mExecutor == null ? 1
+                    : Math.min(Runtime.getRuntime().availableProcessors(), entries.length / SCAN_PART_MIN_SIZE);
+            if (parts <= 1) {
+                return scan(entries, 0, entries.length);
+            }
+            List<Future<List<String>>> futures = new ArrayList<>(parts);
+            int from = 0;
+            for (int i = 0; i < parts; i++) {
+                final int start = from;
+                final int end = from + (entries.length - from) / (parts - i);
+                futures.add(mExecutor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        return scan(entries, start, end);
+                    }
+                }));
+                from = end;
+            }
+            try {
+                List<String> ids = new ArrayList<>();
+                for (Future<List<String>> future : futures) {
+                    ids.addAll(future.get());
+                }
+                return ids;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            } finally {
+                for (Future<List<String>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        private List<String> scan(Map.Entry<String, Bundle>[] entries, int from, int to) {
+            List<String> ids = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                if (matches(entries[i].getValue())) {
+                    ids.add(entries[i].getKey());
+                }
+            }
+            return ids;
+        }
+    }
+}
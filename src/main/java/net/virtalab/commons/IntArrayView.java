@@ -0,0 +1,87 @@
+package net.virtalab.commons;
+
+import java.util.Arrays;
+
+/**
+ * Read-only view of int array stored in a {@link Bundle}. View does not copy the array,
+ * so it reflects changes made to the array by its owner.
+ *
+ * @since 1.0
+ */
+public final class IntArrayView {
+
+    private final int[] mArray;
+
+    private IntArrayView(int[] array) {
+        this.mArray = array;
+    }
+
+    static IntArrayView of(int[] array) {
+        return array == null ? null : new IntArrayView(array);
+    }
+
+    /**
+     * Returns number of elements.
+     *
+     * @return length of array
+     */
+    public int length() {
+        return mArray.length;
+    }
+
+    /**
+     * Returns element at given index.
+     *
+     * @param index index of element
+     * @return the element
+     * @throws ArrayIndexOutOfBoundsException if index is out of range
+     */
+    public int get(int index) {
+        return mArray[index];
+    }
+
+    /**
+     * Copies elements to given array.
+     *
+     * @param srcPos  index of first element to copy
+     * @param dest    destination array
+     * @param destPos index in destination array
+     * @param length  number of elements to copy
+     */
+    public void copyTo(int srcPos, int[] dest, int destPos, int length) {
+        System.arraycopy(mArray, srcPos, dest, destPos, length);
+    }
+
+    /**
+     * Returns copy of elements.
+     *
+     * @return new array with all elements
+     */
+    public int[] toArray() {
+        return mArray.clone();
+    }
+
+    /**
+     * Returns iterator over elements.
+     *
+     * @return iterator which does not box elements
+     */
+    public IntIterator iterator() {
+        return CompressedArray.iterator(mArray);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IntArrayView && Arrays.equals(mArray, ((IntArrayView) o).mArray);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mArray);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(mArray);
+    }
+}
@@ -0,0 +1,24 @@
+package net.virtalab.commons;
+
+/**
+ * Iterator over int values, which does not box elements.
+ *
+ * @since 1.0
+ */
+public interface IntIterator {
+
+    /**
+     * Returns true if iteration has more elements.
+     *
+     * @return true if {@link #nextInt()} will return element
+     */
+    boolean hasNext();
+
+    /**
+     * Returns next element.
+     *
+     * @return next int value
+     * @throws java.util.NoSuchElementException if there are no more elements
+     */
+    int nextInt();
+}
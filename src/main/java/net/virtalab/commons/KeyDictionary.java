@@ -0,0 +1,154 @@
+package net.virtalab.commons;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe dictionary of Bundle keys. Each distinct key is stored once and gets
+ * small int id. Bundles using same dictionary keep same String instance for equal keys,
+ * so duplicates created by parsing are not retained and key comparison is reduced
+ * to a reference check.
+ * <p>
+ * Dictionary stops accepting new keys when its limit is reached, so it cannot grow
+ * without bound when keys come from untrusted input. Keys over the limit are used as is.
+ *
+ * @since 1.0
+ */
+public class KeyDictionary {
+
+    public static final int DEFAULT_MAX_KEYS = 65536;
+
+    private static final KeyDictionary SHARED = new KeyDictionary();
+
+    private final ConcurrentMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final int mMaxKeys;
+    private volatile String[] mKeys = new String[64];
+    private int mSize;
+
+    /**
+     * Returns dictionary shared by whole application.
+     *
+     * @return shared dictionary
+     */
+    public static KeyDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * Creates dictionary which holds up to {@link #DEFAULT_MAX_KEYS} keys.
+     */
+    public KeyDictionary() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * Creates dictionary which holds up to given number of keys.
+     *
+     * @param maxKeys max number of keys
+     */
+    public KeyDictionary(int maxKeys) {
+        if (maxKeys < 0) {
+            throw new IllegalArgumentException("Max keys cannot be negative");
+        }
+        this.mMaxKeys = maxKeys;
+    }
+
+    /**
+     * Returns canonical instance of given key, adding it to dictionary if needed.
+     *
+     * @param key a String, or null
+     * @return canonical String equal to key, or key itself if dictionary is full
+     */
+    public String canonicalize(String key) {
+        if (key == null) {
+            return null;
+        }
+        Entry e = mEntries.get(key);
+        if (e == null) {
+            e = add(key);
+        }
+        return e == null ? key : e.mKey;
+    }
+
+    /**
+     * Returns id of given key, adding it to dictionary if needed.
+     *
+     * @param key a String
+     * @return id of key, or -1 if key is null or dictionary is full
+     */
+    public int idOf(String key) {
+        if (key == null) {
+            return -1;
+        }
+        Entry e = mEntries.get(key);
+        if (e == null) {
+            e = add(key);
+        }
+        return e == null ? -1 : e.mId;
+    }
+
+    /**
+     * Returns id of given key without adding it.
+     *
+     * @param key a String
+     * @return id of key, or -1 if key is not in dictionary
+     */
+    public int find(String key) {
+        Entry e = key == null ? null : mEntries.get(key);
+        return e == null ? -1 : e.mId;
+    }
+
+    /**
+     * Returns key with given id.
+     *
+     * @param id id returned by {@link #idOf(String)}
+     * @return the key
+     * @throws IndexOutOfBoundsException if there is no key with given id
+     */
+    public String keyOf(int id) {
+        String[] keys = mKeys;
+        String key = id >= 0 && id < keys.length ? keys[id] : null;
+        if (key == null) {
+            throw new IndexOutOfBoundsException("No key with id " + id);
+        }
+        return key;
+    }
+
+    /**
+     * Returns number of keys in dictionary.
+     *
+     * @return number of keys
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    private synchronized Entry add(String key) {
+        Entry e = mEntries.get(key);
+        if (e != null || mSize >= mMaxKeys) {
+            return e;
+        }
+        String[] keys = mKeys;
+        if (mSize == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        // key could be a substring of larger parsed text, copy it to not retain that text
+        String canonical = new String(key);
+        keys[mSize] = canonical;
+        mKeys = keys;
+        e = new Entry(canonical, mSize++);
+        mEntries.put(canonical, e);
+        return e;
+    }
+
+    private static final class Entry {
+        private final String mKey;
+        private final int mId;
+
+        Entry(String key, int id) {
+            this.mKey = key;
+            this.mId = id;
+        }
+    }
+}
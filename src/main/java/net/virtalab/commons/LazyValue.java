@@ -0,0 +1,67 @@
+package net.virtalab.commons;
+
+import java.util.function.Supplier;
+
+/**
+ * Value computed by a {@link Supplier} on first read and then kept.
+ * Concurrent first reads compute the value once. When supplier throws,
+ * exception is passed to the reader and the next read calls supplier again.
+ *
+ * @since 1.0
+ */
+final class LazyValue extends StoredValue {
+
+    private final ValueType mType;
+    private volatile Supplier<?> mSupplier;
+    private Object mValue;
+
+    /**
+     * @param supplier supplier of the value, not null
+     * @param type     declared type of the value, or null if not known
+     */
+    LazyValue(Supplier<?> supplier, ValueType type) {
+        if (supplier == null) {
+            throw new IllegalArgumentException("Supplier cannot be null");
+        }
+        this.mSupplier = supplier;
+        this.mType = type;
+    }
+
+    @Override
+    Object resolve() {
+        // supplier is cleared after value is written, so reading it first publishes the value
+        if (mSupplier != null) {
+            synchronized (this) {
+                Supplier<?> supplier = mSupplier;
+                if (supplier != null) {
+                    mValue = supplier.get();
+                    mSupplier = null;
+                }
+            }
+        }
+        return mValue;
+    }
+
+    boolean isComputed() {
+        return mSupplier == null;
+    }
+
+    @Override
+    ValueType type() {
+        if (isComputed()) {
+            return ValueType.of(mValue);
+        }
+        return mType == null ? ValueType.OBJECT : mType;
+    }
+
+    @Override
+    long estimateRetainedBytes() {
+        long bytes = RetainedSize.align(RetainedSize.OBJECT_HEADER + 3 * RetainedSize.REFERENCE);
+        return isComputed() ? bytes + RetainedSize.of(mValue) : bytes;
+    }
+
+    @Override
+    public String toString() {
+        return isComputed() ? String.valueOf(mValue) : "<not computed>";
+    }
+}
@@ -0,0 +1,24 @@
+package net.virtalab.commons;
+
+/**
+ * Iterator over long values, which does not box elements.
+ *
+ * @since 1.0
+ */
+public interface LongIterator {
+
+    /**
+     * Returns true if iteration has more elements.
+     *
+     * @return true if {@link #nextLong()} will return element
+     */
+    boolean hasNext();
+
+    /**
+     * Returns next element.
+     *
+     * @return next long value
+     * @throws java.util.NoSuchElementException if there are no more elements
+     */
+    long nextLong();
+}
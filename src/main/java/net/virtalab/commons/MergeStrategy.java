@@ -0,0 +1,55 @@
+package net.virtalab.commons;
+
+/**
+ * Combines values of a key present in both Bundles when one Bundle is merged into another,
+ * see {@link Bundle#merge(Bundle, MergeStrategy)}.
+ * <p>
+ * Numeric strategies combine values of the same primitive type only. Values of different
+ * types, or of types strategy cannot combine, are replaced by the incoming value as
+ * {@link Bundle#putAll(Bundle)} does.
+ *
+ * @since 1.0
+ */
+public interface MergeStrategy {
+
+    /**
+     * Incoming value replaces existing one.
+     */
+    MergeStrategy OVERWRITE = BuiltInMergeStrategy.OVERWRITE;
+
+    /**
+     * Existing value is kept, incoming one is ignored.
+     */
+    MergeStrategy KEEP_EXISTING = BuiltInMergeStrategy.KEEP_EXISTING;
+
+    /**
+     * Numbers of the same type are added, integers overflow as Java arithmetic does.
+     */
+    MergeStrategy SUM = BuiltInMergeStrategy.SUM;
+
+    /**
+     * Greater of numbers or chars of the same type is kept.
+     */
+    MergeStrategy MAX = BuiltInMergeStrategy.MAX;
+
+    /**
+     * Lesser of numbers or chars of the same type is kept.
+     */
+    MergeStrategy MIN = BuiltInMergeStrategy.MIN;
+
+    /**
+     * Arrays of the same type and lists are concatenated into new array or list,
+     * existing elements first.
+     */
+    MergeStrategy CONCAT = BuiltInMergeStrategy.CONCAT;
+
+    /**
+     * Returns value to be stored for the key. Returning existing value leaves the mapping untouched.
+     *
+     * @param key      the key present in both Bundles
+     * @param existing value of this Bundle, or null
+     * @param incoming value of merged Bundle, or null
+     * @return value to store, or null
+     */
+    Object merge(String key, Object existing, Object incoming);
+}
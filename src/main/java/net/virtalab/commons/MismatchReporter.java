@@ -0,0 +1,24 @@
+package net.virtalab.commons;
+
+/**
+ * Receives notifications when a value stored in a {@link Bundle} is read
+ * through a getter of a different type.
+ *
+ * @since 1.0
+ */
+public interface MismatchReporter {
+
+    /**
+     * Called when a typed getter found a value of an unexpected type and
+     * returned the default value instead.
+     *
+     * @param key          the key that was read
+     * @param value        the value actually stored under the key, never null
+     * @param expectedType name of the type the getter expected
+     * @param defaultValue the value returned to the caller
+     * @param e            the exception raised by the failed cast, or null if no cast was attempted,
+     *                     e.g. when a coercing getter could not convert the value
+     */
+    void report(String key, Object value, String expectedType, Object defaultValue,
+                ClassCastException e);
+}
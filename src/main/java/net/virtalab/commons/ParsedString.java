@@ -0,0 +1,109 @@
+package net.virtalab.commons;
+
+/**
+ * String value together with results of its parsing by coercing getters, so repeated reads
+ * do not parse it again, also when getters of different types alternate. Resolves to the String,
+ * so other getters are not affected. Instances are immutable, parsing as another kind replaces
+ * the instance with one keeping results of all kinds parsed so far.
+ *
+ * @since 1.0
+ */
+final class ParsedString extends StoredValue {
+
+    static final int INT = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int BOOLEAN = 3;
+
+    final String mString;
+    // bits of kinds which were parsed, and of those which could be parsed
+    private final int mParsed;
+    private final int mValid;
+    // parsed values; int and long share the value, as they accept the same Strings
+    final long mLong;
+    final double mDouble;
+    final boolean mBoolean;
+
+    private ParsedString(String string, int parsed, int valid, long longValue, double doubleValue,
+                         boolean booleanValue) {
+        this.mString = string;
+        this.mParsed = parsed;
+        this.mValid = valid;
+        this.mLong = longValue;
+        this.mDouble = doubleValue;
+        this.mBoolean = booleanValue;
+    }
+
+    static ParsedString parse(String s, int kind) {
+        return new ParsedString(s, 0, 0, 0, 0, false).parse(kind);
+    }
+
+    /**
+     * Returns instance with results of this one and of parsing String as given kind.
+     */
+    ParsedString parse(int kind) {
+        if (isParsed(kind)) {
+            return this;
+        }
+        switch (kind) {
+            case INT:
+            case LONG:
+                int parsed = mParsed | 1 << INT | 1 << LONG;
+                try {
+                    long value = Long.parseLong(mString.trim());
+                    int valid = mValid | 1 << LONG;
+                    if (value == (int) value) {
+                        valid |= 1 << INT;
+                    }
+                    return new ParsedString(mString, parsed, valid, value, mDouble, mBoolean);
+                } catch (NumberFormatException e) {
+                    return new ParsedString(mString, parsed, mValid, 0, mDouble, mBoolean);
+                }
+            case DOUBLE:
+                try {
+                    double value = Double.parseDouble(mString);
+                    return new ParsedString(mString, mParsed | 1 << DOUBLE, mValid | 1 << DOUBLE,
+                            mLong, value, mBoolean);
+                } catch (NumberFormatException e) {
+                    return new ParsedString(mString, mParsed | 1 << DOUBLE, mValid, mLong, 0, mBoolean);
+                }
+            case BOOLEAN:
+                String t = mString.trim();
+                boolean value = t.equalsIgnoreCase("true");
+                int valid = value || t.equalsIgnoreCase("false") ? mValid | 1 << BOOLEAN : mValid;
+                return new ParsedString(mString, mParsed | 1 << BOOLEAN, valid, mLong, mDouble, value);
+            default:
+                throw new IllegalArgumentException("Unknown kind " + kind);
+        }
+    }
+
+    boolean isParsed(int kind) {
+        return (mParsed & 1 << kind) != 0;
+    }
+
+    // false if String could not be parsed as given kind
+    boolean isValid(int kind) {
+        return (mValid & 1 << kind) != 0;
+    }
+
+    @Override
+    Object resolve() {
+        return mString;
+    }
+
+    @Override
+    ValueType type() {
+        return ValueType.STRING;
+    }
+
+    @Override
+    long estimateRetainedBytes() {
+        return RetainedSize.align(RetainedSize.OBJECT_HEADER + RetainedSize.REFERENCE + 4 + 4 + 8 + 8 + 1)
+                + RetainedSize.stringBytes(mString);
+    }
+
+    @Override
+    public String toString() {
+        return mString;
+    }
+}
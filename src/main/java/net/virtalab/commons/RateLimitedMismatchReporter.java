@@ -0,0 +1,159 @@
+package net.virtalab.commons;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MismatchReporter} that logs at most a fixed number of warnings per key
+ * within a time window and counts the rest. The number of warnings suppressed
+ * for a key is logged together with the next warning for that key.
+ * <p>
+ * The stack trace of the failed cast is only logged at DEBUG level.
+ *
+ * @since 1.0
+ */
+public class RateLimitedMismatchReporter implements MismatchReporter {
+
+    private static final Logger Log = LoggerFactory.getLogger(Bundle.class);
+
+    public static final int DEFAULT_PERMITS = 1;
+    public static final long DEFAULT_INTERVAL_SECONDS = 60;
+    public static final int DEFAULT_MAX_TRACKED_KEYS = 1024;
+
+    private final int mPermits;
+    private final long mIntervalNanos;
+    private final int mMaxTrackedKeys;
+
+    private final ConcurrentMap<String, KeyState> mStates = new ConcurrentHashMap<>();
+    // shared by all keys seen after mMaxTrackedKeys distinct keys were tracked
+    private final KeyState mOverflow = new KeyState();
+
+    private final Counter mReported = new Counter();
+    private final Counter mSuppressed = new Counter();
+
+    /**
+     * Creates reporter which logs one warning per key per minute.
+     */
+    public RateLimitedMismatchReporter() {
+        this(DEFAULT_PERMITS, DEFAULT_INTERVAL_SECONDS, TimeUnit.SECONDS, DEFAULT_MAX_TRACKED_KEYS);
+    }
+
+    /**
+     * Creates reporter with given limits.
+     *
+     * @param permits        number of warnings logged per key within one interval, 0 only counts them
+     * @param interval       length of interval, positive
+     * @param unit           time unit of interval
+     * @param maxTrackedKeys number of keys that are limited separately. Keys seen after
+     *                       this number is reached share one common limit, 0 makes all keys share it.
+     */
+    public RateLimitedMismatchReporter(int permits, long interval, TimeUnit unit, int maxTrackedKeys) {
+        if (permits < 0 || interval <= 0 || maxTrackedKeys < 0) {
+            throw new IllegalArgumentException("Interval must be positive, permits and max tracked keys not negative");
+        }
+        this.mPermits = permits;
+        this.mIntervalNanos = unit.toNanos(interval);
+        this.mMaxTrackedKeys = maxTrackedKeys;
+    }
+
+    @Override
+    public void report(String key, Object value, String expectedType, Object defaultValue,
+                       ClassCastException e) {
+        long suppressedBefore = stateFor(key).acquire(System.nanoTime());
+        if (suppressedBefore < 0) {
+            mSuppressed.increment();
+            return;
+        }
+        mReported.increment();
+        if (Log.isWarnEnabled()) {
+            Log.warn("Key {} expected {} but value was a {}. The default value {} was returned.",
+                    key, expectedType, value.getClass().getName(), defaultValue);
+            if (suppressedBefore > 0) {
+                Log.warn("{} similar warnings for key {} were suppressed", suppressedBefore, key);
+            }
+        }
+        if (e != null && Log.isDebugEnabled()) {
+            Log.debug("Attempt to cast generated internal exception:", e);
+        }
+    }
+
+    /**
+     * Returns number of warnings logged by this reporter.
+     *
+     * @return number of logged warnings
+     */
+    public long getReportedCount() {
+        return mReported.get();
+    }
+
+    /**
+     * Returns number of warnings suppressed by this reporter for all keys.
+     *
+     * @return number of suppressed warnings
+     */
+    public long getSuppressedCount() {
+        return mSuppressed.get();
+    }
+
+    /**
+     * Returns number of warnings suppressed for given key since last logged warning for this key.
+     *
+     * @param key a String
+     * @return number of suppressed warnings, 0 if key was never reported or is not tracked separately
+     */
+    public long getSuppressedCount(String key) {
+        KeyState state = key == null ? null : mStates.get(key);
+        return state == null ? 0 : state.pending();
+    }
+
+    private KeyState stateFor(String key) {
+        if (key == null) {
+            return mOverflow;
+        }
+        KeyState state = mStates.get(key);
+        if (state != null) {
+            return state;
+        }
+        if (mStates.size() >= mMaxTrackedKeys) {
+            return mOverflow;
+        }
+        KeyState created = new KeyState();
+        state = mStates.putIfAbsent(key, created);
+        return state == null ? created : state;
+    }
+
+    private final class KeyState {
+        private long mWindowStart;
+        private int mUsed;
+        private long mPending;
+        private boolean mStarted;
+
+        /**
+         * @return -1 when report must be suppressed, otherwise number of reports
+         * suppressed since previous logged one
+         */
+        synchronized long acquire(long now) {
+            if (!mStarted || now - mWindowStart >= mIntervalNanos) {
+                mStarted = true;
+                mWindowStart = now;
+                mUsed = 0;
+            }
+            if (mUsed >= mPermits) {
+                mPending++;
+                return -1;
+            }
+            mUsed++;
+            long suppressed = mPending;
+            mPending = 0;
+            return suppressed;
+        }
+
+        synchronized long pending() {
+            return mPending;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.virtalab.commons;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Size model used to estimate heap retained by {@link Bundle} values.
+ * <p>
+ * Model assumes 64-bit JVM with compressed references and 8 byte object alignment.
+ * Boxed values which JVM caches (booleans, bytes and small numbers) retain nothing.
+ * Strings are assumed to be Latin-1 on JVMs with compact strings (Java 9+).
+ *
+ * @since 1.0
+ */
+final class RetainedSize {
+
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+
+    // HashMap itself and its node
+    static final int HASH_MAP = 48;
+    static final int HASH_MAP_NODE = 32;
+    // TreeMap itself and its entry
+    static final int TREE_MAP = 48;
+    static final int TREE_MAP_ENTRY = 40;
+
+    private static final int ARRAY_LIST = 24;
+    private static final int LINKED_LIST = 32;
+    private static final int LINKED_LIST_NODE = 24;
+    private static final int HASH_SET = 16;
+    private static final int BOXED = 16;
+    private static final int BOXED_WIDE = 24;
+    private static final int STRING = 24;
+
+    private static final int MAX_DEPTH = 8;
+
+    private static final boolean COMPACT_STRINGS =
+            !System.getProperty("java.specification.version", "").startsWith("1.");
+
+    private RetainedSize() {
+    }
+
+    static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    static long arrayBytes(int length, int elementSize) {
+        return align(ARRAY_HEADER + (long) length * elementSize);
+    }
+
+    static long stringBytes(String s) {
+        return STRING + arrayBytes(s.length(), COMPACT_STRINGS ? 1 : 2);
+    }
+
+    // table of HashMap holding given number of mappings with default load factor
+    static long hashTableBytes(int size) {
+        if (size == 0) {
+            return 0;
+        }
+        int table = Integer.highestOneBit(Math.max(size * 4 / 3, 1) - 1) << 1;
+        return arrayBytes(Math.max(table, 16), REFERENCE);
+    }
+
+    static long of(Object value) {
+        return of(value, 0);
+    }
+
+    private static long of(Object value, int depth) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return stringBytes((String) value);
+        } else if (value instanceof StoredValue) {
+            return ((StoredValue) value).estimateRetainedBytes();
+        } else if (value instanceof Integer) {
+            int i = (Integer) value;
+            return i >= -128 && i <= 127 ? 0 : BOXED;
+        } else if (value instanceof Long) {
+            long l = (Long) value;
+            return l >= -128 && l <= 127 ? 0 : BOXED_WIDE;
+        } else if (value instanceof Double) {
+            return BOXED_WIDE;
+        } else if (value instanceof Boolean || value instanceof Byte) {
+            return 0;
+        } else if (value instanceof Float) {
+            return BOXED;
+        } else if (value instanceof Short) {
+            short s = (Short) value;
+            return s >= -128 && s <= 127 ? 0 : BOXED;
+        } else if (value instanceof Character) {
+            return (Character) value <= 127 ? 0 : BOXED;
+        } else if (value instanceof Bundle) {
+            return depth < MAX_DEPTH ? ((Bundle) value).estimateRetainedBytes() : 0;
+        } else if (value instanceof Collection) {
+            return collectionBytes((Collection<?>) value, depth);
+        } else if (!value.getClass().isArray()) {
+            return align(OBJECT_HEADER + REFERENCE);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            long size = arrayBytes(array.length, REFERENCE);
+            if (depth < MAX_DEPTH) {
+                for (Object element : array) {
+                    size += of(element, depth + 1);
+                }
+            }
+            return size;
+        } else if (value instanceof byte[]) {
+            return arrayBytes(((byte[]) value).length, 1);
+        } else if (value instanceof int[]) {
+            return arrayBytes(((int[]) value).length, 4);
+        } else if (value instanceof long[]) {
+            return arrayBytes(((long[]) value).length, 8);
+        } else if (value instanceof double[]) {
+            return arrayBytes(((double[]) value).length, 8);
+        } else if (value instanceof float[]) {
+            return arrayBytes(((float[]) value).length, 4);
+        } else if (value instanceof short[]) {
+            return arrayBytes(((short[]) value).length, 2);
+        } else if (value instanceof char[]) {
+            return arrayBytes(((char[]) value).length, 2);
+        } else {
+            return arrayBytes(((boolean[]) value).length, 1);
+        }
+    }
+
+    private static long collectionBytes(Collection<?> collection, int depth) {
+        int size = collection.size();
+        long bytes;
+        if (collection instanceof List && collection instanceof RandomAccess) {
+            bytes = ARRAY_LIST + arrayBytes(size, REFERENCE);
+        } else if (collection instanceof List) {
+            bytes = LINKED_LIST + (long) size * LINKED_LIST_NODE;
+        } else if (collection instanceof Set) {
+            bytes = HASH_SET + HASH_MAP + hashTableBytes(size) + (long) size * HASH_MAP_NODE;
+        } else {
+            bytes = align(OBJECT_HEADER + REFERENCE) + arrayBytes(size, REFERENCE);
+        }
+        if (depth >= MAX_DEPTH) {
+            return bytes;
+        }
+        if (collection instanceof List && collection instanceof RandomAccess) {
+            List<?> list = (List<?>) collection;
+            for (int i = 0; i < size; i++) {
+                bytes += of(list.get(i), depth + 1);
+            }
+        } else {
+            for (Object element : collection) {
+                bytes += of(element, depth + 1);
+            }
+        }
+        return bytes;
+    }
+}
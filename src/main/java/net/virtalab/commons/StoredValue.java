@@ -0,0 +1,33 @@
+package net.virtalab.commons;
+
+/**
+ * Value kept in a {@link Bundle} in some internal representation, which has to be
+ * resolved before it is handed out to the caller.
+ *
+ * @since 1.0
+ */
+abstract class StoredValue {
+
+    /**
+     * Returns the value as it was put into the Bundle.
+     *
+     * @return the value, or null
+     */
+    abstract Object resolve();
+
+    /**
+     * Returns type of the value as it was put into the Bundle.
+     *
+     * @return type of resolved value
+     */
+    ValueType type() {
+        return ValueType.of(resolve());
+    }
+
+    /**
+     * Returns estimated number of bytes retained by this representation.
+     *
+     * @return retained size in bytes
+     */
+    abstract long estimateRetainedBytes();
+}
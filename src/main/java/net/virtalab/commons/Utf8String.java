@@ -0,0 +1,241 @@
+package net.virtalab.commons;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * String kept as UTF-8 bytes in a slice of byte array shared with other strings of the same
+ * Bundle, see {@link Bundle#setCompactStrings(boolean)}. Slices are immutable, so Bundles which
+ * copy the value share it. Resolves to new String on every read, unless it is {@link Cached}.
+ * <p>
+ * Unpaired surrogates are stored as '?', as {@link String#getBytes(java.nio.charset.Charset)} does.
+ *
+ * @since 1.0
+ */
+class Utf8String extends StoredValue {
+
+    // header, array reference and two ints
+    private static final int SHALLOW_SIZE = 24;
+
+    final byte[] mBytes;
+    final int mOffset;
+    final int mLength;
+
+    Utf8String(byte[] bytes, int offset, int length) {
+        this.mBytes = bytes;
+        this.mOffset = offset;
+        this.mLength = length;
+    }
+
+    @Override
+    Object resolve() {
+        return new String(mBytes, mOffset, mLength, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    ValueType type() {
+        return ValueType.STRING;
+    }
+
+    @Override
+    long estimateRetainedBytes() {
+        // chunk is shared, only bytes of this slice are counted
+        return SHALLOW_SIZE + mLength;
+    }
+
+    ByteSequence bytes() {
+        return ByteSequence.of(mBytes, mOffset, mLength);
+    }
+
+    boolean contentEquals(CharSequence chars) {
+        return equals(mBytes, mOffset, mLength, chars);
+    }
+
+    // encoding is canonical, so equal strings have equal bytes
+    boolean contentEquals(Utf8String other) {
+        return mLength == other.mLength && ByteWords.equals(mBytes, mOffset, other.mBytes, other.mOffset, mLength);
+    }
+
+    @Override
+    public String toString() {
+        return (String) resolve();
+    }
+
+    /**
+     * Slice which keeps String once it was read.
+     */
+    static final class Cached extends Utf8String {
+
+        // racy but safe, as String is immutable
+        private String mString;
+
+        Cached(byte[] bytes, int offset, int length) {
+            super(bytes, offset, length);
+        }
+
+        @Override
+        Object resolve() {
+            String s = mString;
+            if (s == null) {
+                s = (String) super.resolve();
+                mString = s;
+            }
+            return s;
+        }
+
+        @Override
+        boolean contentEquals(CharSequence chars) {
+            String s = mString;
+            return s != null ? s.contentEquals(chars) : super.contentEquals(chars);
+        }
+
+        @Override
+        long estimateRetainedBytes() {
+            long bytes = SHALLOW_SIZE + RetainedSize.REFERENCE + mLength;
+            String s = mString;
+            return s == null ? bytes : bytes + RetainedSize.stringBytes(s);
+        }
+    }
+
+    /**
+     * Chunks of bytes into which strings of a Bundle are appended. Chunk is released by garbage
+     * collector once no value refers to it, so space of replaced values is reclaimed with whole
+     * chunks. Arena is not thread-safe, it is used by writers of a Bundle only.
+     */
+    static final class Arena {
+
+        private static final int CHUNK_SIZE = 8192;
+        // larger strings get their own array
+        private static final int MAX_SHARED = CHUNK_SIZE / 4;
+
+        private final boolean mCaching;
+        private byte[] mChunk;
+        private int mPosition;
+
+        Arena(boolean caching) {
+            this.mCaching = caching;
+        }
+
+        boolean isCaching() {
+            return mCaching;
+        }
+
+        Utf8String add(String s) {
+            int length = encodedLength(s);
+            byte[] bytes;
+            int offset;
+            if (length > MAX_SHARED) {
+                bytes = new byte[length];
+                offset = 0;
+            } else {
+                if (mChunk == null || mChunk.length - mPosition < length) {
+                    mChunk = new byte[CHUNK_SIZE];
+                    mPosition = 0;
+                }
+                bytes = mChunk;
+                offset = mPosition;
+                mPosition += length;
+            }
+            encode(s, bytes, offset);
+            return mCaching ? new Cached(bytes, offset, length) : new Utf8String(bytes, offset, length);
+        }
+    }
+
+    static int encodedLength(CharSequence s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // pair of chars takes 4 bytes
+                    bytes += 2;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // replaced by '?'
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // writes UTF-8 bytes of s, returns position after them
+    static int encode(CharSequence s, byte[] bytes, int position) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | c >> 6);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | cp >> 18);
+                bytes[position++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                bytes[position++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                bytes[position++] = '?';
+            } else {
+                bytes[position++] = (byte) (0xE0 | c >> 12);
+                bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return position;
+    }
+
+    // compares well-formed UTF-8 bytes with chars without decoding them into String
+    static boolean equals(byte[] bytes, int offset, int length, CharSequence chars) {
+        int count = chars.length();
+        // every char takes at least one and at most three bytes
+        if (count > length || 3L * count < length) {
+            return false;
+        }
+        int c = 0;
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            int b = bytes[i];
+            if (b >= 0) {
+                if (c >= count || chars.charAt(c) != b) {
+                    return false;
+                }
+                c++;
+                i++;
+                continue;
+            }
+            int cp;
+            if ((b & 0xE0) == 0xC0) {
+                cp = (b & 0x1F) << 6 | bytes[i + 1] & 0x3F;
+                i += 2;
+            } else if ((b & 0xF0) == 0xE0) {
+                cp = (b & 0x0F) << 12 | (bytes[i + 1] & 0x3F) << 6 | bytes[i + 2] & 0x3F;
+                i += 3;
+            } else {
+                cp = (b & 0x07) << 18 | (bytes[i + 1] & 0x3F) << 12 | (bytes[i + 2] & 0x3F) << 6
+                        | bytes[i + 3] & 0x3F;
+                i += 4;
+            }
+            if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if (c >= count || chars.charAt(c) != cp) {
+                    return false;
+                }
+                c++;
+            } else {
+                if (c + 1 >= count || chars.charAt(c) != Character.highSurrogate(cp)
+                        || chars.charAt(c + 1) != Character.lowSurrogate(cp)) {
+                    return false;
+                }
+                c += 2;
+            }
+        }
+        return c == count;
+    }
+}
@@ -0,0 +1,135 @@
+package net.virtalab.commons;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * String array or list of Strings kept as UTF-8 bytes of all elements in single array,
+ * see {@link Bundle#setCompactStrings(boolean)}. Array resolves to new String[] on every read,
+ * list resolves to unmodifiable list which decodes elements when they are read.
+ *
+ * @since 1.0
+ */
+final class Utf8StringArray extends StoredValue {
+
+    private final byte[] mBytes;
+    // end of each element in mBytes, complement of end for null element
+    private final int[] mEnds;
+    private final boolean mList;
+
+    private Utf8StringArray(byte[] bytes, int[] ends, boolean list) {
+        this.mBytes = bytes;
+        this.mEnds = ends;
+        this.mList = list;
+    }
+
+    static Utf8StringArray of(String[] strings) {
+        return encode(strings, false);
+    }
+
+    /**
+     * Returns compact form of collection, or null if it has other elements than Strings.
+     */
+    static Utf8StringArray of(Collection<?> strings) {
+        for (Object element : strings) {
+            if (element != null && !(element instanceof String)) {
+                return null;
+            }
+        }
+        return encode(strings.toArray(new String[strings.size()]), true);
+    }
+
+    private static Utf8StringArray encode(String[] strings, boolean list) {
+        int length = 0;
+        for (String s : strings) {
+            if (s != null) {
+                length += Utf8String.encodedLength(s);
+            }
+        }
+        byte[] bytes = new byte[length];
+        int[] ends = new int[strings.length];
+        int position = 0;
+        for (int i = 0; i < strings.length; i++) {
+            String s = strings[i];
+            if (s == null) {
+                ends[i] = ~position;
+            } else {
+                position = Utf8String.encode(s, bytes, position);
+                ends[i] = position;
+            }
+        }
+        return new Utf8StringArray(bytes, ends, list);
+    }
+
+    int size() {
+        return mEnds.length;
+    }
+
+    boolean isList() {
+        return mList;
+    }
+
+    byte[] bytes() {
+        return mBytes;
+    }
+
+    // end of element in bytes(), or -1 for null element
+    int end(int index) {
+        int end = mEnds[index];
+        return end < 0 ? -1 : end;
+    }
+
+    String get(int index) {
+        int end = mEnds[index];
+        if (end < 0) {
+            return null;
+        }
+        int start = start(index);
+        return new String(mBytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    int start(int index) {
+        if (index == 0) {
+            return 0;
+        }
+        int end = mEnds[index - 1];
+        return end < 0 ? ~end : end;
+    }
+
+    @Override
+    Object resolve() {
+        if (mList) {
+            return new Strings();
+        }
+        String[] strings = new String[mEnds.length];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = get(i);
+        }
+        return strings;
+    }
+
+    @Override
+    ValueType type() {
+        return mList ? ValueType.LIST : ValueType.STRING_ARRAY;
+    }
+
+    @Override
+    long estimateRetainedBytes() {
+        return RetainedSize.align(RetainedSize.OBJECT_HEADER + 2 * RetainedSize.REFERENCE + 1)
+                + RetainedSize.arrayBytes(mBytes.length, 1) + RetainedSize.arrayBytes(mEnds.length, 4);
+    }
+
+    private final class Strings extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(int index) {
+            return Utf8StringArray.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return mEnds.length;
+        }
+    }
+}
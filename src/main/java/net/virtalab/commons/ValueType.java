@@ -0,0 +1,96 @@
+package net.virtalab.commons;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Type of value stored in a {@link Bundle}.
+ *
+ * @since 1.0
+ */
+public enum ValueType {
+    NULL,
+    BOOLEAN,
+    BYTE,
+    CHAR,
+    SHORT,
+    INT,
+    LONG,
+    FLOAT,
+    DOUBLE,
+    STRING,
+    BOOLEAN_ARRAY,
+    BYTE_ARRAY,
+    CHAR_ARRAY,
+    SHORT_ARRAY,
+    INT_ARRAY,
+    LONG_ARRAY,
+    FLOAT_ARRAY,
+    DOUBLE_ARRAY,
+    STRING_ARRAY,
+    OBJECT_ARRAY,
+    LIST,
+    COLLECTION,
+    BUNDLE,
+    OBJECT;
+
+    /**
+     * Returns type of given value.
+     *
+     * @param value a value, or null
+     * @return type of value
+     */
+    public static ValueType of(Object value) {
+        if (value == null) {
+            return NULL;
+        } else if (value instanceof StoredValue) {
+            return ((StoredValue) value).type();
+        } else if (value instanceof String) {
+            return STRING;
+        } else if (value instanceof Integer) {
+            return INT;
+        } else if (value instanceof Long) {
+            return LONG;
+        } else if (value instanceof Double) {
+            return DOUBLE;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof Float) {
+            return FLOAT;
+        } else if (value instanceof Short) {
+            return SHORT;
+        } else if (value instanceof Byte) {
+            return BYTE;
+        } else if (value instanceof Character) {
+            return CHAR;
+        } else if (value instanceof List) {
+            return LIST;
+        } else if (value instanceof Collection) {
+            return COLLECTION;
+        } else if (value instanceof Bundle) {
+            return BUNDLE;
+        } else if (!value.getClass().isArray()) {
+            return OBJECT;
+        } else if (value instanceof String[]) {
+            return STRING_ARRAY;
+        } else if (value instanceof Object[]) {
+            return OBJECT_ARRAY;
+        } else if (value instanceof byte[]) {
+            return BYTE_ARRAY;
+        } else if (value instanceof int[]) {
+            return INT_ARRAY;
+        } else if (value instanceof long[]) {
+            return LONG_ARRAY;
+        } else if (value instanceof double[]) {
+            return DOUBLE_ARRAY;
+        } else if (value instanceof float[]) {
+            return FLOAT_ARRAY;
+        } else if (value instanceof short[]) {
+            return SHORT_ARRAY;
+        } else if (value instanceof char[]) {
+            return CHAR_ARRAY;
+        } else {
+            return BOOLEAN_ARRAY;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package net.virtalab.commons;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bundle shared by many threads, read through snapshots.
+ * <p>
+ * Every commit publishes new read-only version of the Bundle. {@link #snapshot()} returns current
+ * version without copying or locking, and snapshot never changes, so readers see all keys from one
+ * version, e.g. host and port written together, while writers continue. Commits are serialized and
+ * each one is atomic: readers see all changes of a commit or none of them. Old version is reclaimed
+ * by garbage collector once no snapshot refers to it.
+ * <p>
+ * Commit copies current version, so it costs time proportional to number of entries. Changes of
+ * many keys should be made in one commit. Arrays read from versions are shared by versions and
+ * must not be modified.
+ *
+ * @since 1.0
+ */
+public final class VersionedBundle {
+
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+    private volatile Version mCurrent;
+
+    /**
+     * Creates empty VersionedBundle.
+     */
+    public VersionedBundle() {
+        this(new Bundle());
+    }
+
+    /**
+     * Creates VersionedBundle with copy of given Bundle as first version. Settings of the
+     * Bundle, e.g. its key dictionary, are kept by all versions.
+     *
+     * @param initial a Bundle
+     */
+    public VersionedBundle(Bundle initial) {
+        Bundle first = new Bundle(initial, false);
+        first.freeze();
+        mCurrent = new Version(first, 0);
+    }
+
+    /**
+     * Returns current version. Does not block.
+     *
+     * @return read-only Bundle which never changes
+     */
+    public Bundle snapshot() {
+        return mCurrent.mBundle;
+    }
+
+    /**
+     * Returns number of commits made so far.
+     *
+     * @return number of current version
+     */
+    public long getVersion() {
+        return mCurrent.mNumber;
+    }
+
+    /**
+     * Atomically changes the Bundle. Changes are published when updater returns,
+     * when it throws no change is published.
+     *
+     * @param updater changes writable copy of current version
+     * @return new version
+     */
+    public Bundle commit(BundleUpdater updater) {
+        mWriteLock.lock();
+        try {
+            return commitLocked(updater);
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Atomically changes the Bundle, if no other commit was made since given version.
+     *
+     * @param expectedVersion number of version on which changes are based
+     * @param updater         changes writable copy of current version
+     * @return new version, or null if current version has other number
+     * @see #getVersion()
+     */
+    public Bundle commit(long expectedVersion, BundleUpdater updater) {
+        mWriteLock.lock();
+        try {
+            if (mCurrent.mNumber != expectedVersion) {
+                return null;
+            }
+            return commitLocked(updater);
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    private Bundle commitLocked(BundleUpdater updater) {
+        Version current = mCurrent;
+        Bundle next = new Bundle(current.mBundle, false);
+        updater.update(next);
+        next.freeze();
+        mCurrent = new Version(next, current.mNumber + 1);
+        return next;
+    }
+
+    /**
+     * Commits single value.
+     *
+     * @param key   a String, or null
+     * @param value an Object, or null
+     * @return new version
+     */
+    public Bundle put(final String key, final Object value) {
+        return commit(new BundleUpdater() {
+            @Override
+            public void update(Bundle bundle) {
+                bundle.put(key, value);
+            }
+        });
+    }
+
+    /**
+     * Commits removal of single key.
+     *
+     * @param key a String, or null
+     * @return new version
+     */
+    public Bundle remove(final String key) {
+        return commit(new BundleUpdater() {
+            @Override
+            public void update(Bundle bundle) {
+                bundle.remove(key);
+            }
+        });
+    }
+
+    // Bundle and its number, published together
+    private static final class Version {
+        final Bundle mBundle;
+        final long mNumber;
+
+        Version(Bundle bundle, long number) {
+            this.mBundle = bundle;
+            this.mNumber = number;
+        }
+    }
+}
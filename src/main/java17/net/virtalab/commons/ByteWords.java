@@ -0,0 +1,31 @@
+package net.virtalab.commons;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Word-wise reads and comparisons of byte arrays.
+ * <p>
+ * Implementation for Java 17+, which reads whole word at once through a byte array view
+ * and compares ranges with vectorized mismatch intrinsic.
+ *
+ * @since 1.0
+ */
+final class ByteWords {
+
+    private static final VarHandle LONG_LE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private ByteWords() {
+    }
+
+    static long getLongLE(byte[] b, int i) {
+        return (long) LONG_LE.get(b, i);
+    }
+
+    static boolean equals(byte[] a, int aFrom, byte[] b, int bFrom, int length) {
+        return Arrays.equals(a, aFrom, aFrom + length, b, bFrom, bFrom + length);
+    }
+}
@@ -0,0 +1,60 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.ByteSequence;
+import net.virtalab.commons.IntArrayView;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Testing read-only array views and immutable array storage
+ *
+ * @since 1.0
+ */
+public class ArrayViewTest {
+    @Test
+    public void viewsExposeElementsWithoutCopy() {
+        int[] values = {1, 2, 3};
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putIntArray("ints", values);
+
+        IntArrayView view = bundle.getIntArrayView("ints");
+        values[0] = 10;
+
+        assertEquals(3, view.length());
+        assertEquals(10, view.get(0));
+        assertNull(bundle.getLongArrayView("ints"));
+    }
+
+    @Test
+    public void immutableBundleIsNotAffectedByCallers() {
+        int[] values = {1, 2, 3};
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.setImmutableArrays(true);
+        bundle.putIntArray("ints", values);
+
+        values[0] = 10;
+        bundle.getIntArray("ints")[1] = 20;
+
+        assertArrayEquals(new int[]{1, 2, 3}, bundle.getIntArrayView("ints").toArray());
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void byteSequenceCannotBeWrittenThroughBuffer() {
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putByteArray("bytes", new byte[]{1, 2, 3, 4});
+
+        ByteSequence bytes = bundle.getByteSequence("bytes").subSequence(1, 3);
+        assertEquals(2, bytes.length());
+        assertEquals(3, bytes.byteAt(1));
+
+        ByteBuffer buffer = bytes.asReadOnlyBuffer();
+        buffer.put((byte) 0);
+    }
+}
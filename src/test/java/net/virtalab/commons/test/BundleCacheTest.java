@@ -0,0 +1,145 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleCache;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Testing cache keyed by Bundle content
+ *
+ * @since 1.0
+ */
+public class BundleCacheTest {
+    @Test
+    public void bundlesWithEqualContentShareEntry() {
+        BundleCache<String> cache = new BundleCache<>(10);
+        Bundle first = Bundle.createEmptyBundle();
+        first.putString("q", "shoes");
+        first.putIntArray("sizes", new int[]{42, 43});
+        Bundle second = Bundle.createEmptyBundle();
+        second.putIntArray("sizes", new int[]{42, 43});
+        second.putString("q", "shoes");
+
+        cache.put(first, "result");
+
+        assertEquals("result", cache.getIfPresent(second));
+        second.putInt("page", 2);
+        assertNull(cache.getIfPresent(second));
+        assertEquals(1, cache.stats().getHitCount());
+        assertEquals(1, cache.stats().getMissCount());
+    }
+
+    @Test
+    public void entriesReadAgainSurviveScanOfNewEntries() {
+        BundleCache<Integer> cache = new BundleCache<>(10);
+        Bundle hot = Bundle.forSingleKeyValue("id", "hot");
+        cache.put(hot, 0);
+        cache.getIfPresent(hot);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(Bundle.forSingleKeyValue("id", "cold" + i), i);
+        }
+
+        assertEquals(Integer.valueOf(0), cache.getIfPresent(hot));
+        assertEquals(10, cache.size());
+        assertEquals(91, cache.stats().getEvictionCount());
+    }
+
+    @Test
+    public void weightBoundsCache() {
+        BundleCache<String> cache = new BundleCache<>(10, new BundleCache.Weigher<String>() {
+            @Override
+            public long weigh(Bundle key, String value) {
+                return value.length();
+            }
+        }, 0, TimeUnit.SECONDS);
+
+        cache.put(Bundle.forSingleKeyValue("k", "1"), "12345");
+        cache.put(Bundle.forSingleKeyValue("k", "2"), "12345");
+        cache.put(Bundle.forSingleKeyValue("k", "3"), "123");
+
+        assertEquals(8, cache.weight());
+        assertNull(cache.getIfPresent(Bundle.forSingleKeyValue("k", "1")));
+    }
+
+    @Test
+    public void keysDoNotChangeWhenTheirValuesExpire() throws Exception {
+        BundleCache<String> cache = new BundleCache<>(10);
+        Bundle key = Bundle.createEmptyBundle();
+        key.putString("id", "1");
+        key.putString("session", "abc", 20, TimeUnit.MILLISECONDS);
+        cache.put(key, "cached");
+        Bundle probe = Bundle.createEmptyBundle();
+        probe.putString("id", "1");
+        probe.putString("session", "abc");
+
+        Thread.sleep(40);
+
+        assertEquals("cached", cache.getIfPresent(probe));
+        assertNull(cache.getIfPresent(key));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void entriesExpireAfterWrite() throws Exception {
+        BundleCache<String> cache = new BundleCache<>(10, null, 1, TimeUnit.MILLISECONDS);
+        Bundle key = Bundle.forSingleKeyValue("k", "v");
+        cache.put(key, "value");
+
+        Thread.sleep(5);
+
+        assertNull(cache.getIfPresent(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void concurrentLoadsOfSameContentAreCollapsed() throws Exception {
+        final BundleCache<String> cache = new BundleCache<>(10);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final BundleCache.Loader<String> loader = new BundleCache.Loader<String>() {
+            @Override
+            public String load(Bundle key) throws Exception {
+                loads.incrementAndGet();
+                Thread.sleep(50);
+                return key.getString("k").toUpperCase();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        start.await();
+                        return cache.get(Bundle.forSingleKeyValue("k", "v"), loader);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<String> result : results) {
+                assertEquals("V", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, loads.get());
+        assertNotNull(cache.getIfPresent(Bundle.forSingleKeyValue("k", "v")));
+    }
+}
@@ -0,0 +1,152 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleCodec;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing binary Bundle layout
+ *
+ * @since 1.0
+ */
+public class BundleCodecTest {
+    @Test
+    public void allSupportedValuesSurviveRoundTrip() throws IOException {
+        Bundle nested = Bundle.forSingleKeyValue("inner", "value");
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putBoolean("boolean", true);
+        bundle.putByte("byte", (byte) -1);
+        bundle.putChar("char", 'ж');
+        bundle.putShort("short", (short) 300);
+        bundle.putInt("int", -5);
+        bundle.putLong("long", Long.MIN_VALUE);
+        bundle.putFloat("float", 1.5f);
+        bundle.putDouble("double", Math.PI);
+        bundle.putString("string", "příliš");
+        bundle.putString("null", null);
+        bundle.putByteArray("bytes", new byte[]{1, 2, 3});
+        bundle.putIntArray("ints", new int[]{1, -2, 3});
+        bundle.putLongArray("longs", new long[]{Long.MAX_VALUE});
+        bundle.putDoubleArray("doubles", new double[]{0.1, 0.2});
+        bundle.putStringArray("strings", new String[]{"a", null});
+        bundle.putCompressedLongArray("compressed", new long[]{10, 20, 30});
+        bundle.putStringList("list", Arrays.asList("x", "y"));
+        bundle.putIntCollection("set", new HashSet<>(Collections.singleton(7)));
+        bundle.put("bundle", nested);
+
+        Bundle decoded = BundleCodec.decode(BundleCodec.encode(bundle));
+
+        assertEquals(bundle.size(), decoded.size());
+        assertTrue(decoded.containsKey("null"));
+        assertNull(decoded.getString("null"));
+        assertEquals(Arrays.asList(7), decoded.get("set"));
+        decoded.put("set", bundle.get("set"));
+        assertTrue(bundle.contentEquals(decoded));
+        assertArrayEquals(new long[]{10, 20, 30}, decoded.getLongArray("compressed"));
+    }
+
+    @Test
+    public void orderedBundleStaysOrdered() throws IOException {
+        Bundle bundle = Bundle.createOrderedBundle();
+        bundle.putInt("b", 2);
+        bundle.putInt("a", 1);
+
+        Bundle decoded = BundleCodec.decode(BundleCodec.encodeToBuffer(bundle));
+
+        assertTrue(decoded.isOrdered());
+        assertEquals("a", decoded.keySet().iterator().next());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedDataIsRejected() throws IOException {
+        Bundle bundle = Bundle.forSingleKeyValue("key", "value");
+        byte[] data = BundleCodec.encode(bundle);
+
+        BundleCodec.decode(Arrays.copyOf(data, data.length - 2));
+    }
+
+    @Test
+    public void compressedArraysSurviveRoundTrip() throws IOException {
+        Random random = new Random(7);
+        long[] longs = new long[500];
+        int[] ints = new int[500];
+        double[] doubles = new double[500];
+        boolean[] booleans = new boolean[13];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = random.nextLong() >> random.nextInt(64);
+            ints[i] = random.nextInt() >> random.nextInt(32);
+            doubles[i] = i % 5 == 0 ? doubles[Math.max(i - 1, 0)] : random.nextGaussian() * i;
+        }
+        for (int i = 0; i < booleans.length; i++) {
+            booleans[i] = random.nextBoolean();
+        }
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putCompressedLongArray("longs", longs);
+        bundle.putCompressedIntArray("ints", ints);
+        bundle.putCompressedDoubleArray("doubles", doubles);
+        bundle.putCompressedBooleanArray("booleans", booleans);
+        bundle.putCompressedDoubleArray("empty", new double[0]);
+
+        Bundle decoded = BundleCodec.decode(BundleCodec.encode(bundle));
+
+        assertArrayEquals(longs, decoded.getLongArray("longs"));
+        assertArrayEquals(ints, decoded.getIntArray("ints"));
+        assertArrayEquals(doubles, decoded.getDoubleArray("doubles"), 0.0);
+        assertArrayEquals(booleans, (boolean[]) decoded.get("booleans"));
+        assertEquals(0, decoded.getDoubleArray("empty").length);
+    }
+
+    @Test(expected = IOException.class)
+    public void compressedArrayLongerThanItsDataIsRejected() throws IOException {
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putCompressedLongArray("k", new long[]{1, 2, 3});
+        byte[] data = BundleCodec.encode(bundle);
+        // magic, version, flags, count, key length, key and tag precede array length
+        int lengthOffset = 4 + 1 + 1 + 4 + 4 + 1 + 1;
+        data[lengthOffset] = 0x7F;
+
+        BundleCodec.decode(data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void arbitraryObjectsCannotBeEncoded() {
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.put("object", new Object());
+
+        BundleCodec.encode(bundle);
+    }
+
+    @Test
+    public void entriesKeepTimeToLiveAndExpiredOnesAreLeftOut() throws Exception {
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putString("expired", "x", 1, TimeUnit.MILLISECONDS);
+        bundle.putString("short", "y", 100, TimeUnit.MILLISECONDS);
+        bundle.putLong("long", 7L, 1, TimeUnit.HOURS);
+        bundle.putInt("permanent", 1);
+        Thread.sleep(10);
+
+        Bundle decoded = BundleCodec.decode(BundleCodec.encode(bundle));
+
+        assertEquals(3, decoded.size());
+        assertFalse(decoded.containsKey("expired"));
+        assertEquals("y", decoded.getString("short"));
+        assertEquals(7L, decoded.getLong("long"));
+        Thread.sleep(150);
+        assertFalse(decoded.containsKey("short"));
+        assertEquals(7L, decoded.getLong("long"));
+        assertEquals(1, decoded.getInt("permanent"));
+    }
+}
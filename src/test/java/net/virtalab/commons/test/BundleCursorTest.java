@@ -0,0 +1,126 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleCursor;
+import net.virtalab.commons.ValueType;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing cursor over Bundle entries
+ *
+ * @since 1.0
+ */
+public class BundleCursorTest {
+    @Test
+    public void cursorWalksAllEntriesWithTheirTypes() {
+        Bundle bundle = Bundle.createOrderedBundle();
+        bundle.putInt("a", 1);
+        bundle.putLong("b", 2L);
+        bundle.putDouble("c", 0.5);
+        bundle.putString("d", "text");
+        bundle.putCompressedLongArray("e", new long[]{7, 8});
+        bundle.putBoolean("f", true);
+
+        BundleCursor cursor = bundle.cursor();
+        long sum = 0;
+        double doubles = 0;
+        int count = 0;
+        while (cursor.next()) {
+            count++;
+            ValueType type = cursor.type();
+            if (type == ValueType.INT || type == ValueType.LONG) {
+                sum += cursor.longValue();
+            } else if (type == ValueType.DOUBLE) {
+                doubles += cursor.doubleValue();
+            } else if (type == ValueType.LONG_ARRAY) {
+                assertArrayEquals(new long[]{7, 8}, (long[]) cursor.objectValue());
+            } else if (type == ValueType.BOOLEAN) {
+                assertTrue(cursor.booleanValue());
+            } else {
+                assertEquals("d", cursor.key());
+                assertEquals("text", cursor.objectValue());
+            }
+        }
+
+        assertEquals(6, count);
+        assertEquals(3, sum);
+        assertEquals(0.5, doubles, 0.0);
+        cursor.reset();
+        assertTrue(cursor.next());
+        assertEquals("a", cursor.key());
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void readingWrongTypeFails() {
+        Bundle bundle = Bundle.forSingleKeyValue("key", "value");
+        BundleCursor cursor = bundle.cursor();
+        cursor.next();
+        cursor.longValue();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cursorOfEmptyBundleHasNoEntry() {
+        BundleCursor cursor = Bundle.createEmptyBundle().cursor();
+        assertFalse(cursor.next());
+        cursor.key();
+    }
+
+    @Test
+    public void lazyValuesAreComputedByTypedGetters() {
+        Bundle bundle = Bundle.createOrderedBundle();
+        bundle.putLazy("a", new Supplier<Object>() {
+            @Override
+            public Object get() {
+                return 42L;
+            }
+        });
+        bundle.putLazy("b", new Supplier<Object>() {
+            @Override
+            public Object get() {
+                return 0.5;
+            }
+        });
+        bundle.putLazy("c", new Supplier<Object>() {
+            @Override
+            public Object get() {
+                return true;
+            }
+        });
+
+        BundleCursor cursor = bundle.cursor();
+        assertTrue(cursor.next());
+        assertEquals(42L, cursor.longValue());
+        assertEquals(ValueType.LONG, cursor.type());
+        assertTrue(cursor.next());
+        assertEquals(0.5, cursor.doubleValue(), 0.0);
+        assertTrue(cursor.next());
+        assertTrue(cursor.booleanValue());
+        assertEquals(true, cursor.objectValue());
+    }
+
+    @Test
+    public void expiringValuesAreReadUntilTheyExpire() throws Exception {
+        Bundle bundle = Bundle.createOrderedBundle();
+        bundle.putLong("a", 7L, 1, TimeUnit.HOURS);
+        bundle.putString("b", "x", 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(10);
+
+        BundleCursor cursor = bundle.cursor();
+        assertTrue(cursor.next());
+        assertEquals(ValueType.LONG, cursor.type());
+        assertEquals(7L, cursor.longValue());
+        assertEquals(7.0, cursor.doubleValue(), 0.0);
+        assertTrue(cursor.next());
+        assertEquals(ValueType.NULL, cursor.type());
+        assertNull(cursor.objectValue());
+    }
+}
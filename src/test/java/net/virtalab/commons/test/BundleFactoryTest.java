@@ -0,0 +1,78 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing sizing of Bundles
+ *
+ * @since 1.0
+ */
+public class BundleFactoryTest {
+
+    private static Bundle filled(BundleFactory factory, int size) {
+        Bundle b = factory.create();
+        for (int i = 0; i < size; i++) {
+            b.putInt("key" + i, i);
+        }
+        return b;
+    }
+
+    @Test
+    public void factoryLearnsSizeOfGrowingBundles() {
+        BundleFactory factory = new BundleFactory();
+        filled(factory, 40);
+        assertEquals(40, factory.getExpectedSize());
+        filled(factory, 10);
+        assertEquals(40, factory.getExpectedSize());
+    }
+
+    @Test
+    public void factoryShrinksWhenBundlesStaySmaller() {
+        BundleFactory factory = new BundleFactory(100);
+        // Bundles are kept reachable, so that samples are not collected
+        List<Bundle> kept = new ArrayList<>();
+        for (int i = 0; i < 2 * 256; i++) {
+            kept.add(filled(factory, 20));
+        }
+        assertEquals(20, factory.getExpectedSize());
+        assertEquals(2 * 256, kept.size());
+    }
+
+    @Test
+    public void putAllReportsGrowth() {
+        BundleFactory factory = new BundleFactory(2);
+        Bundle source = new Bundle();
+        for (int i = 0; i < 30; i++) {
+            source.putInt("key" + i, i);
+        }
+        factory.create().putAll(source);
+        assertEquals(30, factory.getExpectedSize());
+    }
+
+    @Test
+    public void copyAndTrimKeepContent() {
+        Bundle b = new Bundle();
+        for (int i = 0; i < 1000; i++) {
+            b.putInt("key" + i, i);
+        }
+        Bundle copy = new Bundle(b);
+        assertTrue(copy.contentEquals(b));
+
+        for (int i = 10; i < 1000; i++) {
+            b.remove("key" + i);
+        }
+        b.trimToSize();
+        assertEquals(10, b.size());
+        assertEquals(9, b.getInt("key9"));
+        b.putInt("key10", 10);
+        assertEquals(11, b.size());
+    }
+}
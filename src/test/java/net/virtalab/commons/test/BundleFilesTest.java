@@ -0,0 +1,152 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleFiles;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Testing asynchronous Bundle files
+ *
+ * @since 1.0
+ */
+public class BundleFilesTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void savedBundleCanBeLoaded() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("one.bundle");
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putString("name", "one");
+        bundle.putLongArray("values", new long[1000]);
+
+        BundleFiles.save(file, bundle, null).get();
+        Bundle loaded = BundleFiles.load(file, null).get();
+
+        assertTrue(bundle.contentEquals(loaded));
+    }
+
+    @Test
+    public void directoryIsLoadedWithBoundedParallelism() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        for (int i = 0; i < 50; i++) {
+            Bundle bundle = Bundle.createEmptyBundle();
+            bundle.putInt("id", i);
+            BundleFiles.save(dir.resolve(i + ".bundle"), bundle, null).get();
+        }
+        Files.write(dir.resolve("ignored.txt"), new byte[]{1});
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Map<Path, Bundle> bundles = BundleFiles.loadAll(dir, "*.bundle", executor, 8);
+
+            assertEquals(50, bundles.size());
+            assertEquals(7, bundles.get(dir.resolve("7.bundle")).getInt("id"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void corruptFilesAreReported() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        BundleFiles.save(dir.resolve("good.bundle"), Bundle.forSingleKeyValue("k", "v"), null).get();
+        Files.write(dir.resolve("bad.bundle"), new byte[]{1, 2, 3});
+
+        try {
+            BundleFiles.loadAll(dir, "*.bundle", null, 2);
+            fail("Corrupt file must fail loading");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("bad.bundle"));
+        }
+        try {
+            BundleFiles.load(dir.resolve("missing.bundle"), null).get();
+            fail("Missing file must fail loading");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void rejectedReadsFailLoads() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        BundleFiles.save(dir.resolve("one.bundle"), Bundle.forSingleKeyValue("k", "v"), null).get();
+        BundleFiles.save(dir.resolve("two.bundle"), Bundle.forSingleKeyValue("k", "v"), null).get();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+
+        try {
+            BundleFiles.load(dir.resolve("one.bundle"), executor).get();
+            fail("Rejected read must fail loading");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof RejectedExecutionException);
+        }
+        try {
+            BundleFiles.loadAll(dir, "*.bundle", executor, 1);
+            fail("Rejected reads must fail loading");
+        } catch (IOException expected) {
+            assertEquals(1, expected.getSuppressed().length);
+        }
+    }
+
+    @Test
+    public void concurrentSavesOfSameFileDoNotMix() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Path file = dir.resolve("shared.bundle");
+        List<Future<Void>> saves = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Bundle bundle = Bundle.createEmptyBundle();
+            bundle.putInt("id", i);
+            bundle.putLongArray("values", new long[10000 + 1000 * i]);
+            saves.add(BundleFiles.save(file, bundle, null));
+        }
+        for (Future<Void> save : saves) {
+            save.get();
+        }
+
+        Bundle loaded = BundleFiles.load(file, null).get();
+        assertEquals(10000 + 1000 * loaded.getInt("id"), loaded.getLongArray("values").length);
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(dir, "*.tmp")) {
+            assertFalse(temps.iterator().hasNext());
+        }
+    }
+
+    @Test
+    public void failedSaveDeletesTemporaryFile() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Path target = dir.resolve("target.bundle");
+        // replacing a non-empty directory fails after data is written
+        Files.createDirectory(target);
+        Files.write(target.resolve("child"), new byte[]{1});
+
+        try {
+            BundleFiles.save(target, Bundle.forSingleKeyValue("k", "v"), null).get();
+            fail("Replacing non-empty directory must fail");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(dir, "*.tmp")) {
+            assertFalse(temps.iterator().hasNext());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.MergeStrategy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Testing merging of Bundles
+ *
+ * @since 1.0
+ */
+public class BundleMergeTest {
+    @Test
+    public void sumAddsNumbersOfSameType() {
+        Bundle total = new Bundle();
+        total.putInt("requests", 3);
+        total.putLong("bytes", 100L);
+        total.putString("host", "a");
+        Bundle other = new Bundle();
+        other.putInt("requests", 2);
+        other.putLong("bytes", 50L);
+        other.putString("host", "b");
+        other.putDouble("latency", 1.5);
+
+        total.merge(other, MergeStrategy.SUM);
+
+        assertEquals(5, total.getInt("requests"));
+        assertEquals(150L, total.getLong("bytes"));
+        assertEquals("b", total.getString("host"));
+        assertEquals(1.5, total.getDouble("latency"), 0.0);
+    }
+
+    @Test
+    public void keepExistingIgnoresIncomingValuesOfPresentKeys() {
+        Bundle bundle = new Bundle();
+        bundle.putString("a", "old");
+        Bundle other = new Bundle();
+        other.putString("a", "new");
+        other.putString("b", "added");
+
+        bundle.merge(other, MergeStrategy.KEEP_EXISTING);
+
+        assertEquals("old", bundle.getString("a"));
+        assertEquals("added", bundle.getString("b"));
+    }
+
+    @Test
+    public void maxAndMinKeepExtremes() {
+        Bundle max = new Bundle();
+        max.putLong("ts", 10L);
+        Bundle min = new Bundle(max);
+        Bundle other = new Bundle();
+        other.putLong("ts", 20L);
+
+        max.merge(other, MergeStrategy.MAX);
+        min.merge(other, MergeStrategy.MIN);
+
+        assertEquals(20L, max.getLong("ts"));
+        assertEquals(10L, min.getLong("ts"));
+    }
+
+    @Test
+    public void concatJoinsArraysAndLists() {
+        Bundle bundle = new Bundle();
+        int[] first = {1, 2};
+        bundle.putIntArray("ids", first);
+        bundle.putStringList("tags", Arrays.asList("a"));
+        Bundle other = new Bundle();
+        other.putIntArray("ids", new int[]{3});
+        other.putStringList("tags", Arrays.asList("b", "c"));
+
+        bundle.merge(other, MergeStrategy.CONCAT);
+
+        assertArrayEquals(new int[]{1, 2, 3}, bundle.getIntArray("ids"));
+        assertArrayEquals(new int[]{1, 2}, first);
+        assertEquals(Arrays.asList("a", "b", "c"), bundle.get("tags"));
+    }
+
+    @Test
+    public void mergeAllInParallelKeepsOrderOfBundles() throws Exception {
+        List<Bundle> bundles = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Bundle b = new Bundle();
+            b.putInt("count", 1);
+            b.putLong("sum", i);
+            b.putIntArray("seq", new int[]{i});
+            b.putInt("last", i);
+            bundles.add(b);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Bundle sum = Bundle.mergeAll(bundles, MergeStrategy.SUM, executor);
+            assertEquals(100, sum.getInt("count"));
+            assertEquals(4950L, sum.getLong("sum"));
+
+            Bundle concat = Bundle.mergeAll(bundles, MergeStrategy.CONCAT, executor);
+            int[] seq = concat.getIntArray("seq");
+            for (int i = 0; i < seq.length; i++) {
+                assertEquals(i, seq[i]);
+            }
+            assertEquals(99, concat.getInt("last"));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, bundles.get(0).getIntArray("seq")[0]);
+        assertEquals(1, bundles.get(0).getInt("count"));
+    }
+}
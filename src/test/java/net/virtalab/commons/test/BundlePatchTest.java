@@ -0,0 +1,147 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundlePatch;
+import org.junit.Test;
+
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Testing diff and patch of Bundles
+ *
+ * @since 1.0
+ */
+public class BundlePatchTest {
+
+    private static final int LENGTH = 1 << 20;
+
+    private static Bundle base() {
+        Bundle b = new Bundle();
+        long[] longs = new long[LENGTH];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = i * 31L;
+        }
+        b.putLongArray("longs", longs);
+        b.putByteArray("bytes", new byte[10000]);
+        b.putString("name", "base");
+        b.putInt("count", 1);
+        b.putBoolean("gone", true);
+        return b;
+    }
+
+    @Test
+    public void patchTurnsBaseIntoTarget() throws Exception {
+        Bundle base = base();
+        Bundle target = new Bundle(base);
+        target.putLongArray("longs", target.getLongArray("longs").clone());
+        target.getLongArray("longs")[5] = -1;
+        target.getLongArray("longs")[LENGTH - 1] = -1;
+        target.putByteArray("bytes", new byte[10001]);
+        target.putString("name", "target");
+        target.putDouble("added", 1.5);
+        target.remove("gone");
+
+        BundlePatch patch = BundlePatch.diff(base, target);
+        assertEquals(5, patch.size());
+        Bundle copy = new Bundle(base);
+        copy.putLongArray("longs", copy.getLongArray("longs").clone());
+        BundlePatch.decode(patch.encode()).apply(copy);
+        assertTrue(copy.contentEquals(target));
+
+        long[] patched = base.getLongArray("longs");
+        patch.apply(base);
+        assertSame(patched, base.getLongArray("longs"));
+        assertTrue(base.contentEquals(target));
+    }
+
+    @Test
+    public void patchSizeIsProportionalToChange() {
+        Bundle base = base();
+        BundlePatch.Signature signature = BundlePatch.signature(base);
+        base.getLongArray("longs")[LENGTH / 2] = 7;
+
+        BundlePatch patch = BundlePatch.diff(signature, base);
+        assertEquals(1, patch.size());
+        // one chunk out of 8 MB array
+        assertTrue(patch.encode().length < 2 * BundlePatch.DEFAULT_CHUNK_BYTES);
+        assertTrue(BundlePatch.diff(BundlePatch.signature(base), base).isEmpty());
+    }
+
+    @Test
+    public void mismatchedBaseIsRejectedWithoutChanges() {
+        Bundle base = base();
+        Bundle target = base();
+        target.getLongArray("longs")[0] = 1;
+        target.putInt("count", 2);
+        BundlePatch patch = BundlePatch.diff(base, target);
+
+        base.getLongArray("longs")[1] = 1;
+        try {
+            patch.apply(base);
+            fail("Patch was applied to other base");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(1, base.getInt("count"));
+        assertEquals(0, base.getLongArray("longs")[0]);
+
+        base.putLongArray("longs", new long[3]);
+        try {
+            patch.apply(base);
+            fail("Patch was applied to array of other length");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void trackedFingerprintFollowsPatchInPlace() {
+        Bundle base = base();
+        base.setFingerprintTracking(true);
+        Bundle target = base();
+        target.getLongArray("longs")[3] = 3;
+        BundlePatch.diff(base, target).apply(base);
+        assertEquals(target.fingerprint64(), base.fingerprint64());
+    }
+
+    @Test
+    public void compressedArrayIsReplaced() {
+        Bundle base = new Bundle();
+        int[] ints = new int[5000];
+        base.putCompressedIntArray("ints", ints);
+        Bundle target = new Bundle();
+        int[] changed = ints.clone();
+        changed[4999] = 9;
+        target.putIntArray("ints", changed);
+
+        BundlePatch.diff(base, target).apply(base);
+        assertArrayEquals(changed, base.getIntArray("ints"));
+        assertEquals(0, ints[4999]);
+    }
+
+    @Test
+    public void invalidDataIsRejected() throws Exception {
+        byte[] data = BundlePatch.diff(new Bundle(), base()).encode();
+        try {
+            BundlePatch.decode(Arrays.copyOf(data, data.length / 2));
+            fail("Truncated patch was decoded");
+        } catch (StreamCorruptedException expected) {
+            // expected
+        }
+        data[0] = 0;
+        try {
+            BundlePatch.decode(data);
+            fail("Patch with wrong magic was decoded");
+        } catch (StreamCorruptedException expected) {
+            assertFalse(expected.getMessage().isEmpty());
+        }
+    }
+}
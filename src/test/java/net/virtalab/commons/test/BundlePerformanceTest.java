@@ -0,0 +1,255 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Guards hot paths of Bundle against regressions: bytes allocated per call of typed accessors
+ * and of copying. Allocation does not depend on machine load, unlike time, which is measured
+ * by benchmarks, e.g. {@code CopyBenchmark}.
+ * <p>
+ * Each measurement is repeated a few times and the best round is checked, so that rounds run
+ * before JIT compilation do not fail the build. Limits are far above measured values and catch
+ * only real regressions, e.g. accessors which start to allocate.
+ *
+ * @since 1.0
+ */
+public class BundlePerformanceTest {
+
+    private static final int CALLS = 200000;
+    private static final int ROUNDS = 10;
+    private static final int KEYS = 64;
+
+    private static com.sun.management.ThreadMXBean sThreads;
+
+    private final String[] mKeys = new String[KEYS];
+    // consumed results, so that calls are not eliminated
+    private long mSink;
+
+    public BundlePerformanceTest() {
+        for (int i = 0; i < KEYS; i++) {
+            mKeys[i] = "key" + i;
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            sThreads = (com.sun.management.ThreadMXBean) threads;
+            sThreads.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    /**
+     * Code measured per call.
+     */
+    private interface Calls {
+        void run(int calls);
+    }
+
+    private static long allocatedBytes() {
+        return sThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // lowest number of bytes allocated per call in any round
+    private static double bytesPerCall(Calls calls) {
+        Assume.assumeTrue("Allocation counting is not supported", sThreads != null);
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            calls.run(CALLS);
+            long after = allocatedBytes();
+            best = Math.min(best, (double) (after - before) / CALLS);
+        }
+        return best;
+    }
+
+    private static void assertAllocatesAtMost(String what, double limit, double measured) {
+        assertTrue(what + " allocates " + measured + " bytes per call, limit is " + limit, measured <= limit);
+    }
+
+    private Bundle filled() {
+        Bundle b = new Bundle();
+        for (int i = 0; i < KEYS; i++) {
+            b.putInt(mKeys[i], i);
+            b.putLong(mKeys[i] + "L", i);
+            b.putDouble(mKeys[i] + "D", i);
+            b.putBoolean(mKeys[i] + "B", i % 2 == 0);
+            b.putString(mKeys[i] + "S", "value" + i);
+        }
+        return b;
+    }
+
+    @Test
+    public void typedGettersDoNotAllocate() {
+        final Bundle b = filled();
+        final String[] longKeys = new String[KEYS];
+        final String[] doubleKeys = new String[KEYS];
+        final String[] booleanKeys = new String[KEYS];
+        final String[] stringKeys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            longKeys[i] = mKeys[i] + "L";
+            doubleKeys[i] = mKeys[i] + "D";
+            booleanKeys[i] = mKeys[i] + "B";
+            stringKeys[i] = mKeys[i] + "S";
+        }
+
+        assertAllocatesAtMost("getInt", 0.1, bytesPerCall(new Calls() {
+            @Override
+            public void run(int calls) {
+                long sum = 0;
+                for (int i = 0; i < calls; i++) {
+                    sum += b.getInt(mKeys[i & (KEYS - 1)]);
+                }
+                mSink += sum;
+            }
+        }));
+        assertAllocatesAtMost("getInt of missing key", 0.1, bytesPerCall(new Calls() {
+            @Override
+            public void run(int calls) {
+                long sum = 0;
+                for (int i = 0; i < calls; i++) {
+                    sum += b.getInt("missing", i);
+                }
+                mSink += sum;
+            }
+        }));
+        assertAllocatesAtMost("getLong", 0.1, bytesPerCall(new Calls() {
+            @Override
+            public void run(int calls) {
+                long sum = 0;
+                for (int i = 0; i < calls; i++) {
+                    sum += b.getLong(longKeys[i & (KEYS - 1)]);
+                }
+                mSink += sum;
+            }
+        }));
+        assertAllocatesAtMost("getDouble", 0.1, bytesPerCall(new Calls() {
+            @Override
+            public void run(int calls) {
+                double sum = 0;
+                for (int i = 0; i < calls; i++) {
+                    sum += b.getDouble(doubleKeys[i & (KEYS - 1)]);
+                }
+                mSink += (long) sum;
+            }
+        }));
+        assertAllocatesAtMost("getBoolean", 0.1, bytesPerCall(new Calls() {
+            @Override
+            public void run(int calls) {
+                long count = 0;
+                for (int i = 0; i < calls; i++) {
+                    if (b.getBoolean(booleanKeys[i & (KEYS - 1)])) {
+                        count++;
+                    }
+                }
+                mSink += count;
+            }
+        }));
+        assertAllocatesAtMost("getString", 0.1, bytesPerCall(new Calls() {
+            @Override
+            public void run(int calls) {
+                long length = 0;
+                for (int i = 0; i < calls; i++) {
+                    length += b.getString(stringKeys[i & (KEYS - 1)]).length();
+                }
+                mSink += length;
+            }
+        }));
+    }
+
+    @Test
+    public void putIntAllocatesOnlyBox() {
+        final Bundle b = filled();
+
+        // small values are cached by Integer.valueOf and replacing entry allocates nothing
+        assertAllocatesAtMost("putInt of cached value", 0.1, bytesPerCall(new Calls() {
+            @Override
+            public void run(int calls) {
+                for (int i = 0; i < calls; i++) {
+                    b.putInt(mKeys[i & (KEYS - 1)], i & 127);
+                }
+            }
+        }));
+        // one Integer of 16 bytes
+        assertAllocatesAtMost("putInt", 16.1, bytesPerCall(new Calls() {
+            @Override
+            public void run(int calls) {
+                for (int i = 0; i < calls; i++) {
+                    b.putInt(mKeys[i & (KEYS - 1)], 1000 + i);
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void putIntOfNewKeyAllocatesEntry() {
+        final String[] keys = new String[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            keys[i] = "new" + i;
+        }
+        // node, Integer and share of hash table growth, around 69 bytes
+        assertAllocatesAtMost("putInt of new key", 96, bytesPerCall(new Calls() {
+            @Override
+            public void run(int calls) {
+                Bundle b = new Bundle();
+                for (int i = 0; i < calls; i++) {
+                    b.putInt(keys[i], 1000 + i);
+                }
+                mSink += b.size();
+            }
+        }));
+    }
+
+    @Test
+    public void copyAllocatesOnlyEntries() {
+        for (final int size : new int[]{10, 1000, 100000}) {
+            final Bundle source = sized(size);
+            double perCopy = bytesPerCall(new Calls() {
+                @Override
+                public void run(int calls) {
+                    for (int i = 0; i < calls / size; i++) {
+                        mSink += new Bundle(source).size();
+                    }
+                }
+            }) * size;
+            // copy is pre-sized: nodes of 32 bytes and single table, around 42 bytes per entry
+            assertAllocatesAtMost("copy of " + size + " entries, per entry", 56 + 256.0 / size, perCopy / size);
+        }
+    }
+
+    @Test
+    public void putAllAllocatesOnlyEntries() {
+        for (final int size : new int[]{10, 1000, 100000}) {
+            final Bundle source = sized(size);
+            double perPutAll = bytesPerCall(new Calls() {
+                @Override
+                public void run(int calls) {
+                    for (int i = 0; i < calls / size; i++) {
+                        Bundle target = new Bundle();
+                        target.putAll(source);
+                        mSink += target.size();
+                    }
+                }
+            }) * size;
+            // target is sized once for all entries, like a copy
+            assertAllocatesAtMost("putAll of " + size + " entries, per entry", 56 + 256.0 / size, perPutAll / size);
+        }
+    }
+
+    private static Bundle sized(int size) {
+        Bundle b = new Bundle();
+        for (int i = 0; i < size; i++) {
+            b.putInt("key" + i, i);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,117 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleProfiler;
+import net.virtalab.commons.MismatchReporter;
+import net.virtalab.commons.ValueType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing access profiler of Bundle
+ *
+ * @since 1.0
+ */
+public class BundleProfilerTest {
+
+    private static final MismatchReporter SILENT = new MismatchReporter() {
+        @Override
+        public void report(String key, Object value, String expectedType, Object defaultValue,
+                           ClassCastException e) {
+        }
+    };
+
+    private static Bundle profiled(BundleProfiler profiler) {
+        Bundle b = new Bundle();
+        b.setMismatchReporter(SILENT);
+        b.setProfiler(profiler);
+        return b;
+    }
+
+    @Test
+    public void bundlesAreNotProfiledByDefault() {
+        assertNull(new Bundle().getProfiler());
+    }
+
+    @Test
+    public void reportSuggestsSchema() {
+        BundleProfiler profiler = new BundleProfiler(1, 16);
+        Bundle b = profiled(profiler);
+        b.putString("host", "localhost");
+        b.putInt("port", 80);
+        b.putString("port", "8080");
+        b.putInt("port", 8080);
+        b.putLong("unused", 1);
+        for (int i = 0; i < 10; i++) {
+            b.getString("host");
+        }
+        b.getInt("port");
+        new Bundle(b).getInt("port");
+
+        BundleProfiler.Report report = profiler.report();
+        assertEquals(Arrays.asList("host", "port"), report.getKeyOrder());
+        assertEquals(ValueType.STRING, report.getSuggestedTypes().get("host"));
+        assertEquals(ValueType.INT, report.getSuggestedTypes().get("port"));
+        assertEquals(Collections.singletonList("unused"), report.getKeysToDrop());
+
+        BundleProfiler.KeyReport port = report.getKeys().get(1);
+        assertEquals(2, port.getGets());
+        assertEquals(3, port.getPuts());
+        assertEquals(Long.valueOf(1), port.getTypes().get(ValueType.STRING));
+    }
+
+    @Test
+    public void mismatchSitesAreRecorded() {
+        BundleProfiler profiler = new BundleProfiler(1, 16);
+        Bundle b = profiled(profiler);
+        b.putString("port", "8080");
+        for (int i = 0; i < 2; i++) {
+            b.getIntArray("port");
+        }
+
+        BundleProfiler.KeyReport port = profiler.report().getKeys().get(0);
+        assertEquals(2, port.getMismatches());
+        Map.Entry<String, Long> site = port.getMismatchSites().entrySet().iterator().next();
+        assertEquals(Long.valueOf(2), site.getValue());
+        assertTrue(site.getKey(), site.getKey().startsWith("int[] at " + getClass().getName()
+                + ".mismatchSitesAreRecorded"));
+    }
+
+    @Test
+    public void reportIsExportedAsBundleAndText() {
+        BundleProfiler profiler = new BundleProfiler(1, 1);
+        Bundle b = profiled(profiler);
+        b.putInt("a", 1);
+        b.getInt("a");
+        b.getInt("b");
+
+        BundleProfiler.Report report = profiler.report();
+        assertEquals(1, report.getUntrackedAccesses());
+        Bundle exported = report.toBundle();
+        assertArrayEquals(new String[]{"a"}, exported.getStringArray("keyOrder"));
+        assertEquals("INT", ((Bundle) exported.get("types")).getString("a"));
+        Bundle a = (Bundle) ((Bundle) exported.get("keys")).get("a");
+        assertEquals(1, a.getLong("gets"));
+        assertTrue(report.toString().contains("suggested schema: {a=INT}"));
+    }
+
+    @Test
+    public void countsAreScaledBySampleRate() {
+        BundleProfiler profiler = new BundleProfiler(8, 16);
+        Bundle b = profiled(profiler);
+        b.putInt("a", 1);
+        for (int i = 0; i < 80000; i++) {
+            b.getInt("a");
+        }
+        long gets = profiler.report().getKeys().get(0).getGets();
+        assertTrue(String.valueOf(gets), gets > 70000 && gets < 90000 && gets % 8 == 0);
+    }
+}
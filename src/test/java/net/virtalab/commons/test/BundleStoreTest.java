@@ -0,0 +1,147 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleProfiler;
+import net.virtalab.commons.BundleStore;
+import net.virtalab.commons.BundleUpdater;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Testing store of Bundles
+ *
+ * @since 1.0
+ */
+public class BundleStoreTest {
+    private static final BundleUpdater INCREMENT = new BundleUpdater() {
+        @Override
+        public void update(Bundle bundle) {
+            bundle.putInt("count", bundle.getInt("count") + 1);
+        }
+    };
+
+    @Test
+    public void concurrentUpdatesAreNotLost() throws Exception {
+        final BundleStore store = new BundleStore(4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = 0; i < 1000; i++) {
+                            store.update("entity-" + (i % 10), INCREMENT);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(10, store.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(800, store.get("entity-" + i).getInt("count"));
+        }
+    }
+
+    @Test
+    public void versionsAreReadOnlyAndStable() {
+        BundleStore store = new BundleStore();
+        Bundle first = store.update("a", INCREMENT);
+        Bundle second = store.update("a", INCREMENT);
+
+        assertTrue(first.isReadOnly());
+        assertEquals(1, first.getInt("count"));
+        assertEquals(2, second.getInt("count"));
+        try {
+            first.putInt("count", 5);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+            // published versions cannot change
+        }
+    }
+
+    @Test
+    public void settingsOfVersionsCannotChange() {
+        BundleStore store = new BundleStore();
+        Bundle version = store.update("a", INCREMENT);
+
+        try {
+            version.setRetainedSizeTracking(true);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+            // tracking state is part of the published version
+        }
+        try {
+            version.setFingerprintTracking(true);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+            // tracking state is part of the published version
+        }
+        try {
+            version.setProfiler(new BundleProfiler());
+            fail();
+        } catch (UnsupportedOperationException expected) {
+            // versions are shared by readers
+        }
+        try {
+            version.setMismatchReporter(null);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+            // versions are shared by readers
+        }
+    }
+
+    @Test
+    public void failedUpdateKeepsCurrentVersion() {
+        BundleStore store = new BundleStore();
+        store.update("a", INCREMENT);
+        try {
+            store.update("a", new BundleUpdater() {
+                @Override
+                public void update(Bundle bundle) {
+                    bundle.putInt("count", 100);
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+            // update is discarded
+        }
+        assertEquals(1, store.get("a").getInt("count"));
+    }
+
+    @Test
+    public void snapshotHoldsAllEntities() {
+        BundleStore store = new BundleStore(2);
+        for (int i = 0; i < 100; i++) {
+            store.update(String.valueOf(i), INCREMENT);
+        }
+        store.remove("0");
+
+        Map<String, Bundle> snapshot = store.snapshot();
+        store.update("1", INCREMENT);
+
+        assertEquals(99, snapshot.size());
+        assertNull(snapshot.get("0"));
+        assertEquals(1, snapshot.get("1").getInt("count"));
+    }
+}
@@ -0,0 +1,92 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleTransform;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Testing transforms of Bundles
+ *
+ * @since 1.0
+ */
+public class BundleTransformTest {
+    @Test
+    public void stepsAreAppliedInOrder() {
+        BundleTransform transform = BundleTransform.builder()
+                .rename("id", "userId")
+                .convert("userId", BundleTransform.TO_LONG)
+                .drop("password")
+                .rename("name", "login")
+                .build();
+        Bundle input = new Bundle();
+        input.putString("id", "42");
+        input.putString("name", "john");
+        input.putString("password", "secret");
+        input.putInt("age", 30);
+
+        Bundle output = transform.apply(input);
+
+        assertEquals(new HashSet<>(Arrays.asList("userId", "login", "age")), output.keySet());
+        assertEquals(42L, output.getLong("userId"));
+        assertEquals("john", output.getString("login"));
+        assertEquals(30, output.getInt("age"));
+        assertEquals(4, input.size());
+    }
+
+    @Test
+    public void keepProjectsEntries() {
+        BundleTransform transform = BundleTransform.builder()
+                .rename("host", "server")
+                .keep("server", "port", "missing")
+                .convert("port", BundleTransform.TO_INT)
+                .build();
+        Bundle input = new Bundle();
+        input.putString("host", "localhost");
+        input.putString("port", "8080");
+        input.putString("other", "x");
+
+        Bundle output = transform.apply(input);
+
+        assertEquals(2, output.size());
+        assertEquals("localhost", output.getString("server"));
+        assertEquals(8080, output.getInt("port"));
+        assertFalse(output.containsKey("missing"));
+    }
+
+    @Test
+    public void renameReplacesExistingKey() {
+        BundleTransform transform = BundleTransform.builder().rename("a", "b").build();
+        Bundle input = new Bundle();
+        input.putString("a", "from a");
+        input.putString("b", "from b");
+
+        Bundle output = transform.apply(input);
+
+        assertEquals(1, output.size());
+        assertEquals("from a", output.getString("b"));
+    }
+
+    @Test
+    public void chainedTransformsAreFused() {
+        BundleTransform first = BundleTransform.builder().rename("a", "b").build();
+        BundleTransform second = BundleTransform.builder().rename("b", "c").convert("c", BundleTransform.TO_STRING).build();
+        Bundle input = new Bundle();
+        input.putInt("a", 1);
+        int[] array = {1, 2};
+        input.putIntArray("array", array);
+
+        Bundle output = first.andThen(second).apply(input);
+
+        assertEquals("1", output.getString("c"));
+        assertNull(output.get("b"));
+        assertSame(array, output.getIntArray("array"));
+    }
+}
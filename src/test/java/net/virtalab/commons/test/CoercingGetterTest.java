@@ -0,0 +1,111 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.MismatchReporter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing coercing getters
+ *
+ * @since 1.0
+ */
+public class CoercingGetterTest {
+    @Test
+    public void stringsAreParsedAndStayStrings() {
+        Bundle bundle = new Bundle();
+        bundle.putString("port", " 8080 ");
+        bundle.putString("ratio", "0.25");
+        bundle.putString("enabled", "TRUE");
+        bundle.putString("id", "9000000000");
+
+        assertEquals(8080, bundle.coerceInt("port", -1));
+        assertEquals(8080, bundle.coerceInt("port", -1));
+        assertEquals(8080L, bundle.coerceLong("port", -1));
+        assertEquals(0.25, bundle.coerceDouble("ratio", 0), 0.0);
+        assertTrue(bundle.coerceBoolean("enabled", false));
+        assertEquals(9000000000L, bundle.coerceLong("id", 0));
+        assertEquals(" 8080 ", bundle.getString("port"));
+        assertEquals(4, bundle.size());
+    }
+
+    @Test
+    public void numbersAreWidened() {
+        Bundle bundle = new Bundle();
+        bundle.putInt("int", 7);
+        bundle.putLong("long", 8L);
+
+        assertEquals(7L, bundle.coerceLong("int", 0));
+        assertEquals(8.0, bundle.coerceDouble("long", 0), 0.0);
+        assertEquals(-1, bundle.coerceInt("long", -1));
+        assertEquals(-1, bundle.coerceInt("missing", -1));
+    }
+
+    @Test
+    public void invalidStringIsReportedOnce() {
+        final int[] reports = new int[1];
+        Bundle bundle = new Bundle();
+        bundle.setMismatchReporter(new MismatchReporter() {
+            @Override
+            public void report(String key, Object value, String expectedType, Object defaultValue,
+                               ClassCastException e) {
+                reports[0]++;
+            }
+        });
+        bundle.putString("count", "many");
+        bundle.putString("flag", "yes");
+
+        assertEquals(-1, bundle.coerceInt("count", -1));
+        assertEquals(-1, bundle.coerceInt("count", -1));
+        assertFalse(bundle.coerceBoolean("flag", false));
+        assertEquals(2, reports[0]);
+    }
+
+    @Test
+    public void alternatingKindsAreParsedOnce() {
+        final List<ClassCastException> reports = new ArrayList<>();
+        Bundle bundle = new Bundle();
+        bundle.setMismatchReporter(new MismatchReporter() {
+            @Override
+            public void report(String key, Object value, String expectedType, Object defaultValue,
+                               ClassCastException e) {
+                reports.add(e);
+            }
+        });
+        bundle.putString("count", "many");
+        bundle.putString("port", "8080");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(-1, bundle.coerceInt("count", -1));
+            assertEquals(-1L, bundle.coerceLong("count", -1));
+            assertEquals(-1.0, bundle.coerceDouble("count", -1), 0.0);
+            assertEquals(8080, bundle.coerceInt("port", -1));
+            assertEquals(8080L, bundle.coerceLong("port", -1));
+            assertEquals(8080.0, bundle.coerceDouble("port", -1), 0.0);
+        }
+        assertEquals(2, reports.size());
+        assertNull(reports.get(0));
+    }
+
+    @Test
+    public void retainedSizeTrackingFollowsParsedValues() {
+        Bundle bundle = new Bundle();
+        bundle.setRetainedSizeTracking(true);
+        bundle.putString("a", "1");
+        bundle.putString("b", "2", 1, TimeUnit.HOURS);
+        bundle.coerceInt("a", 0);
+        assertEquals(2, bundle.coerceInt("b", 0));
+        long tracked = bundle.estimateRetainedBytes();
+
+        bundle.setRetainedSizeTracking(false);
+        assertEquals(bundle.estimateRetainedBytes(), tracked);
+    }
+}
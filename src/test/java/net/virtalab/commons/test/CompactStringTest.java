@@ -0,0 +1,144 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleCodec;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing compact storage of strings
+ *
+ * @since 1.0
+ */
+public class CompactStringTest {
+
+    private static final String[] SAMPLES = {"", "ascii", "ünïcödé", "日本語", "emoji 😀 pair", null};
+
+    @Test
+    public void stringsReadAsTheyWerePut() {
+        Bundle b = new Bundle();
+        b.setCompactStrings(true);
+        for (int i = 0; i < SAMPLES.length; i++) {
+            b.putString("s" + i, SAMPLES[i]);
+        }
+        b.putStringArray("array", SAMPLES);
+        b.putStringList("list", Arrays.asList(SAMPLES));
+
+        for (int i = 0; i < SAMPLES.length; i++) {
+            assertEquals(SAMPLES[i], b.getString("s" + i));
+        }
+        assertArrayEquals(SAMPLES, b.getStringArray("array"));
+        assertEquals(Arrays.asList(SAMPLES), b.get("list"));
+        assertTrue(b.contentEquals(plain()));
+        assertEquals(plain().fingerprint64(), b.fingerprint64());
+    }
+
+    private static Bundle plain() {
+        Bundle b = new Bundle();
+        for (int i = 0; i < SAMPLES.length; i++) {
+            b.putString("s" + i, SAMPLES[i]);
+        }
+        b.putStringArray("array", SAMPLES);
+        b.putStringList("list", Arrays.asList(SAMPLES));
+        return b;
+    }
+
+    @Test
+    public void byteAccessorsDoNotNeedCompactStorage() {
+        for (boolean compact : new boolean[]{false, true}) {
+            Bundle b = new Bundle();
+            b.setCompactStrings(compact);
+            b.putString("s", "日本 text");
+            b.putInt("i", 1);
+
+            assertArrayEquals("日本 text".getBytes(StandardCharsets.UTF_8), b.getStringBytes("s").toArray());
+            assertTrue(b.stringEquals("s", "日本 text"));
+            assertTrue(b.stringEquals("s", new StringBuilder("日本 text")));
+            assertFalse(b.stringEquals("s", "日本 texts"));
+            assertFalse(b.stringEquals("s", "日本"));
+            assertFalse(b.stringEquals("i", "1"));
+            assertFalse(b.stringEquals("missing", ""));
+            assertNull(b.getStringBytes("missing"));
+        }
+    }
+
+    @Test
+    public void surrogatePairsAreCompared() {
+        Bundle b = new Bundle();
+        b.setCompactStrings(true);
+        b.putString("s", "a😀b");
+        assertTrue(b.stringEquals("s", "a😀b"));
+        assertFalse(b.stringEquals("s", "a😁b"));
+        assertEquals(6, b.getStringBytes("s").length());
+    }
+
+    @Test
+    public void cachedStringIsKept() {
+        Bundle b = new Bundle();
+        b.setCompactStrings(true, true);
+        b.putString("s", "cached");
+        assertSame(b.getString("s"), b.getString("s"));
+    }
+
+    @Test
+    public void existingValuesAreConvertedAndCodecRoundTrips() throws Exception {
+        Bundle b = plain();
+        List<String> mutable = new ArrayList<>(Arrays.asList("x", "y"));
+        b.putStringList("mutable", mutable);
+        b.setCompactStrings(true);
+        mutable.add("z");
+
+        assertEquals(Arrays.asList("x", "y"), b.get("mutable"));
+        Bundle decoded = BundleCodec.decode(BundleCodec.encode(b));
+        assertEquals(SAMPLES[2], decoded.getString("s2"));
+        assertArrayEquals(SAMPLES, decoded.getStringArray("array"));
+        assertEquals(Arrays.asList(SAMPLES), decoded.get("list"));
+        assertTrue(decoded.contentEquals(b));
+    }
+
+    @Test
+    public void compactStringsRetainLess() {
+        Bundle plain = new Bundle();
+        Bundle compact = new Bundle();
+        compact.setCompactStrings(true);
+        for (int i = 0; i < 1000; i++) {
+            plain.putString("k" + i, "value number " + i);
+            compact.putString("k" + i, "value number " + i);
+        }
+        assertTrue(compact.estimateRetainedBytes() < plain.estimateRetainedBytes());
+    }
+
+    @Test
+    public void compactBundlesAreComparedByBytes() {
+        Bundle first = new Bundle();
+        first.setCompactStrings(true);
+        Bundle second = new Bundle();
+        second.setCompactStrings(true, true);
+        Bundle plain = new Bundle();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            value.append(i % 2 == 0 ? 'a' : 'ж');
+            first.putString("k" + i, value.toString());
+            second.putString("k" + i, value.toString());
+            plain.putString("k" + i, value.toString());
+        }
+
+        assertTrue(first.contentEquals(second));
+        assertTrue(first.contentEquals(plain));
+        assertTrue(plain.contentEquals(first));
+        second.putString("k39", value.substring(0, 39) + "и");
+        assertFalse(first.contentEquals(second));
+        assertFalse(second.contentEquals(first));
+    }
+}
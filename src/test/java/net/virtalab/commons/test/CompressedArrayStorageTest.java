@@ -0,0 +1,109 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.DoubleIterator;
+import net.virtalab.commons.LongIterator;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Testing compressed array storage
+ *
+ * @since 1.0
+ */
+public class CompressedArrayStorageTest {
+    @Test
+    public void longArraysSurviveCompression() {
+        long[] timestamps = new long[1000];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = 1500000000000L + i * 1000L + (i % 7);
+        }
+        long[] extremes = {Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, Long.MIN_VALUE, 1};
+
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putCompressedLongArray("TS", timestamps);
+        bundle.putCompressedLongArray("EXTREMES", extremes);
+
+        assertArrayEquals(timestamps, bundle.getLongArray("TS"));
+        assertArrayEquals(extremes, bundle.getLongArray("EXTREMES"));
+    }
+
+    @Test
+    public void intArraysSurviveCompression() {
+        int[] values = {Integer.MAX_VALUE, Integer.MIN_VALUE, 0, 5, 4, -100, Integer.MIN_VALUE};
+
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putCompressedIntArray("INTS", values);
+
+        assertArrayEquals(values, bundle.getIntArray("INTS"));
+    }
+
+    @Test
+    public void doubleArraysSurviveCompression() {
+        Random random = new Random(42);
+        double[] values = new double[500];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 50 == 0 ? random.nextDouble() * 1e6 : 20.5 + (i % 3) * 0.25;
+        }
+        values[10] = Double.NaN;
+        values[11] = -0.0;
+        values[12] = Double.NEGATIVE_INFINITY;
+        values[13] = Double.MIN_VALUE;
+
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putCompressedDoubleArray("GAUGE", values);
+
+        assertArrayEquals(values, bundle.getDoubleArray("GAUGE"), 0.0);
+        assertEquals(Double.doubleToRawLongBits(-0.0),
+                Double.doubleToRawLongBits(bundle.getDoubleArray("GAUGE")[11]));
+    }
+
+    @Test
+    public void booleanArraysArePacked() {
+        boolean[] flags = new boolean[13];
+        flags[0] = true;
+        flags[8] = true;
+        flags[12] = true;
+
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putCompressedBooleanArray("FLAGS", flags);
+
+        boolean[] actual = bundle.getBooleanArray("FLAGS");
+        assertEquals(flags.length, actual.length);
+        for (int i = 0; i < flags.length; i++) {
+            assertEquals(flags[i], actual[i]);
+        }
+    }
+
+    @Test
+    public void iteratorsStreamCompressedAndPlainArrays() {
+        long[] longs = {3, 1, 4, 1, 5, 9, 2, 6};
+        double[] doubles = {1.5, 1.5, 2.5};
+
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putCompressedLongArray("COMPRESSED", longs);
+        bundle.putLongArray("PLAIN", longs);
+        bundle.putCompressedDoubleArray("DOUBLES", doubles);
+
+        LongIterator compressed = bundle.longArrayIterator("COMPRESSED");
+        LongIterator plain = bundle.longArrayIterator("PLAIN");
+        for (long expected : longs) {
+            assertEquals(expected, compressed.nextLong());
+            assertEquals(expected, plain.nextLong());
+        }
+        assertFalse(compressed.hasNext());
+        assertFalse(plain.hasNext());
+
+        DoubleIterator it = bundle.doubleArrayIterator("DOUBLES");
+        for (double expected : doubles) {
+            assertEquals(expected, it.nextDouble(), 0.0);
+        }
+        assertNull(bundle.longArrayIterator("MISSING"));
+    }
+}
@@ -0,0 +1,145 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.DurableBundle;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing durable Bundles
+ *
+ * @since 1.0
+ */
+public class DurableBundleTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void changesAreRecovered() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("state");
+        try (DurableBundle bundle = DurableBundle.open(dir)) {
+            bundle.putString("host", "localhost");
+            bundle.putInt("port", 8080);
+            bundle.putLongArray("ids", new long[]{1, 2, 3});
+            bundle.putString("temp", "x");
+            bundle.remove("temp");
+        }
+
+        try (DurableBundle bundle = DurableBundle.open(dir)) {
+            assertEquals(3, bundle.size());
+            assertEquals("localhost", bundle.getString("host"));
+            assertEquals(8080, bundle.getInt("port", 0));
+            assertArrayEquals(new long[]{1, 2, 3}, (long[]) bundle.get("ids"));
+            assertFalse(bundle.containsKey("temp"));
+        }
+    }
+
+    @Test
+    public void tornRecordIsDiscarded() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("state");
+        try (DurableBundle bundle = DurableBundle.open(dir)) {
+            bundle.putString("a", "1");
+        }
+        Files.write(dir.resolve("log.0"), new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (DurableBundle bundle = DurableBundle.open(dir)) {
+            assertEquals("1", bundle.getString("a"));
+            bundle.putString("b", "2");
+        }
+        try (DurableBundle bundle = DurableBundle.open(dir)) {
+            assertEquals(2, bundle.size());
+            assertEquals("2", bundle.getString("b"));
+        }
+    }
+
+    @Test
+    public void logIsCompactedIntoSnapshot() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("state");
+        try (DurableBundle bundle = DurableBundle.open(dir, 4096)) {
+            for (int i = 0; i < 500; i++) {
+                bundle.putLong("counter", i);
+            }
+            Bundle changes = new Bundle();
+            changes.putString("x", "1");
+            changes.putString("y", "2");
+            bundle.putAll(changes);
+        }
+        assertFalse(Files.exists(dir.resolve("log.0")));
+        try (DurableBundle bundle = DurableBundle.open(dir, 4096)) {
+            assertEquals(499L, bundle.getLong("counter", 0));
+            assertEquals("2", bundle.getString("y"));
+            assertEquals(3, bundle.size());
+        }
+    }
+
+    @Test
+    public void concurrentWritersAreAllDurable() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("state");
+        final int threads = 8;
+        final int writes = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (final DurableBundle bundle = DurableBundle.open(dir, 16384)) {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < writes; i++) {
+                            bundle.putInt(thread + "." + i, i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try (DurableBundle bundle = DurableBundle.open(dir)) {
+            assertEquals(threads * writes, bundle.size());
+            assertTrue(bundle.snapshot().containsKey("7.99"));
+        }
+    }
+
+    @Test
+    public void entriesWithTimeToLiveExpireAfterRecovery() throws Exception {
+        Path dir = folder.getRoot().toPath().resolve("state");
+        Bundle changes = new Bundle();
+        changes.putString("session", "abc", 50, TimeUnit.MILLISECONDS);
+        changes.putString("user", "joe", 1, TimeUnit.HOURS);
+        try (DurableBundle bundle = DurableBundle.open(dir)) {
+            bundle.putString("session", "old");
+            bundle.putAll(changes);
+            bundle.compact();
+            bundle.putAll(changes);
+        }
+        Thread.sleep(100);
+
+        try (DurableBundle bundle = DurableBundle.open(dir)) {
+            assertFalse(bundle.containsKey("session"));
+            assertEquals("joe", bundle.getString("user"));
+            assertEquals(1, bundle.size());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleUpdater;
+import net.virtalab.commons.ExpiryWheel;
+import net.virtalab.commons.VersionedBundle;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing entries with time to live
+ *
+ * @since 1.0
+ */
+public class ExpiryTest {
+    @Test
+    public void expiredEntryIsRemovedOnAccess() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.putString("session", "abc", 20, TimeUnit.MILLISECONDS);
+        bundle.putLong("user", 42L, 1, TimeUnit.HOURS);
+
+        assertEquals("abc", bundle.getString("session"));
+        Thread.sleep(40);
+
+        assertEquals(2, bundle.size());
+        assertNull(bundle.getString("session"));
+        assertFalse(bundle.containsKey("session"));
+        assertEquals(1, bundle.size());
+        assertEquals(42L, bundle.getLong("user"));
+    }
+
+    @Test
+    public void wheelRemovesEntriesWithoutAccess() throws Exception {
+        ExpiryWheel wheel = new ExpiryWheel(1, TimeUnit.MILLISECONDS);
+        Bundle first = new Bundle();
+        first.setExpiryWheel(wheel);
+        Bundle second = new Bundle();
+        second.putInt("token", 7, 10, TimeUnit.MILLISECONDS);
+        second.setExpiryWheel(wheel);
+        first.putString("a", "1", 10, TimeUnit.MILLISECONDS);
+        first.putString("b", "2", 1, TimeUnit.HOURS);
+        first.putString("c", "3");
+        assertEquals(3, wheel.size());
+
+        Thread.sleep(30);
+        assertEquals(2, wheel.advance());
+
+        assertEquals(2, first.size());
+        assertTrue(first.containsKey("b"));
+        assertTrue(second.isEmpty());
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void wheelReleasesValuesOfIdleBundles() throws Exception {
+        ExpiryWheel wheel = new ExpiryWheel(1, TimeUnit.MILLISECONDS);
+        Bundle bundle = new Bundle();
+        bundle.setExpiryWheel(wheel);
+        byte[] payload = new byte[1 << 20];
+        WeakReference<byte[]> released = new WeakReference<>(payload);
+        bundle.putByteArray("blob", payload, 10, TimeUnit.MILLISECONDS);
+        payload = null;
+
+        Thread.sleep(30);
+        assertEquals(1, wheel.advance());
+        for (int i = 0; i < 20 && released.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(released.get());
+        assertNull(bundle.getByteArray("blob"));
+        assertTrue(bundle.isEmpty());
+    }
+
+    @Test
+    public void replacedEntryIsNotExpired() throws Exception {
+        ExpiryWheel wheel = new ExpiryWheel(1, TimeUnit.MILLISECONDS);
+        Bundle bundle = new Bundle();
+        bundle.setExpiryWheel(wheel);
+        bundle.putString("key", "old", 10, TimeUnit.MILLISECONDS);
+        bundle.putString("key", "new");
+        assertEquals(0, wheel.size());
+
+        Thread.sleep(30);
+        assertEquals(0, wheel.advance());
+        assertEquals("new", bundle.getString("key"));
+    }
+
+    @Test
+    public void copyRegistersItsOwnEntries() throws Exception {
+        ExpiryWheel wheel = new ExpiryWheel(1, TimeUnit.MILLISECONDS);
+        Bundle bundle = new Bundle();
+        bundle.setExpiryWheel(wheel);
+        bundle.putString("key", "value", 10, TimeUnit.MILLISECONDS);
+        Bundle copy = new Bundle(bundle);
+        assertEquals(2, wheel.size());
+
+        Thread.sleep(30);
+        assertEquals(2, wheel.advance());
+        assertTrue(bundle.isEmpty());
+        assertTrue(copy.isEmpty());
+    }
+
+    @Test
+    public void putAllRegistersEntriesWithTargetWheel() throws Exception {
+        ExpiryWheel sourceWheel = new ExpiryWheel(1, TimeUnit.MILLISECONDS);
+        ExpiryWheel targetWheel = new ExpiryWheel(1, TimeUnit.MILLISECONDS);
+        Bundle source = new Bundle();
+        source.setExpiryWheel(sourceWheel);
+        source.putString("key", "value", 10, TimeUnit.MILLISECONDS);
+        Bundle target = new Bundle();
+        target.setExpiryWheel(targetWheel);
+        target.putAll(source);
+        Bundle unregistered = new Bundle();
+        unregistered.putAll(source);
+        assertEquals(1, sourceWheel.size());
+        assertEquals(1, targetWheel.size());
+
+        Thread.sleep(30);
+        assertEquals(1, targetWheel.advance());
+        assertTrue(target.isEmpty());
+        assertEquals(1, source.size());
+        assertNull(unregistered.getString("key"));
+    }
+
+    @Test
+    public void timersBeyondFirstLevelAreCascaded() throws Exception {
+        ExpiryWheel wheel = new ExpiryWheel(1, TimeUnit.MILLISECONDS);
+        Bundle bundle = new Bundle();
+        bundle.setExpiryWheel(wheel);
+        bundle.putString("key", "value", 150, TimeUnit.MILLISECONDS);
+
+        Thread.sleep(50);
+        assertEquals(0, wheel.advance());
+        assertEquals(1, bundle.size());
+        Thread.sleep(150);
+        assertEquals(1, wheel.advance());
+        assertTrue(bundle.isEmpty());
+    }
+
+    @Test
+    public void putsRaceWithWheelTicks() throws Exception {
+        ExpiryWheel wheel = new ExpiryWheel(1, TimeUnit.MILLISECONDS);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        wheel.schedule(executor);
+        try {
+            Bundle bundle = new Bundle();
+            bundle.setExpiryWheel(wheel);
+            bundle.setRetainedSizeTracking(true);
+            bundle.setFingerprintTracking(true);
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+            int i = 0;
+            while (System.nanoTime() < end) {
+                String key = "key" + (i % 500);
+                bundle.putLong(key, i, 1 + i % 3, TimeUnit.MILLISECONDS);
+                bundle.getLong("key" + ((i * 7) % 500), 0);
+                i++;
+            }
+            Thread.sleep(20);
+
+            Bundle untracked = new Bundle(bundle);
+            assertEquals(untracked.fingerprint64(), bundle.fingerprint64());
+            assertEquals(untracked.estimateRetainedBytes(), bundle.estimateRetainedBytes());
+            assertTrue(bundle.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void commitsRegisterOnlyChangedEntries() {
+        ExpiryWheel wheel = new ExpiryWheel(1, TimeUnit.MILLISECONDS);
+        Bundle initial = new Bundle();
+        initial.setExpiryWheel(wheel);
+        initial.putString("session", "abc", 1, TimeUnit.HOURS);
+        VersionedBundle versioned = new VersionedBundle(initial);
+        assertEquals(1, wheel.size());
+
+        for (int i = 0; i < 100; i++) {
+            versioned.commit(new BundleUpdater() {
+                @Override
+                public void update(Bundle bundle) {
+                    bundle.putString("token", "xyz", 1, TimeUnit.HOURS);
+                }
+            });
+        }
+
+        assertEquals(1, wheel.size());
+        assertEquals("abc", versioned.snapshot().getString("session"));
+        assertEquals("xyz", versioned.snapshot().getString("token"));
+    }
+}
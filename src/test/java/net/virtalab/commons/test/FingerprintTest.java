@@ -0,0 +1,123 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Testing fingerprints of Bundles
+ *
+ * @since 1.0
+ */
+public class FingerprintTest {
+
+    private static Bundle sample() {
+        Bundle b = new Bundle();
+        b.putInt("int", 42);
+        b.putLong("long", 42L);
+        b.putString("string", "hello, world");
+        b.putDouble("double", 0.5);
+        b.putByteArray("bytes", new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20,
+                21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35});
+        b.putLongArray("longs", new long[]{1, 2, 3, 4, 5, 6, 7});
+        b.putStringList("list", Arrays.asList("a", "b"));
+        return b;
+    }
+
+    @Test
+    public void fingerprintIsStable() {
+        // canonical encoding must not change between versions and JVMs
+        Bundle b = new Bundle();
+        b.putInt("a", 1);
+        assertEquals(b.fingerprint64(), new Bundle(b).fingerprint64());
+        assertEquals(4640351951307952625L, b.fingerprint64());
+    }
+
+    @Test
+    public void fingerprintDoesNotDependOnOrderOrStorage() {
+        Bundle hashed = sample();
+        Bundle ordered = Bundle.createOrderedBundle();
+        ordered.putAll(hashed);
+        Bundle compressed = sample();
+        compressed.putCompressedLongArray("longs", new long[]{1, 2, 3, 4, 5, 6, 7});
+
+        assertEquals(hashed.fingerprint64(), ordered.fingerprint64());
+        assertEquals(hashed.fingerprint64(), compressed.fingerprint64());
+        assertArrayEquals(hashed.fingerprint128(), ordered.fingerprint128());
+    }
+
+    @Test
+    public void fingerprintDistinguishesContent() {
+        Bundle b = sample();
+        long original = b.fingerprint64();
+
+        b.putLong("int", 42L);
+        assertNotEquals(original, b.fingerprint64());
+        b.putInt("int", 42);
+        assertEquals(original, b.fingerprint64());
+        b.putByteArray("bytes", new byte[35]);
+        assertNotEquals(original, b.fingerprint64());
+
+        Bundle swapped = new Bundle();
+        swapped.putString("a", "b");
+        Bundle other = new Bundle();
+        other.putString("b", "a");
+        assertNotEquals(swapped.fingerprint64(), other.fingerprint64());
+    }
+
+    @Test
+    public void trackedFingerprintFollowsMutations() {
+        Bundle tracked = sample();
+        tracked.setFingerprintTracking(true);
+        tracked.putString("string", "changed");
+        tracked.remove("long");
+        tracked.putAll(sample());
+        tracked.putInt("new", 1);
+        tracked.remove("missing");
+
+        Bundle expected = sample();
+        expected.putInt("new", 1);
+        assertEquals(expected.fingerprint64(), tracked.fingerprint64());
+        assertArrayEquals(expected.fingerprint128(), tracked.fingerprint128());
+
+        tracked.clear();
+        assertEquals(new Bundle().fingerprint64(), tracked.fingerprint64());
+    }
+
+    @Test
+    public void trackingDoesNotComputeLazyValues() {
+        final int[] calls = new int[1];
+        Bundle tracked = new Bundle();
+        tracked.setFingerprintTracking(true);
+        tracked.putLazyString("lazy", new Supplier<String>() {
+            @Override
+            public String get() {
+                calls[0]++;
+                return "computed";
+            }
+        });
+        assertEquals(0, calls[0]);
+
+        Bundle expected = new Bundle();
+        expected.putString("lazy", "computed");
+        assertEquals(expected.fingerprint64(), tracked.fingerprint64());
+        assertEquals(1, calls[0]);
+        tracked.remove("lazy");
+        assertEquals(new Bundle().fingerprint64(), tracked.fingerprint64());
+    }
+
+    @Test
+    public void nestedBundlesAreHashedByContent() {
+        Bundle a = new Bundle();
+        a.put("nested", sample());
+        Bundle b = new Bundle();
+        b.put("nested", sample());
+        assertEquals(a.fingerprint64(), b.fingerprint64());
+    }
+}
@@ -0,0 +1,152 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleUpdater;
+import net.virtalab.commons.IndexedBundles;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing indexed collection of Bundles
+ *
+ * @since 1.0
+ */
+public class IndexedBundlesTest {
+
+    private static Bundle order(String status, long created) {
+        Bundle b = new Bundle();
+        b.putString("status", status);
+        b.putLong("created", created);
+        return b;
+    }
+
+    private static Set<String> ids(IndexedBundles.Query query) throws InterruptedException {
+        return new HashSet<>(query.ids());
+    }
+
+    private static IndexedBundles fill(IndexedBundles bundles, int size) {
+        for (int i = 0; i < size; i++) {
+            bundles.put("o" + i, order(i % 3 == 0 ? "open" : "closed", i));
+        }
+        return bundles;
+    }
+
+    @Test
+    public void indexedAndScannedQueriesAgree() throws Exception {
+        IndexedBundles indexed = fill(new IndexedBundles(), 300);
+        indexed.addHashIndex("status");
+        indexed.addRangeIndex("created");
+        IndexedBundles scanned = fill(new IndexedBundles(), 300);
+
+        assertEquals(100, indexed.query().whereEquals("status", "open").ids().size());
+        assertEquals(ids(scanned.query().whereEquals("status", "open")),
+                ids(indexed.query().whereEquals("status", "open")));
+        assertEquals(ids(scanned.query().whereBetween("created", 10, 20)),
+                ids(indexed.query().whereBetween("created", 10, 20)));
+        assertEquals(10, indexed.query().whereBetween("created", 10, 20).ids().size());
+        assertEquals(ids(scanned.query().whereEquals("status", "open").whereBetween("created", 0, 30)),
+                ids(indexed.query().whereEquals("status", "open").whereBetween("created", 0, 30)));
+        assertEquals(10, indexed.query().whereEquals("status", "open").whereBetween("created", 0, 30).list().size());
+        assertEquals(300, indexed.query().list().size());
+    }
+
+    @Test
+    public void indexesFollowUpdatesAndRemovals() throws Exception {
+        IndexedBundles bundles = new IndexedBundles();
+        bundles.addHashIndex("status");
+        bundles.addRangeIndex("created");
+        bundles.put("a", order("open", 5));
+        bundles.put("b", order("open", 7));
+
+        bundles.update("a", new BundleUpdater() {
+            @Override
+            public void update(Bundle bundle) {
+                bundle.putString("status", "closed");
+                bundle.putLong("created", 100);
+            }
+        });
+        bundles.remove("b");
+
+        assertEquals(Collections.<String>emptyList(), bundles.query().whereEquals("status", "open").ids());
+        assertEquals(Collections.singletonList("a"), bundles.query().whereEquals("status", "closed").ids());
+        assertEquals(Collections.<String>emptyList(), bundles.query().whereBetween("created", 0, 10).ids());
+        assertEquals(Collections.singletonList("a"), bundles.query().whereBetween("created", 100, 101).ids());
+        assertNull(bundles.get("b"));
+        assertEquals(1, bundles.size());
+    }
+
+    @Test
+    public void storedBundlesAreCopies() throws Exception {
+        IndexedBundles bundles = new IndexedBundles();
+        bundles.addHashIndex("status");
+        Bundle original = order("open", 1);
+        bundles.put("a", original);
+        original.putString("status", "closed");
+
+        assertEquals(Collections.singletonList("a"), bundles.query().whereEquals("status", "open").ids());
+        assertTrue(bundles.get("a").isReadOnly());
+    }
+
+    @Test
+    public void rangeMatchesIntegralValuesOnly() throws Exception {
+        IndexedBundles bundles = new IndexedBundles();
+        Bundle b = new Bundle();
+        b.putInt("n", 3);
+        bundles.put("int", b);
+        b = new Bundle();
+        b.putDouble("n", 3.0);
+        bundles.put("double", b);
+
+        assertEquals(Collections.singletonList("int"), bundles.query().whereBetween("n", 0, 10).ids());
+        bundles.addRangeIndex("n");
+        assertEquals(Collections.singletonList("int"), bundles.query().whereBetween("n", 0, 10).ids());
+    }
+
+    @Test
+    public void parallelScanFindsAllMatches() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            IndexedBundles bundles = fill(new IndexedBundles(executor), 30000);
+            List<String> open = bundles.query().whereEquals("status", "open").ids();
+            assertEquals(10000, open.size());
+            assertEquals(10000, new HashSet<>(open).size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void expiredIndexedValuesAreNotMatched() throws Exception {
+        IndexedBundles bundles = new IndexedBundles();
+        bundles.addHashIndex("status");
+        bundles.addRangeIndex("created");
+        Bundle order = new Bundle();
+        order.putString("status", "open", 20, TimeUnit.MILLISECONDS);
+        order.putLong("created", 5L, 20, TimeUnit.MILLISECONDS);
+        bundles.put("o1", order);
+        bundles.put("o2", order("open", 6));
+        assertEquals(2, bundles.query().whereEquals("status", "open").ids().size());
+        Thread.sleep(40);
+
+        assertEquals(Collections.singletonList("o2"), bundles.query().whereEquals("status", "open").ids());
+        assertEquals(Collections.singletonList("o2"), bundles.query().whereBetween("created", 0, 10).ids());
+        bundles.put("o1", order("closed", 5));
+
+        assertEquals(Collections.singletonList("o2"), bundles.query().whereEquals("status", "open").ids());
+        assertEquals(Collections.singletonList("o1"), bundles.query().whereEquals("status", "closed").ids());
+        assertEquals(2, bundles.query().whereBetween("created", 0, 10).ids().size());
+        bundles.remove("o1");
+        assertTrue(bundles.query().whereEquals("status", "closed").ids().isEmpty());
+    }
+}
@@ -0,0 +1,56 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.KeyDictionary;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Testing key canonicalization
+ *
+ * @since 1.0
+ */
+public class KeyDictionaryTest {
+    @Test
+    public void equalKeysAreStoredOnce() {
+        KeyDictionary dictionary = new KeyDictionary();
+        String first = new String("http.status");
+        String second = new String("http.status");
+        assertNotSame(first, second);
+
+        assertSame(dictionary.canonicalize(first), dictionary.canonicalize(second));
+        assertEquals(dictionary.idOf(first), dictionary.idOf(second));
+        assertEquals("http.status", dictionary.keyOf(dictionary.idOf(first)));
+        assertEquals(1, dictionary.size());
+    }
+
+    @Test
+    public void bundlesSharingDictionaryStillWorkAsUsual() {
+        KeyDictionary dictionary = new KeyDictionary();
+        Bundle one = Bundle.createEmptyBundle();
+        Bundle two = Bundle.createEmptyBundle();
+        one.setKeyDictionary(dictionary);
+        two.setKeyDictionary(dictionary);
+
+        one.putInt(new String("count"), 1);
+        two.putInt(new String("count"), 2);
+        two.putAll(one);
+
+        assertEquals(1, two.getInt("count"));
+        assertEquals(1, dictionary.size());
+        assertEquals(0, dictionary.find("count"));
+    }
+
+    @Test
+    public void fullDictionaryReturnsKeyAsIs() {
+        KeyDictionary dictionary = new KeyDictionary(1);
+        dictionary.canonicalize("first");
+        String second = new String("second");
+
+        assertSame(second, dictionary.canonicalize(second));
+        assertEquals(-1, dictionary.idOf(second));
+    }
+}
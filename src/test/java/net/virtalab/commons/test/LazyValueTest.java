@@ -0,0 +1,113 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Testing values computed on first read
+ *
+ * @since 1.0
+ */
+public class LazyValueTest {
+    @Test
+    public void valueIsComputedOnceOnFirstRead() {
+        final AtomicInteger calls = new AtomicInteger();
+        Bundle bundle = new Bundle();
+        bundle.putLazyString("payload", new Supplier<String>() {
+            @Override
+            public String get() {
+                calls.incrementAndGet();
+                return "computed";
+            }
+        });
+
+        assertEquals(0, calls.get());
+        assertEquals("computed", bundle.getString("payload"));
+        assertSame(bundle.getString("payload"), bundle.get("payload"));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void typedGettersResolveLazyArrays() {
+        Bundle bundle = new Bundle();
+        bundle.putLazyLongArray("ids", new Supplier<long[]>() {
+            @Override
+            public long[] get() {
+                return new long[]{1, 2, 3};
+            }
+        });
+
+        assertArrayEquals(new long[]{1, 2, 3}, bundle.getLongArray("ids"));
+        assertEquals(2L, bundle.getLongArrayView("ids").get(1));
+        assertEquals(0, bundle.getInt("ids"));
+    }
+
+    @Test
+    public void failedComputationIsRetried() {
+        final AtomicInteger calls = new AtomicInteger();
+        Bundle bundle = new Bundle();
+        bundle.putLazy("value", new Supplier<Object>() {
+            @Override
+            public Object get() {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("not yet");
+                }
+                return 42;
+            }
+        });
+
+        try {
+            bundle.getInt("value");
+        } catch (IllegalStateException expected) {
+            // first computation fails
+        }
+        assertEquals(42, bundle.getInt("value"));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void concurrentFirstReadsComputeOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final Bundle bundle = new Bundle();
+        bundle.putLazyString("payload", new Supplier<String>() {
+            @Override
+            public String get() {
+                calls.incrementAndGet();
+                return new String("computed");
+            }
+        });
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] reads = new Future<?>[8];
+            for (int i = 0; i < reads.length; i++) {
+                reads[i] = executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        start.await();
+                        return bundle.getString("payload");
+                    }
+                });
+            }
+            start.countDown();
+            for (Future<?> read : reads) {
+                assertSame(reads[0].get(), read.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, calls.get());
+    }
+}
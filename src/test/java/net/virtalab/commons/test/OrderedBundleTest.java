@@ -0,0 +1,74 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing ordered Bundles
+ *
+ * @since 1.0
+ */
+public class OrderedBundleTest {
+    @Test
+    public void keysAreIteratedInOrder() {
+        Bundle bundle = Bundle.createOrderedBundle();
+        bundle.putInt("db.pool", 10);
+        bundle.putString("cache.name", "main");
+        bundle.putLong("http.port", 8080);
+
+        assertTrue(bundle.isOrdered());
+        assertEquals(Arrays.asList("cache.name", "db.pool", "http.port"), new ArrayList<>(bundle.keySet()));
+        assertTrue(new Bundle(bundle).isOrdered());
+    }
+
+    @Test
+    public void subBundleContainsOnlyKeysUnderPrefix() {
+        Bundle bundle = Bundle.createOrderedBundle();
+        bundle.putString("http", "root");
+        bundle.putInt("http.port", 80);
+        bundle.putString("http.host", "localhost");
+        bundle.putString("httpx", "other");
+        bundle.putString("db.host", "db");
+
+        Bundle http = bundle.subBundle("http.");
+        assertEquals(Arrays.asList("http.host", "http.port"), new ArrayList<>(http.keySet()));
+        assertEquals(80, http.getInt("http.port"));
+        assertFalse(http.containsKey("httpx"));
+
+        bundle.putBoolean("http.secure", true);
+        assertEquals(3, http.size());
+        assertTrue(http.getBoolean("http.secure"));
+    }
+
+    @Test
+    public void rangeViewIsHalfOpen() {
+        Bundle bundle = Bundle.createOrderedBundle();
+        for (char c = 'a'; c <= 'e'; c++) {
+            bundle.putString(String.valueOf(c), String.valueOf(c));
+        }
+
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<>(bundle.subBundle("b", "d").keySet()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void subBundleIsReadOnly() {
+        Bundle bundle = Bundle.createOrderedBundle();
+        bundle.putString("a.b", "c");
+
+        Bundle view = bundle.subBundle("a.");
+        assertTrue(view.isReadOnly());
+        view.putString("a.c", "d");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void unorderedBundleHasNoSubBundles() {
+        Bundle.createEmptyBundle().subBundle("a.");
+    }
+}
@@ -0,0 +1,70 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.RateLimitedMismatchReporter;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Testing rate limiting of type mismatch warnings
+ *
+ * @since 1.0
+ */
+public class RateLimitedMismatchReporterTest {
+    @Test
+    public void repeatedMismatchesForSameKeyAreCountedNotLogged() {
+        RateLimitedMismatchReporter reporter =
+                new RateLimitedMismatchReporter(2, 1, TimeUnit.HOURS, 16);
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.setMismatchReporter(reporter);
+        bundle.putString("KEY", "not a number");
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(7, bundle.getInt("KEY", 7));
+        }
+
+        assertEquals(2, reporter.getReportedCount());
+        assertEquals(8, reporter.getSuppressedCount());
+        assertEquals(8, reporter.getSuppressedCount("KEY"));
+    }
+
+    @Test
+    public void eachKeyHasOwnLimit() {
+        RateLimitedMismatchReporter reporter =
+                new RateLimitedMismatchReporter(1, 1, TimeUnit.HOURS, 16);
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.setMismatchReporter(reporter);
+        bundle.putString("A", "a");
+        bundle.putString("B", "b");
+
+        bundle.getLong("A");
+        bundle.getLong("B");
+        bundle.getLong("A");
+
+        assertEquals(2, reporter.getReportedCount());
+        assertEquals(1, reporter.getSuppressedCount("A"));
+        assertEquals(0, reporter.getSuppressedCount("B"));
+    }
+
+    @Test
+    public void zeroPermitsOnlyCount() {
+        RateLimitedMismatchReporter reporter =
+                new RateLimitedMismatchReporter(0, 1, TimeUnit.HOURS, 0);
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.setMismatchReporter(reporter);
+        bundle.putString("A", "a");
+
+        bundle.getLong("A");
+
+        assertEquals(0, reporter.getReportedCount());
+        assertEquals(1, reporter.getSuppressedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativePermitsAreRejected() {
+        new RateLimitedMismatchReporter(-1, 1, TimeUnit.HOURS, 16);
+    }
+}
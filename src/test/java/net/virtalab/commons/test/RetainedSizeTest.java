@@ -0,0 +1,66 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.ValueType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing retained size estimation
+ *
+ * @since 1.0
+ */
+public class RetainedSizeTest {
+    @Test
+    public void largerValuesRetainMore() {
+        Bundle small = Bundle.createEmptyBundle();
+        small.putLongArray("values", new long[10]);
+        Bundle large = Bundle.createEmptyBundle();
+        large.putLongArray("values", new long[10000]);
+
+        assertTrue(large.estimateRetainedBytes() - small.estimateRetainedBytes() >= 9990 * 8);
+    }
+
+    @Test
+    public void breakdownGroupsValuesByType() {
+        Bundle bundle = Bundle.createEmptyBundle();
+        bundle.putIntArray("a", new int[100]);
+        bundle.putIntArray("b", new int[100]);
+        bundle.putStringList("names", new ArrayList<>(Arrays.asList("one", "two")));
+        bundle.putInt("small", 1);
+
+        Map<ValueType, Long> breakdown = bundle.retainedSizeBreakdown();
+
+        assertEquals(Long.valueOf(2 * (16 + 400)), breakdown.get(ValueType.INT_ARRAY));
+        assertTrue(breakdown.get(ValueType.LIST) > 0);
+        assertEquals(Long.valueOf(0), breakdown.get(ValueType.INT));
+        assertFalse(breakdown.containsKey(ValueType.STRING));
+    }
+
+    @Test
+    public void trackedEstimateMatchesFullWalk() {
+        Bundle tracked = Bundle.createEmptyBundle();
+        tracked.setRetainedSizeTracking(true);
+        Bundle walked = Bundle.createEmptyBundle();
+        for (Bundle bundle : Arrays.asList(tracked, walked)) {
+            bundle.putString("name", "some name");
+            bundle.putDoubleArray("values", new double[64]);
+            bundle.putDoubleArray("values", new double[8]);
+            bundle.putLong("big", Long.MAX_VALUE);
+            bundle.putCompressedLongArray("ts", new long[]{1, 2, 3});
+            bundle.remove("name");
+        }
+
+        assertEquals(walked.estimateRetainedBytes(), tracked.estimateRetainedBytes());
+        tracked.clear();
+        walked.clear();
+        assertEquals(walked.estimateRetainedBytes(), tracked.estimateRetainedBytes());
+    }
+}
@@ -0,0 +1,137 @@
+package net.virtalab.commons.test;
+
+import net.virtalab.commons.Bundle;
+import net.virtalab.commons.BundleUpdater;
+import net.virtalab.commons.VersionedBundle;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Testing snapshots of versioned Bundle
+ *
+ * @since 1.0
+ */
+public class VersionedBundleTest {
+
+    @Test
+    public void snapshotDoesNotChange() {
+        VersionedBundle versioned = new VersionedBundle();
+        versioned.put("host", "a");
+        Bundle snapshot = versioned.snapshot();
+        versioned.put("host", "b");
+
+        assertEquals("a", snapshot.getString("host"));
+        assertEquals("b", versioned.snapshot().getString("host"));
+        assertEquals(2, versioned.getVersion());
+        try {
+            snapshot.putString("host", "c");
+            fail("Snapshot was changed");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failedCommitPublishesNothing() {
+        VersionedBundle versioned = new VersionedBundle();
+        Bundle before = versioned.snapshot();
+        try {
+            versioned.commit(new BundleUpdater() {
+                @Override
+                public void update(Bundle bundle) {
+                    bundle.putString("host", "a");
+                    throw new IllegalStateException();
+                }
+            });
+            fail("Exception was not thrown");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertSame(before, versioned.snapshot());
+        assertEquals(0, versioned.getVersion());
+    }
+
+    @Test
+    public void conditionalCommitFailsAfterOtherCommit() {
+        VersionedBundle versioned = new VersionedBundle();
+        long version = versioned.getVersion();
+        versioned.put("port", 1);
+        BundleUpdater updater = new BundleUpdater() {
+            @Override
+            public void update(Bundle bundle) {
+                bundle.putInt("port", 2);
+            }
+        };
+        assertNull(versioned.commit(version, updater));
+        assertEquals(2, versioned.commit(version + 1, updater).getInt("port"));
+    }
+
+    @Test
+    public void readersSeeWholeCommits() throws Exception {
+        final VersionedBundle versioned = new VersionedBundle();
+        versioned.commit(new Pair(0));
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> reader = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int reads = 0;
+                    do {
+                        Bundle snapshot = versioned.snapshot();
+                        assertEquals("host-" + snapshot.getInt("port"), snapshot.getString("host"));
+                        reads++;
+                    } while (!done.get());
+                    return reads;
+                }
+            });
+            for (int i = 1; i <= 2000; i++) {
+                versioned.commit(new Pair(i));
+            }
+            done.set(true);
+            assertTrue(reader.get() > 0);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2001, versioned.getVersion());
+    }
+
+    @Test
+    public void oldVersionsAreReclaimed() throws Exception {
+        VersionedBundle versioned = new VersionedBundle();
+        versioned.put("a", new byte[1 << 20]);
+        WeakReference<Bundle> old = new WeakReference<>(versioned.snapshot());
+        versioned.put("a", null);
+        for (int i = 0; i < 50 && old.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(old.get());
+    }
+
+    private static final class Pair implements BundleUpdater {
+        private final int mPort;
+
+        Pair(int port) {
+            this.mPort = port;
+        }
+
+        @Override
+        public void update(Bundle bundle) {
+            bundle.putString("host", "host-" + mPort);
+            bundle.putInt("port", mPort);
+        }
+    }
+}